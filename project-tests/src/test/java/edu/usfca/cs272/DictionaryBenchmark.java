@@ -0,0 +1,228 @@
+package edu.usfca.cs272;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+
+/**
+ * Measures how the cost of fuzzy and wildcard queries grows with the number of
+ * words in the index. Each query is expanded to its matching words twice, once
+ * the way a search does it, with the Levenshtein automaton over the term
+ * dictionary or the reversed words and trigrams, and once by checking every word
+ * in the index. Both ways must find the same words.
+ *
+ * @author zoe
+ *
+ */
+public class DictionaryBenchmark {
+
+	/**
+	 * The default number of words in the largest index
+	 */
+	public static final int DEFAULT_WORDS = 200_000;
+
+	/**
+	 * The default number of queries of each kind
+	 */
+	public static final int DEFAULT_QUERIES = 50;
+
+	/**
+	 * The syllables words are made of, so that words share prefixes, suffixes and
+	 * inner parts the way real stems do
+	 */
+	private static final String[] SYLLABLES = { "an", "ar", "ba", "ca", "ch", "de", "en", "er", "gin", "in", "ing",
+			"ke", "la", "le", "mi", "ne", "or", "pa", "qu", "ro", "se", "st", "ta", "th", "un", "ve", "wo", "x" };
+
+	/**
+	 * The number of locations words are spread across
+	 */
+	private static final int LOCATIONS = 1000;
+
+	/**
+	 * Kinds of queries that can be benchmarked
+	 */
+	private enum Kind {
+		/** Misspelled words within one edit */
+		FUZZY1,
+		/** Misspelled words within two edits */
+		FUZZY2,
+		/** Wildcard patterns with only a suffix, such as {@code *ing} */
+		SUFFIX,
+		/** Wildcard patterns with only an inner part, such as {@code *ngi*} */
+		INFIX
+	}
+
+	/**
+	 * Builds an index of random words spread across a fixed number of locations
+	 *
+	 * @param words the number of distinct words to add
+	 * @param random the source of the words
+	 * @return the index
+	 */
+	private static InvertedIndex build(int words, Random random) {
+		InvertedIndex index = new InvertedIndex();
+		int position = 0;
+		while (index.size() < words) {
+			String word = word(random);
+			int postings = 1 + random.nextInt(3);
+			for (int i = 0; i < postings; i++) {
+				index.addIndexEntry(word, "doc" + random.nextInt(LOCATIONS), ++position);
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Makes a random word of two to five syllables
+	 *
+	 * @param random the source of the word
+	 * @return the word
+	 */
+	private static String word(Random random) {
+		StringBuilder word = new StringBuilder();
+		int syllables = 2 + random.nextInt(4);
+		for (int i = 0; i < syllables; i++) {
+			word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+		}
+		return word.toString();
+	}
+
+	/**
+	 * Makes a query of the given kind from a word in the index
+	 *
+	 * @param kind the kind of query
+	 * @param word a word in the index at least five letters long
+	 * @param random the source of the misspelling
+	 * @return the query stem
+	 */
+	private static String query(Kind kind, String word, Random random) {
+		return switch (kind) {
+			case FUZZY1, FUZZY2 -> {
+				StringBuilder typo = new StringBuilder(word);
+				typo.setCharAt(random.nextInt(word.length()), (char) ('a' + random.nextInt(26)));
+				yield typo.toString();
+			}
+			case SUFFIX -> WildcardPattern.WILDCARD + word.substring(word.length() - 3);
+			case INFIX -> WildcardPattern.WILDCARD + word.substring(1, 4) + WildcardPattern.WILDCARD;
+		};
+	}
+
+	/**
+	 * Returns the number of edits between two words
+	 *
+	 * @param first the first word
+	 * @param second the second word
+	 * @return the edit distance
+	 */
+	private static int distance(String first, String second) {
+		int[] previous = new int[second.length() + 1];
+		int[] current = new int[second.length() + 1];
+		for (int j = 0; j <= second.length(); j++) {
+			previous[j] = j;
+		}
+		for (int i = 1; i <= first.length(); i++) {
+			current[0] = i;
+			for (int j = 1; j <= second.length(); j++) {
+				int cost = first.charAt(i - 1) == second.charAt(j - 1) ? 0 : 1;
+				current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+			}
+			int[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+		return previous[second.length()];
+	}
+
+	/**
+	 * Finds the words matching a query by checking every word in the index
+	 *
+	 * @param index the index
+	 * @param matches whether a word matches
+	 * @return the matching words in sorted order
+	 */
+	private static List<String> scan(InvertedIndex index, Predicate<String> matches) {
+		List<String> words = new ArrayList<>();
+		for (String word : index.viewWords()) {
+			if (matches.test(word)) {
+				words.add(word);
+			}
+		}
+		return words;
+	}
+
+	/**
+	 * Expands every query both ways and measures the average time per query
+	 *
+	 * @param index the index
+	 * @param kind the kind of the queries
+	 * @param queries the query stems
+	 * @return a line describing the results
+	 */
+	private static String benchmark(InvertedIndex index, Kind kind, List<String> queries) {
+		int edits = kind == Kind.FUZZY1 ? 1 : kind == Kind.FUZZY2 ? 2 : 0;
+		long matched = 0;
+		long indexed = 0;
+		long scanned = 0;
+
+		for (String query : queries) {
+			long start = System.nanoTime();
+			List<String> found = index.expandStem(query, false, edits);
+			indexed += System.nanoTime() - start;
+
+			Predicate<String> matches;
+			if (edits > 0) {
+				matches = word -> Math.abs(word.length() - query.length()) <= edits && distance(word, query) <= edits;
+			} else {
+				WildcardPattern pattern = new WildcardPattern(query);
+				matches = pattern::matches;
+			}
+			start = System.nanoTime();
+			List<String> expected = scan(index, matches);
+			scanned += System.nanoTime() - start;
+
+			if (!found.equals(expected)) {
+				throw new IllegalStateException("Different words for " + query + ": " + found + " instead of " + expected);
+			}
+			matched += found.size();
+		}
+
+		double indexMillis = indexed / 1e6 / queries.size();
+		double scanMillis = scanned / 1e6 / queries.size();
+		return String.format("%8d  %-7s %8.1f %10.3f %10.3f %8.1fx", index.size(), kind, (double) matched / queries.size(),
+				scanMillis, indexMillis, scanMillis / indexMillis);
+	}
+
+	/**
+	 * Builds indexes of a sixteenth, a quarter and all of the given number of
+	 * words, and benchmarks each kind of query on each of them. Accepts "-words"
+	 * for the size of the largest index, "-queries" for the number of queries of
+	 * each kind, and "-seed" for the random seed.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args) {
+		ArgumentParser map = new ArgumentParser(args);
+		int largest = map.getInteger("-words", DEFAULT_WORDS);
+		int count = map.getInteger("-queries", DEFAULT_QUERIES);
+		Random random = new Random(map.getInteger("-seed", 272));
+
+		System.out.printf("%8s  %-7s %8s %10s %10s %9s%n", "words", "query", "matched", "scan ms", "index ms", "speedup");
+		for (int words : new int[] { largest / 16, largest / 4, largest }) {
+			InvertedIndex index = build(words, random);
+			List<String> all = new ArrayList<>(index.viewWords());
+			for (Kind kind : Kind.values()) {
+				List<String> queries = new ArrayList<>();
+				while (queries.size() < count) {
+					String word = all.get(random.nextInt(all.size()));
+					if (word.length() >= 5) {
+						queries.add(query(kind, word, random));
+					}
+				}
+				// the first pass warms up both ways of matching
+				benchmark(index, kind, queries.subList(0, Math.min(5, queries.size())));
+				System.out.println(benchmark(index, kind, queries));
+			}
+		}
+	}
+}
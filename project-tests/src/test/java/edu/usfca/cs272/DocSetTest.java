@@ -0,0 +1,119 @@
+package edu.usfca.cs272;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the set operations of {@link DocSet} against sorted sets, for sets
+ * sparse enough to be stored as arrays and dense enough to be stored as
+ * bitmaps.
+ *
+ * @author zoe
+ *
+ */
+public class DocSetTest {
+
+	/**
+	 * The number of random pairs of sets to compare
+	 */
+	private static final int ROUNDS = 200;
+
+	/**
+	 * Returns the ids in a set in sorted order
+	 *
+	 * @param set the set
+	 * @return the ids
+	 */
+	private static TreeSet<Integer> ids(DocSet set) {
+		TreeSet<Integer> ids = new TreeSet<>();
+		set.forEach(ids::add);
+		return ids;
+	}
+
+	/**
+	 * Makes a random set, sometimes with groups dense enough to be bitmaps
+	 *
+	 * @param random the source of the ids
+	 * @param expected the sorted set to add the same ids to
+	 * @return the set
+	 */
+	private static DocSet random(Random random, TreeSet<Integer> expected) {
+		DocSet set = new DocSet();
+		int size = random.nextBoolean() ? random.nextInt(100) : random.nextInt(3 * DocSet.ARRAY_LIMIT);
+		int range = random.nextBoolean() ? 1 << 16 : 1 << 18;
+		for (int i = 0; i < size; i++) {
+			int id = random.nextInt(range);
+			set.add(id);
+			expected.add(id);
+		}
+		return set;
+	}
+
+	/**
+	 * Adding ids keeps them sorted without duplicates
+	 */
+	@Test
+	public void testAdd() {
+		Random random = new Random(272);
+		for (int round = 0; round < ROUNDS; round++) {
+			TreeSet<Integer> expected = new TreeSet<>();
+			DocSet set = random(random, expected);
+			assertEquals(expected, ids(set));
+			assertEquals(expected.size(), set.size());
+		}
+	}
+
+	/**
+	 * The intersection, union and difference match the same operations on sorted
+	 * sets, and leave both sets unchanged
+	 */
+	@Test
+	public void testOperations() {
+		Random random = new Random(272);
+		for (int round = 0; round < ROUNDS; round++) {
+			TreeSet<Integer> left = new TreeSet<>();
+			TreeSet<Integer> right = new TreeSet<>();
+			DocSet a = random(random, left);
+			DocSet b = random(random, right);
+
+			TreeSet<Integer> and = new TreeSet<>(left);
+			and.retainAll(right);
+			TreeSet<Integer> or = new TreeSet<>(left);
+			or.addAll(right);
+			TreeSet<Integer> andNot = new TreeSet<>(left);
+			andNot.removeAll(right);
+
+			assertEquals(and, ids(a.and(b)), "and in round " + round);
+			assertEquals(and.size(), a.and(b).size(), "and size in round " + round);
+			assertEquals(or, ids(a.or(b)), "or in round " + round);
+			assertEquals(or.size(), a.or(b).size(), "or size in round " + round);
+			assertEquals(andNot, ids(a.andNot(b)), "andNot in round " + round);
+			assertEquals(andNot.size(), a.andNot(b).size(), "andNot size in round " + round);
+			assertEquals(left, ids(a), "left set changed in round " + round);
+			assertEquals(right, ids(b), "right set changed in round " + round);
+		}
+	}
+
+	/**
+	 * The union of many sets holds every id in any of them
+	 */
+	@Test
+	public void testUnion() {
+		Random random = new Random(272);
+		for (int round = 0; round < ROUNDS / 10; round++) {
+			TreeSet<Integer> expected = new TreeSet<>();
+			List<DocSet> sets = new ArrayList<>();
+			int count = random.nextInt(20);
+			for (int i = 0; i < count; i++) {
+				sets.add(random(random, expected));
+			}
+			assertEquals(expected, ids(DocSet.union(sets)), "union in round " + round);
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package edu.usfca.cs272;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that {@link HtmlScanner} cleans pages exactly the way the regular
+ * expressions of {@link HtmlCleaner} do, and that the runs of
+ * {@link HtmlFields} hold the same text. Pages are taken from a
+ * {@link SyntheticSite} and from random pieces of HTML chosen to hit the
+ * corners of each step, such as unclosed comments, block elements that
+ * overlap, and entities cut off by tags.
+ *
+ * @author zoe
+ *
+ */
+public class HtmlScannerTest {
+
+	/**
+	 * The number of random pages to check
+	 */
+	private static final int FUZZ = 20_000;
+
+	/**
+	 * The block elements the regular expressions remove, in the order they remove
+	 * them
+	 */
+	private static final String[] BLOCKS = { "head", "style", "script", "noscript", "iframe", "svg" };
+
+	/**
+	 * The pieces random pages are made of
+	 */
+	private static final String[] PIECES = { "<", ">", "<!--", "-->", "<script>", "</script>", "</SCRIPT  >",
+			"<script type=x>", "<style>", "</style>", "<head>", "</head>", "<title>", "</title>", "<svg ", "</svg>", "<b>",
+			"</b>", "<h1>", "</h1>", "<a href=\"/x\">", "&amp;", "&lt;", "&#65;", "&#x41;", "&#x1F600;", "&", ";", " ", "\n",
+			"x", "word ", "&nbsp;", "&bogus;", "&#;", "&#12a;", "-", "!", "<noscript>", "</noscript>", "<iframe>",
+			"</iframe>", "<headx>", "< ", "<>", "&amp", "#", "a1" };
+
+	/**
+	 * The pages of a synthetic site
+	 */
+	private static List<String> pages;
+
+	/**
+	 * Builds the pages of a synthetic site
+	 */
+	@BeforeAll
+	public static void setup() {
+		pages = new ArrayList<>();
+		SyntheticSite site = new SyntheticSite(50, 0);
+		for (int i = 0; i < 50; i++) {
+			pages.add(site.page(i));
+		}
+	}
+
+	/**
+	 * Cleans a page with the regular expressions, removing only comments and block
+	 * elements
+	 *
+	 * @param html the page
+	 * @return the page without comments and block elements
+	 */
+	private static String regexBlocks(String html) {
+		html = HtmlCleaner.stripComments(html);
+		for (String name : BLOCKS) {
+			html = HtmlCleaner.stripElement(html, name);
+		}
+		return html;
+	}
+
+	/**
+	 * Returns the text of every run outside the title, without any whitespace
+	 *
+	 * @param page the page split into fields
+	 * @return the characters of the runs
+	 */
+	private static String runs(HtmlFields page) {
+		StringBuilder text = new StringBuilder();
+		for (int run = 0; run < page.size(); run++) {
+			if (page.field(run) != Field.TITLE) {
+				text.append(page.text(run));
+			}
+		}
+		return text.toString().replaceAll("\\s", "");
+	}
+
+	/**
+	 * Cleans a page every way and checks that they all agree. Pages the regular
+	 * expressions are unable to clean are skipped.
+	 *
+	 * @param name what to call the page if it differs
+	 * @param html the page
+	 * @throws IOException if unable to scan the page from a reader
+	 */
+	private static void check(String name, String html) throws IOException {
+		String blocks;
+		String expected;
+		try {
+			blocks = regexBlocks(html);
+			expected = HtmlCleaner.stripEntities(HtmlCleaner.stripTags(blocks));
+		} catch (IllegalArgumentException | StackOverflowError e) {
+			return;
+		}
+
+		assertEquals(expected, HtmlScanner.stripHtml(html), () -> "text of " + name);
+		StringWriter read = new StringWriter();
+		HtmlScanner.scan(new StringReader(html), read, true);
+		assertEquals(expected, read.toString(), () -> "text read from " + name);
+		assertEquals(blocks, HtmlScanner.stripBlockElements(html), () -> "blocks of " + name);
+		assertEquals(expected.replaceAll("\\s", ""), runs(HtmlFields.parse(html)), () -> "fields of " + name);
+	}
+
+	/**
+	 * Every page of a synthetic site comes out the same
+	 *
+	 * @throws IOException if unable to scan a page
+	 */
+	@Test
+	public void testSyntheticPages() throws IOException {
+		for (int i = 0; i < pages.size(); i++) {
+			check("page " + i, pages.get(i));
+		}
+	}
+
+	/**
+	 * Random pieces of HTML come out the same
+	 *
+	 * @throws IOException if unable to scan a page
+	 */
+	@Test
+	public void testRandomPieces() throws IOException {
+		Random random = new Random(272);
+		for (int i = 0; i < FUZZ; i++) {
+			StringBuilder html = new StringBuilder();
+			int pieces = random.nextInt(30);
+			for (int j = 0; j < pieces; j++) {
+				html.append(PIECES[random.nextInt(PIECES.length)]);
+			}
+			check("random " + i, html.toString());
+		}
+	}
+
+	/**
+	 * Real pages cut and spliced with random pieces come out the same
+	 *
+	 * @throws IOException if unable to scan a page
+	 */
+	@Test
+	public void testSplicedPages() throws IOException {
+		Random random = new Random(272);
+		for (int i = 0; i < FUZZ / 50; i++) {
+			StringBuilder html = new StringBuilder(pages.get(random.nextInt(pages.size())));
+			html.insert(random.nextInt(html.length() + 1), PIECES[random.nextInt(PIECES.length)]);
+			int cut = random.nextInt(html.length());
+			html.delete(cut, Math.min(html.length(), cut + random.nextInt(50)));
+			check("spliced " + i, html.toString());
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package edu.usfca.cs272;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the term dictionary and how the Levenshtein automaton walks it against
+ * checking every term one at a time.
+ *
+ * @author zoe
+ *
+ */
+public class LevenshteinAutomatonTest {
+
+	/**
+	 * The letters random terms are made of, few enough that terms share prefixes
+	 */
+	private static final String LETTERS = "abcde";
+
+	/**
+	 * Makes a random term of one to seven letters
+	 *
+	 * @param random the source of the letters
+	 * @return the term
+	 */
+	private static String term(Random random) {
+		StringBuilder term = new StringBuilder();
+		int length = 1 + random.nextInt(7);
+		for (int i = 0; i < length; i++) {
+			term.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+		}
+		return term.toString();
+	}
+
+	/**
+	 * Makes a dictionary of random terms
+	 *
+	 * @param random the source of the terms
+	 * @param size the most terms to add
+	 * @return the terms in sorted order
+	 */
+	private static TreeMap<String, Integer> terms(Random random, int size) {
+		TreeMap<String, Integer> terms = new TreeMap<>();
+		for (int i = 0; i < size; i++) {
+			terms.put(term(random), i);
+		}
+		return terms;
+	}
+
+	/**
+	 * Returns the number of edits between two strings
+	 *
+	 * @param a the first string
+	 * @param b the second string
+	 * @return the Levenshtein distance
+	 */
+	private static int distance(String a, String b) {
+		int[] previous = new int[b.length() + 1];
+		int[] current = new int[b.length() + 1];
+		for (int j = 0; j <= b.length(); j++) {
+			previous[j] = j;
+		}
+		for (int i = 1; i <= a.length(); i++) {
+			current[0] = i;
+			for (int j = 1; j <= b.length(); j++) {
+				int replace = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+				current[j] = Math.min(replace, Math.min(previous[j], current[j - 1]) + 1);
+			}
+			int[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+		return previous[b.length()];
+	}
+
+	/**
+	 * Returns whether a term matches the target by checking it directly
+	 *
+	 * @param term the term
+	 * @param target the target of the automaton
+	 * @param edits the most edits allowed
+	 * @param prefixes whether a term matches if it starts with a match
+	 * @return true if the term matches
+	 */
+	private static boolean matches(String term, String target, int edits, boolean prefixes) {
+		if (prefixes) {
+			for (int end = 1; end < term.length(); end++) {
+				if (distance(term.substring(0, end), target) <= edits) {
+					return true;
+				}
+			}
+		}
+		return distance(term, target) <= edits;
+	}
+
+	/**
+	 * The dictionary holds the terms in order and finds every term with a prefix
+	 */
+	@Test
+	public void testDictionary() {
+		Random random = new Random(272);
+		TreeMap<String, Integer> terms = terms(random, 2000);
+		TermDictionary<Integer> dictionary = new TermDictionary<>(terms, value -> 1);
+
+		assertEquals(terms.size(), dictionary.size());
+		assertEquals(new ArrayList<>(terms.keySet()), dictionary.expand(""));
+		int ordinal = 0;
+		for (String term : terms.keySet()) {
+			assertEquals(term, dictionary.term(ordinal));
+			assertEquals(ordinal, dictionary.find(term));
+			assertEquals(terms.get(term), dictionary.value(ordinal));
+			ordinal++;
+		}
+
+		for (int round = 0; round < 200; round++) {
+			String start = term(random);
+			String prefix = start.substring(0, Math.min(start.length(), 1 + random.nextInt(2)));
+			List<String> expected = new ArrayList<>();
+			for (String term : terms.keySet()) {
+				if (term.startsWith(prefix)) {
+					expected.add(term);
+				}
+			}
+			assertEquals(expected, dictionary.expand(prefix), () -> "terms starting with " + prefix);
+			assertEquals(expected.size(), dictionary.prefixCount(prefix));
+		}
+	}
+
+	/**
+	 * Walking the dictionary with the automaton finds the same terms as checking
+	 * each term, for every distance and with or without prefixes
+	 */
+	@Test
+	public void testIntersect() {
+		Random random = new Random(272);
+		TreeMap<String, Integer> terms = terms(random, 2000);
+		TermDictionary<Integer> dictionary = new TermDictionary<>(terms, value -> 1);
+
+		for (int round = 0; round < 100; round++) {
+			String target = term(random);
+			for (int edits = 0; edits <= LevenshteinAutomaton.MAX_DISTANCE; edits++) {
+				for (boolean prefixes : new boolean[] { false, true }) {
+					LevenshteinAutomaton automaton = new LevenshteinAutomaton(target, edits);
+					List<String> expected = new ArrayList<>();
+					List<String> accepted = new ArrayList<>();
+					for (String term : terms.keySet()) {
+						if (matches(term, target, edits, prefixes)) {
+							expected.add(term);
+						}
+						if (automaton.accepts(term, prefixes)) {
+							accepted.add(term);
+						}
+					}
+
+					List<String> found = new ArrayList<>();
+					for (int ordinal : automaton.intersect(dictionary, prefixes)) {
+						found.add(dictionary.term(ordinal));
+					}
+					String what = target + "~" + edits + (prefixes ? " with prefixes" : "");
+					assertEquals(expected, found, () -> "intersect " + what);
+					assertEquals(expected, accepted, () -> "accepts " + what);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package edu.usfca.cs272;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that query estimates are never lower than the work a search does, and
+ * that the admission policy counts words as well as postings.
+ *
+ * @author zoe
+ *
+ */
+public class QueryCostTest {
+
+	/**
+	 * A fuzzy stem is charged for words that differ from it in the first letter
+	 */
+	@Test
+	public void testFuzzyFirstLetter() {
+		InvertedIndex index = new InvertedIndex();
+		index.addAll(List.of("cat"), "a.txt");
+		index.addAll(List.of("bat", "hat"), "b.txt");
+		index.addAll(List.of("bat"), "c.txt");
+
+		SearchQuery query = SearchQuery.parse("cat~1");
+		List<String> words = index.expandStem("cat", false, 1);
+		assertEquals(List.of("bat", "cat", "hat"), words);
+
+		long postings = 0;
+		for (String word : words) {
+			postings += index.numLocations(word);
+		}
+		QueryCost cost = index.estimate(query, false);
+		assertTrue(cost.getWords() >= words.size(), cost::toString);
+		assertTrue(cost.getPostings() >= postings, cost::toString);
+	}
+
+	/**
+	 * A query over many words is degraded even if each word is rare
+	 */
+	@Test
+	public void testAdmitWords() {
+		AdmissionPolicy policy = new AdmissionPolicy(100, AdmissionPolicy.Action.REJECT, 0);
+		assertEquals(AdmissionPolicy.Action.ACCEPT, policy.admit(new QueryCost(10, 50)));
+		assertEquals(AdmissionPolicy.Action.REJECT, policy.admit(new QueryCost(90, 90)));
+		assertEquals(AdmissionPolicy.Action.REJECT, policy.admit(new QueryCost(0, 101)));
+		assertEquals(1, policy.count(AdmissionPolicy.Action.ACCEPT));
+		assertEquals(2, policy.count(AdmissionPolicy.Action.REJECT));
+	}
+}
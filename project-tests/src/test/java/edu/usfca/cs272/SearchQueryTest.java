@@ -0,0 +1,152 @@
+package edu.usfca.cs272;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests how {@link SearchQuery} parses operators and how they bind to the words
+ * around them.
+ *
+ * @author zoe
+ *
+ */
+public class SearchQueryTest {
+
+	/**
+	 * Checks the stems of each kind in a parsed query
+	 *
+	 * @param line the query line to parse
+	 * @param required the expected required stems
+	 * @param optional the expected optional stems
+	 * @param excluded the expected excluded stems
+	 */
+	private static void assertQuery(String line, Set<String> required, Set<String> optional, Set<String> excluded) {
+		SearchQuery query = SearchQuery.parse(line);
+		assertEquals(required, query.viewRequired(), () -> "required stems of " + line);
+		assertEquals(optional, query.viewOptional(), () -> "optional stems of " + line);
+		assertEquals(excluded, query.viewExcluded(), () -> "excluded stems of " + line);
+	}
+
+	/**
+	 * Words without operators are all optional
+	 */
+	@Test
+	public void testPlainWords() {
+		assertQuery("cat dog", Set.of(), Set.of("cat", "dog"), Set.of());
+		assertQuery("cat OR dog", Set.of(), Set.of("cat", "dog"), Set.of());
+	}
+
+	/**
+	 * AND makes both of its neighbors required
+	 */
+	@Test
+	public void testAnd() {
+		assertQuery("cat AND dog", Set.of("cat", "dog"), Set.of(), Set.of());
+		assertQuery("x AND y AND z", Set.of("x", "y", "z"), Set.of(), Set.of());
+	}
+
+	/**
+	 * AND binds more tightly than the implied OR between words
+	 */
+	@Test
+	public void testAndBeforeOr() {
+		assertQuery("cat dog AND bird", Set.of("bird", "dog"), Set.of("cat"), Set.of());
+		assertQuery("a AND b OR c", Set.of("a", "b"), Set.of("c"), Set.of());
+	}
+
+	/**
+	 * NOT and a leading minus exclude only the next word
+	 */
+	@Test
+	public void testNot() {
+		assertQuery("cat NOT dog", Set.of(), Set.of("cat"), Set.of("dog"));
+		assertQuery("+cat -dog fish", Set.of("cat"), Set.of("fish"), Set.of("dog"));
+	}
+
+	/**
+	 * AND next to an excluded word does not make the excluded word required
+	 */
+	@Test
+	public void testAndNot() {
+		assertQuery("cat AND NOT dog", Set.of("cat"), Set.of(), Set.of("dog"));
+		assertQuery("NOT dog AND cat", Set.of("cat"), Set.of(), Set.of("dog"));
+	}
+
+	/**
+	 * An excluded stem wins over any other use of the same stem
+	 */
+	@Test
+	public void testExcludedWins() {
+		SearchQuery query = SearchQuery.parse("cat -cats");
+		assertEquals(Set.of("cat"), query.viewExcluded());
+		assertTrue(query.isEmpty());
+	}
+
+	/**
+	 * A dangling operator still applies to the word next to it
+	 */
+	@Test
+	public void testDanglingAnd() {
+		assertQuery("AND cat", Set.of("cat"), Set.of(), Set.of());
+		assertQuery("cat AND", Set.of("cat"), Set.of(), Set.of());
+	}
+
+	/**
+	 * Lowercase operator words are searched for like any other word
+	 */
+	@Test
+	public void testLowercaseKeywords() {
+		assertQuery("and or not", Set.of(), Set.of("and", "not", "or"), Set.of());
+	}
+
+	/**
+	 * A trailing tilde allows edits, up to the most the automaton supports
+	 */
+	@Test
+	public void testFuzzy() {
+		SearchQuery query = SearchQuery.parse("running~2 cat~ dog~9 bird");
+		assertEquals(2, query.distance("run"));
+		assertEquals(1, query.distance("cat"));
+		assertEquals(LevenshteinAutomaton.MAX_DISTANCE, query.distance("dog"));
+		assertEquals(0, query.distance("bird"));
+		assertTrue(query.isFuzzy());
+	}
+
+	/**
+	 * Wildcard patterns are kept without stemming
+	 */
+	@Test
+	public void testWildcard() {
+		SearchQuery query = SearchQuery.parse("ca* dogs");
+		assertEquals(Set.of("ca*", "dog"), query.viewOptional());
+		assertTrue(query.hasWildcards());
+	}
+
+	/**
+	 * The canonical form lists required, optional, then excluded stems
+	 */
+	@Test
+	public void testToString() {
+		assertEquals("+bird +dog cat", SearchQuery.parse("cat dog AND bird").toString());
+		assertEquals("+cat fish -dog", SearchQuery.parse("fish -dog +cat").toString());
+		assertEquals("run~1", SearchQuery.parse("running~").toString());
+	}
+
+	/**
+	 * Plain queries treat operators as ordinary words, the way query files
+	 * always have
+	 */
+	@Test
+	public void testPlain() {
+		SearchQuery query = SearchQuery.plain("Cat AND +dogs -running*");
+		assertEquals(Set.of("and", "cat", "dog", "run"), query.viewOptional());
+		assertTrue(query.isPlain());
+		assertFalse(query.isBoolean());
+		assertEquals("and cat dog run", query.toString());
+	}
+}
@@ -0,0 +1,73 @@
+package edu.usfca.cs272;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that a {@link SeenSet} answers the same with and without a Bloom
+ * filter in front of it.
+ *
+ * @author zoe
+ *
+ */
+public class SeenSetTest {
+
+	/**
+	 * The number of links to add
+	 */
+	private static final int LINKS = 50_000;
+
+	/**
+	 * Returns a made up link
+	 *
+	 * @param i the number of the link
+	 * @return the link
+	 */
+	private static String link(int i) {
+		return "https://example.com/page/" + i + ".html";
+	}
+
+	/**
+	 * Checks that a set holds the even links and none of the odd ones
+	 *
+	 * @param set the set to check
+	 */
+	private static void assertEvenLinks(SeenSet set) {
+		assertEquals(LINKS / 2, set.size());
+		for (int i = 0; i < LINKS; i++) {
+			assertEquals(i % 2 == 0, set.contains(link(i)), link(i));
+		}
+	}
+
+	/**
+	 * Adding a link reports whether it was new, with or without a Bloom filter
+	 */
+	@Test
+	public void testAdd() {
+		for (SeenSet set : new SeenSet[] { new SeenSet(), new SeenSet(LINKS) }) {
+			for (int i = 0; i < LINKS; i += 2) {
+				assertTrue(set.add(link(i)));
+				assertFalse(set.add(link(i)));
+			}
+			assertEvenLinks(set);
+		}
+	}
+
+	/**
+	 * A copy with a Bloom filter keeps every link of the original, even when it
+	 * holds more links than the filter was sized for
+	 */
+	@Test
+	public void testCopy() {
+		SeenSet original = new SeenSet();
+		for (int i = 0; i < LINKS; i += 2) {
+			original.add(link(i));
+		}
+		assertEvenLinks(new SeenSet(original, LINKS));
+		assertEvenLinks(new SeenSet(original, 100));
+		assertEvenLinks(new SeenSet(original, 0));
+	}
+}
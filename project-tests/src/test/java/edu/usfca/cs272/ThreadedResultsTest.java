@@ -0,0 +1,101 @@
+package edu.usfca.cs272;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that pages of results are never taken from results ranked for the
+ * other search mode or for an older version of the index.
+ *
+ * @author zoe
+ *
+ */
+public class ThreadedResultsTest {
+
+	/**
+	 * The index being searched
+	 */
+	private ThreadedIndex index;
+
+	/**
+	 * The work queue for reading queries
+	 */
+	private WorkQueue queue;
+
+	/**
+	 * The results being tested
+	 */
+	private ThreadedResults results;
+
+	/**
+	 * Builds a small index where "cat" matches exactly in one location and as a
+	 * prefix in another
+	 */
+	@BeforeEach
+	public void setup() {
+		index = new ThreadedIndex();
+		index.addAll(List.of("cat", "dog"), "a.txt");
+		index.addAll(List.of("catalog"), "b.txt");
+		queue = new WorkQueue(2);
+		results = new ThreadedResults(index, queue);
+	}
+
+	/**
+	 * Stops the work queue
+	 */
+	@AfterEach
+	public void teardown() {
+		queue.shutdown();
+	}
+
+	/**
+	 * Returns the locations on a page in ranked order
+	 *
+	 * @param page the page of results
+	 * @return the locations
+	 */
+	private static List<String> locations(ResultPage page) {
+		List<String> locations = new ArrayList<>();
+		for (InvertedIndex.Result result : page.viewResults()) {
+			locations.add(result.getLocation());
+		}
+		return locations;
+	}
+
+	/**
+	 * A partial page is searched again after an exact query was read
+	 */
+	@Test
+	public void testModeAfterRead() {
+		results.readQueries("cat", false);
+		queue.finish();
+		ResultPage page = results.searchPage("cat", true, null, 0, 10, Deadline.NONE);
+		assertEquals(List.of("b.txt", "a.txt"), locations(page));
+		assertTrue(page.isPartial());
+
+		page = results.searchPage("cat", false, null, 0, 10, Deadline.NONE);
+		assertEquals(List.of("a.txt"), locations(page));
+		assertFalse(page.isPartial());
+	}
+
+	/**
+	 * A page is searched again after the index changes
+	 */
+	@Test
+	public void testIndexChanged() {
+		results.readQueries("cat", false);
+		queue.finish();
+		assertEquals(List.of("a.txt"), locations(results.searchPage("cat", false, null, 0, 10, Deadline.NONE)));
+
+		index.addAll(List.of("cat"), "c.txt");
+		assertEquals(List.of("c.txt", "a.txt"), locations(results.searchPage("cat", false, null, 0, 10, Deadline.NONE)));
+	}
+}
@@ -0,0 +1,167 @@
+package edu.usfca.cs272;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides how to run a query based on its estimated cost. A query whose
+ * estimated words and postings together are within the limit is run as usual, and a more expensive
+ * query is rejected or run in a cheaper way, depending on the configured action.
+ * Every decision and estimate is counted so the policy can be tuned from the
+ * logged metrics. This class is thread safe.
+ *
+ * @author zoe
+ *
+ */
+public class AdmissionPolicy {
+
+	/**
+	 * How to run a query
+	 */
+	public enum Action {
+		/** Run the query as requested */
+		ACCEPT,
+		/** Refuse to run the query */
+		REJECT,
+		/** Run the query as an exact search instead of a partial search */
+		EXACT,
+		/** Only rank the first page of results */
+		TOP_K,
+		/** Run the query with a shorter deadline */
+		DEADLINE
+	}
+
+	/**
+	 * The default largest number of words and postings a query may read before it
+	 * is degraded
+	 */
+	public static final long DEFAULT_MAX_COST = 200_000;
+
+	/**
+	 * The default deadline in milliseconds for queries degraded with
+	 * {@link Action#DEADLINE}
+	 */
+	public static final long DEFAULT_DEGRADED_TIMEOUT = 250;
+
+	/**
+	 * The largest number of words and postings a query may read before it is
+	 * degraded
+	 */
+	private final long maxCost;
+
+	/**
+	 * What to do with a query that costs more than the limit
+	 */
+	private final Action overflow;
+
+	/**
+	 * The deadline in milliseconds for queries degraded with
+	 * {@link Action#DEADLINE}
+	 */
+	private final long degradedTimeout;
+
+	/**
+	 * The number of queries given each action
+	 */
+	private final Map<Action, LongAdder> decisions;
+
+	/**
+	 * The total estimated words and postings of every query checked
+	 */
+	private final LongAdder totalCost;
+
+	/**
+	 * The largest estimated words and postings of any query checked
+	 */
+	private final LongAccumulator maxSeen;
+
+	/**
+	 * Constructs a policy
+	 *
+	 * @param maxCost the largest number of words and postings a query may read
+	 *   before it is degraded, or 0 or less to accept every query
+	 * @param overflow what to do with a query that costs more than the limit
+	 * @param degradedTimeout the deadline in milliseconds for queries degraded with
+	 *   {@link Action#DEADLINE}
+	 */
+	public AdmissionPolicy(long maxCost, Action overflow, long degradedTimeout) {
+		this.maxCost = maxCost;
+		this.overflow = overflow;
+		this.degradedTimeout = degradedTimeout;
+		this.decisions = new EnumMap<>(Action.class);
+		for (Action action : Action.values()) {
+			decisions.put(action, new LongAdder());
+		}
+		this.totalCost = new LongAdder();
+		this.maxSeen = new LongAccumulator(Math::max, 0);
+	}
+
+	/**
+	 * Parses the action to take for expensive queries
+	 *
+	 * @param action the name of the action, such as "reject" or "top_k"
+	 * @param backup the action to use if the name is missing or unknown
+	 * @return the parsed action
+	 */
+	public static Action parseAction(String action, Action backup) {
+		if (action != null) {
+			try {
+				return Action.valueOf(action.strip().toUpperCase(Locale.ROOT).replace('-', '_'));
+			} catch (IllegalArgumentException e) {
+				System.out.println("Unknown admission action: " + action);
+			}
+		}
+		return backup;
+	}
+
+	/**
+	 * Decides how to run a query and records the decision
+	 *
+	 * @param cost the estimated cost of the query
+	 * @return the action to take
+	 */
+	public Action admit(QueryCost cost) {
+		// a query over many rare words costs more than its postings alone
+		Action action = maxCost > 0 && cost.getTotal() > maxCost ? overflow : Action.ACCEPT;
+		decisions.get(action).increment();
+		totalCost.add(cost.getTotal());
+		maxSeen.accumulate(cost.getTotal());
+		return action;
+	}
+
+	/**
+	 * Returns the deadline in milliseconds for queries degraded with
+	 * {@link Action#DEADLINE}
+	 *
+	 * @return the shorter deadline
+	 */
+	public long getDegradedTimeout() {
+		return degradedTimeout;
+	}
+
+	/**
+	 * Returns the number of queries given an action
+	 *
+	 * @param action the action
+	 * @return the number of queries
+	 */
+	public long count(Action action) {
+		return decisions.get(action).sum();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder metrics = new StringBuilder();
+		long total = 0;
+		for (Action action : Action.values()) {
+			long count = count(action);
+			total += count;
+			metrics.append(action.name().toLowerCase(Locale.ROOT)).append(": ").append(count).append(", ");
+		}
+		long average = total == 0 ? 0 : totalCost.sum() / total;
+		return metrics.append(String.format("average cost: %d, max cost: %d", average, maxSeen.get())).toString();
+	}
+}
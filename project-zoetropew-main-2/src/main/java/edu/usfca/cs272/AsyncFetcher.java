@@ -0,0 +1,385 @@
+package edu.usfca.cs272;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches HTML pages without blocking the calling thread. Requests are sent with
+ * an asynchronous {@link HttpClient} that waits on the network using a selector
+ * and a few threads, so hundreds of requests can be in flight at once while the
+ * threads of a {@link WorkQueue} are left free for the CPU bound work of
+ * cleaning and indexing the pages that arrive. Follows the same rules as
+ * {@link HtmlFetcher#fetch(URL, int)}: only pages with status code 200 and an
+ * HTML content type are returned, redirects are followed a set number of
+ * times, and bodies are held to the limits of {@link HttpsFetcher}.
+ *
+ * @author zoe
+ *
+ */
+public class AsyncFetcher {
+
+	/**
+	 * The default most requests in flight at once
+	 */
+	public static final int DEFAULT_IN_FLIGHT = 256;
+
+	/**
+	 * The default number of threads that send requests and receive responses
+	 */
+	public static final int DEFAULT_THREADS = 2;
+
+	/**
+	 * The largest unwanted body that is read and thrown away, like a redirect
+	 * page, before the connection is closed instead
+	 */
+	private static final int DISCARD_LIMIT = 64 * 1024;
+
+	/**
+	 * The client that sends the requests
+	 */
+	private final HttpClient client;
+
+	/**
+	 * The threads that send requests and receive responses
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * The most requests in flight at once
+	 */
+	private final int maxInFlight;
+
+	/**
+	 * Requests waiting for another request to finish before being sent
+	 */
+	private final ArrayDeque<Runnable> waiting;
+
+	/**
+	 * The number of requests in flight
+	 */
+	private int inFlight;
+
+	/**
+	 * The most requests that were in flight at once
+	 */
+	private int peak;
+
+	/**
+	 * The number of pages fetched
+	 */
+	private long fetched;
+
+	/**
+	 * The number of requests that failed or were not HTML
+	 */
+	private long failed;
+
+	/**
+	 * Constructs a fetcher with the default limits
+	 *
+	 * @see #AsyncFetcher(int, int)
+	 */
+	public AsyncFetcher() {
+		this(DEFAULT_IN_FLIGHT, DEFAULT_THREADS);
+	}
+
+	/**
+	 * Constructs a fetcher
+	 *
+	 * @param maxInFlight the most requests in flight at once
+	 * @param threads the number of threads that send requests and receive
+	 *   responses
+	 */
+	public AsyncFetcher(int maxInFlight, int threads) {
+		this.executor = Executors.newFixedThreadPool(Math.max(threads, 1), task -> {
+			Thread thread = new Thread(task, "Fetcher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.client = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_1_1)
+				.followRedirects(HttpClient.Redirect.NEVER)
+				.connectTimeout(Duration.ofMillis(HttpsFetcher.getTimeout()))
+				.executor(executor)
+				.build();
+		this.maxInFlight = Math.max(maxInFlight, 1);
+		this.waiting = new ArrayDeque<>();
+		this.inFlight = 0;
+	}
+
+	/**
+	 * Starts fetching the resource at the URL. If too many requests are already in
+	 * flight, the request waits for one of them to finish before being sent.
+	 *
+	 * @param url the url to fetch
+	 * @param redirects the number of times to follow redirects
+	 * @return a future for the html, which completes with {@code null} if unable
+	 *   to fetch the resource or the resource is not html
+	 *
+	 * @see HtmlFetcher#fetch(URL, int)
+	 */
+	public CompletableFuture<String> fetch(URL url, int redirects) {
+		return fetch(url, redirects, null);
+	}
+
+	/**
+	 * Starts fetching the resource at the URL, and keeps the "ETag" and
+	 * "Last-Modified" headers of the page if its server sent them. The headers are
+	 * in place by the time the future completes.
+	 *
+	 * @param url the url to fetch
+	 * @param redirects the number of times to follow redirects
+	 * @param validators where to put the headers by name, or null to not keep them
+	 * @return a future for the html, which completes with {@code null} if unable
+	 *   to fetch the resource or the resource is not html
+	 *
+	 * @see HtmlFetcher#fetch(URL, int, ConnectionPool, Map)
+	 */
+	public CompletableFuture<String> fetch(URL url, int redirects, Map<String, String> validators) {
+		CompletableFuture<String> html = new CompletableFuture<>();
+		Runnable request = () -> send(url, redirects, validators).whenComplete((body, error) -> {
+			finished(body != null && error == null);
+			html.complete(error == null ? body : null);
+		});
+
+		boolean ready;
+		synchronized (this) {
+			ready = inFlight < maxInFlight;
+			if (ready) {
+				inFlight++;
+				peak = Math.max(peak, inFlight);
+			} else {
+				waiting.addLast(request);
+			}
+		}
+		if (ready) {
+			request.run();
+		}
+		return html;
+	}
+
+	/**
+	 * Sends a request and follows any redirects
+	 *
+	 * @param url the url to fetch
+	 * @param redirects the number of times to follow redirects
+	 * @param validators where to put the validator headers of the page, or null
+	 *   to not keep them
+	 * @return a future for the html, or for {@code null} if the resource is not
+	 *   html
+	 */
+	private CompletableFuture<String> send(URL url, int redirects, Map<String, String> validators) {
+		int timeout = HttpsFetcher.getTimeout();
+		HttpRequest request;
+		try {
+			request = HttpRequest.newBuilder(url.toURI()).timeout(Duration.ofMillis(timeout)).GET().build();
+		} catch (URISyntaxException | IllegalArgumentException e) {
+			return CompletableFuture.completedFuture(null);
+		}
+
+		// only read the body of html pages, and give up on the rest once they are
+		// too big to be worth skipping over
+		long max = HttpsFetcher.getMaxBytes();
+		HttpResponse.BodyHandler<String> handler = info -> {
+			boolean wanted = info.statusCode() == 200 && isHtml(info.headers());
+			if (wanted && info.headers().firstValueAsLong("Content-Length").orElse(0) > max) {
+				return new CappedBody(0, false, timeout);
+			}
+			return wanted ? new CappedBody(max, true, timeout) : new CappedBody(DISCARD_LIMIT, false, timeout);
+		};
+
+		return client.sendAsync(request, handler).thenCompose(response -> {
+			int status = response.statusCode();
+			if (status >= 300 && status <= 399 && redirects > 0) {
+				String location = response.headers().firstValue("Location").orElse(null);
+				if (location != null) {
+					try {
+						URI next = response.uri().resolve(location);
+						return send(next.toURL(), redirects - 1, validators);
+					} catch (IllegalArgumentException | MalformedURLException e) {
+						return CompletableFuture.completedFuture(null);
+					}
+				}
+			}
+			if (validators != null && response.body() != null) {
+				for (String name : List.of("ETag", "Last-Modified")) {
+					response.headers().firstValue(name).ifPresent(value -> validators.put(name, value));
+				}
+			}
+			return CompletableFuture.completedFuture(response.body());
+		});
+	}
+
+	/**
+	 * Returns whether the headers of a response indicate the content type is HTML
+	 *
+	 * @param headers the headers of the response
+	 * @return true if the first content type starts with "text/html"
+	 *
+	 * @see HtmlFetcher#isHtml(java.util.Map)
+	 */
+	private static boolean isHtml(HttpHeaders headers) {
+		return headers.firstValue("Content-Type").map(type -> type.startsWith("text/html")).orElse(false);
+	}
+
+	/**
+	 * Frees the slot of a finished request and sends the next waiting request
+	 *
+	 * @param success whether the request returned a page
+	 */
+	private void finished(boolean success) {
+		Runnable next;
+		synchronized (this) {
+			if (success) {
+				fetched++;
+			} else {
+				failed++;
+			}
+			next = waiting.pollFirst();
+			if (next == null) {
+				inFlight--;
+			}
+		}
+		// the slot passes straight to the next request, which is sent from the pool
+		// so a run of failures cannot pile up on the stack
+		if (next != null) {
+			executor.execute(next);
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("fetched: %d, failed: %d, in flight: %d, waiting: %d, peak: %d", fetched, failed, inFlight, waiting.size(), peak);
+	}
+
+	/**
+	 * Receives a body as it arrives, and cancels it once it grows past a limit or
+	 * takes too long. Cancelling closes the connection, so nothing more is
+	 * downloaded.
+	 */
+	private static class CappedBody implements BodySubscriber<String> {
+
+		/**
+		 * The most bytes to receive
+		 */
+		private final long max;
+
+		/**
+		 * Whether to keep the bytes, or just throw them away
+		 */
+		private final boolean keep;
+
+		/**
+		 * The bytes received so far, if they are kept
+		 */
+		private final ByteArrayOutputStream bytes;
+
+		/**
+		 * The body, which completes with {@code null} if the body is not kept or is
+		 * too large
+		 */
+		private final CompletableFuture<String> body;
+
+		/**
+		 * The subscription to the body, set once the body starts
+		 */
+		private volatile Flow.Subscription subscription;
+
+		/**
+		 * The number of bytes received so far
+		 */
+		private long received;
+
+		/**
+		 * Constructs a body
+		 *
+		 * @param max the most bytes to receive
+		 * @param keep whether to keep the bytes
+		 * @param timeout the time allowed to receive the whole body, in milliseconds
+		 */
+		public CappedBody(long max, boolean keep, int timeout) {
+			this.max = max;
+			this.keep = keep;
+			this.bytes = keep ? new ByteArrayOutputStream() : null;
+			this.body = new CompletableFuture<>();
+			this.received = 0;
+			body.orTimeout(timeout, TimeUnit.MILLISECONDS).whenComplete((text, error) -> cancel());
+		}
+
+		/**
+		 * Stops receiving the body, if it has started
+		 */
+		private void cancel() {
+			Flow.Subscription current = subscription;
+			if (current != null) {
+				current.cancel();
+			}
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			if (max == 0) {
+				// refused from the headers alone, so not a byte is read
+				body.complete(null);
+			}
+			if (body.isDone()) {
+				subscription.cancel();
+			} else {
+				subscription.request(Long.MAX_VALUE);
+			}
+		}
+
+		@Override
+		public void onNext(List<ByteBuffer> items) {
+			for (ByteBuffer item : items) {
+				received += item.remaining();
+				if (received > max) {
+					body.complete(null);
+					return;
+				}
+				if (keep) {
+					byte[] chunk = new byte[item.remaining()];
+					item.get(chunk);
+					bytes.write(chunk, 0, chunk.length);
+				}
+			}
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			body.completeExceptionally(throwable);
+		}
+
+		@Override
+		public void onComplete() {
+			body.complete(keep ? bytes.toString(UTF_8) : null);
+		}
+
+		@Override
+		public CompletionStage<String> getBody() {
+			return body;
+		}
+	}
+}
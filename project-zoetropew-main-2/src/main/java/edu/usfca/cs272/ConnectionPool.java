@@ -0,0 +1,342 @@
+package edu.usfca.cs272;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A thread safe pool of persistent HTTP/1.1 connections, kept per host so that
+ * many pages from the same server share a few sockets instead of each paying
+ * for a new TCP connection and TLS handshake. Each host has at most a fixed
+ * number of open connections, and threads wait for one to be released once the
+ * cap is reached. Connections left idle for too long are closed the next time
+ * the pool is used, so the pool needs no background thread.
+ *
+ * @author zoe
+ *
+ */
+public class ConnectionPool {
+
+	/**
+	 * The default most open connections to a single host
+	 */
+	public static final int DEFAULT_MAX_PER_HOST = 4;
+
+	/**
+	 * The default milliseconds a connection may sit unused before it is closed
+	 */
+	public static final long DEFAULT_IDLE_MILLIS = 15_000;
+
+	/**
+	 * The most open connections to a single host
+	 */
+	private final int maxPerHost;
+
+	/**
+	 * The milliseconds a connection may sit unused before it is closed
+	 */
+	private final long idleMillis;
+
+	/**
+	 * The unused connections of each host, most recently used last
+	 */
+	private final Map<String, ArrayDeque<Connection>> idle;
+
+	/**
+	 * The number of open connections to each host, in use or idle
+	 */
+	private final Map<String, Integer> open;
+
+	/**
+	 * The number of connections opened
+	 */
+	private long opened;
+
+	/**
+	 * The number of times an idle connection was reused
+	 */
+	private long reused;
+
+	/**
+	 * The number of idle connections closed for being unused too long
+	 */
+	private long evicted;
+
+	/**
+	 * Constructs a pool with the default limits
+	 *
+	 * @see #ConnectionPool(int, long)
+	 */
+	public ConnectionPool() {
+		this(DEFAULT_MAX_PER_HOST, DEFAULT_IDLE_MILLIS);
+	}
+
+	/**
+	 * Constructs a pool
+	 *
+	 * @param maxPerHost the most open connections to a single host
+	 * @param idleMillis the milliseconds a connection may sit unused before it is
+	 *   closed
+	 */
+	public ConnectionPool(int maxPerHost, long idleMillis) {
+		this.maxPerHost = Math.max(maxPerHost, 1);
+		this.idleMillis = idleMillis;
+		this.idle = new HashMap<>();
+		this.open = new HashMap<>();
+	}
+
+	/**
+	 * Returns the key connections to the server of a URL are pooled under
+	 *
+	 * @param url the url
+	 * @return the protocol, host, and port of the url
+	 */
+	public static String key(URL url) {
+		int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+		return url.getProtocol().toLowerCase() + "://" + url.getHost().toLowerCase() + ":" + port;
+	}
+
+	/**
+	 * Returns a connection to the server of a URL, reusing an idle one if possible.
+	 * If the host already has the most connections allowed, waits until one is
+	 * released. Every connection returned must be given back with
+	 * {@link #release(Connection, boolean)}.
+	 *
+	 * @param url the url to connect to
+	 * @return a connection to the server
+	 * @throws IOException if unable to open a new connection
+	 */
+	public Connection acquire(URL url) throws IOException {
+		String key = key(url);
+		synchronized (this) {
+			while (true) {
+				evictIdle();
+				ArrayDeque<Connection> waiting = idle.get(key);
+				if (waiting != null && !waiting.isEmpty()) {
+					reused++;
+					return waiting.pollLast();
+				}
+				int count = open.getOrDefault(key, 0);
+				if (count < maxPerHost) {
+					open.put(key, count + 1);
+					opened++;
+					break;
+				}
+				try {
+					wait(idleMillis > 0 ? idleMillis : 0);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted waiting for a connection to " + key, e);
+				}
+			}
+		}
+
+		// only the slot is reserved while connecting, not the pool
+		try {
+			return new Connection(key, HttpsFetcher.openConnection(url));
+		} catch (IOException | RuntimeException e) {
+			synchronized (this) {
+				closed(key);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Gives back a connection. A connection whose last response was read to its
+	 * end and that the server agreed to keep open is kept for reuse, and any other
+	 * connection is closed.
+	 *
+	 * @param connection the connection to give back
+	 * @param reusable whether the connection can carry another request
+	 */
+	public void release(Connection connection, boolean reusable) {
+		if (reusable && !connection.socket.isClosed()) {
+			connection.used = System.currentTimeMillis();
+			synchronized (this) {
+				idle.computeIfAbsent(connection.key, k -> new ArrayDeque<>()).addLast(connection);
+				notifyAll();
+			}
+		} else {
+			connection.close();
+			synchronized (this) {
+				closed(connection.key);
+			}
+		}
+	}
+
+	/**
+	 * Closes every idle connection
+	 */
+	public synchronized void clear() {
+		for (ArrayDeque<Connection> waiting : idle.values()) {
+			for (Connection connection : waiting) {
+				connection.close();
+				closed(connection.key);
+			}
+			waiting.clear();
+		}
+		idle.clear();
+	}
+
+	/**
+	 * Closes idle connections that have not been used for too long
+	 */
+	private void evictIdle() {
+		if (idleMillis <= 0) {
+			return;
+		}
+		long oldest = System.currentTimeMillis() - idleMillis;
+		Iterator<ArrayDeque<Connection>> hosts = idle.values().iterator();
+		while (hosts.hasNext()) {
+			ArrayDeque<Connection> waiting = hosts.next();
+			// least recently used connections are first
+			while (!waiting.isEmpty() && waiting.peekFirst().used < oldest) {
+				Connection connection = waiting.pollFirst();
+				connection.close();
+				closed(connection.key);
+				evicted++;
+			}
+			if (waiting.isEmpty()) {
+				hosts.remove();
+			}
+		}
+	}
+
+	/**
+	 * Frees the slot of a connection that was closed and wakes any thread waiting
+	 * for one. Must be called while holding the lock of the pool.
+	 *
+	 * @param key the key of the closed connection
+	 */
+	private void closed(String key) {
+		int count = open.getOrDefault(key, 0) - 1;
+		if (count <= 0) {
+			open.remove(key);
+		} else {
+			open.put(key, count);
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Returns the number of open connections to the server of a URL
+	 *
+	 * @param url the url
+	 * @return the number of connections in use or idle
+	 */
+	public synchronized int numOpen(URL url) {
+		return open.getOrDefault(key(url), 0);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("opened: %d, reused: %d, evicted: %d, open hosts: %d", opened, reused, evicted, open.size());
+	}
+
+	/**
+	 * A pooled connection to one server
+	 */
+	public static class Connection {
+
+		/**
+		 * The key of the server this connection is pooled under
+		 */
+		private final String key;
+
+		/**
+		 * The socket of the connection
+		 */
+		private final Socket socket;
+
+		/**
+		 * The buffered input of the socket, kept across requests so that bytes read
+		 * ahead are not lost
+		 */
+		private final InputStream input;
+
+		/**
+		 * The output of the socket
+		 */
+		private final OutputStream output;
+
+		/**
+		 * Whether this connection has carried a request before
+		 */
+		private boolean reused;
+
+		/**
+		 * When this connection was last given back to the pool
+		 */
+		private long used;
+
+		/**
+		 * Constructs a connection
+		 *
+		 * @param key the key of the server the connection is pooled under
+		 * @param socket the socket of the connection
+		 * @throws IOException if unable to get the streams of the socket
+		 */
+		private Connection(String key, Socket socket) throws IOException {
+			this.key = key;
+			this.socket = socket;
+			this.input = new BufferedInputStream(socket.getInputStream());
+			this.output = socket.getOutputStream();
+			this.reused = false;
+			this.used = System.currentTimeMillis();
+		}
+
+		/**
+		 * Returns the buffered input of the socket
+		 *
+		 * @return the input stream
+		 */
+		public InputStream getInput() {
+			return input;
+		}
+
+		/**
+		 * Returns the output of the socket
+		 *
+		 * @return the output stream
+		 */
+		public OutputStream getOutput() {
+			return output;
+		}
+
+		/**
+		 * Returns whether this connection carried a request before, in which case
+		 * the server may have closed it while it sat idle
+		 *
+		 * @return true if this connection came from the pool
+		 */
+		public boolean isReused() {
+			return reused;
+		}
+
+		/**
+		 * Marks that this connection has carried a request
+		 */
+		public void markUsed() {
+			reused = true;
+		}
+
+		/**
+		 * Closes the socket, ignoring any error
+		 */
+		private void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// nothing left to clean up
+			}
+		}
+	}
+}
@@ -0,0 +1,660 @@
+package edu.usfca.cs272;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The state of a crawl kept on disk, so that a crawl stopped partway through can
+ * pick up where it left off. Every link claimed for crawling is appended to the
+ * seen log, every link that finishes is appended to the done log, and every
+ * page that was indexed is appended to the pages log so the index can be
+ * rebuilt without fetching it again. Links are numbered in the order they were
+ * claimed, and are crawled in that order, so the part of the seen log that has
+ * not been read yet is the frontier. Only a window of the frontier is read into
+ * memory at a time.
+ *
+ * <p>
+ * Links are never crawled twice, which takes remembering every link ever seen.
+ * Rather than keeping the links themselves, only a 64 bit fingerprint of each
+ * is kept in memory. Every so often the log is compacted: the fingerprints of
+ * the links at the front of the seen log that have all finished are appended to
+ * a fingerprint file, and the seen log and done log are rewritten without them.
+ * Since the seen log starts with the number of its first link, replacing it is
+ * what commits a compaction, so stopping at any point leaves a log that can be
+ * resumed.
+ *
+ * @author zoe
+ *
+ */
+public class CrawlLog {
+
+	/**
+	 * The default most links read into memory or being crawled at once
+	 */
+	public static final int DEFAULT_WINDOW = 4096;
+
+	/**
+	 * The number of finished links at the front of the seen log that triggers a
+	 * compaction
+	 */
+	private static final int COMPACT_EVERY = 10_000;
+
+	/**
+	 * The links claimed for crawling, one per line after a header line with the
+	 * number of the first link
+	 */
+	private final Path seenLog;
+
+	/**
+	 * The numbers of the links that finished
+	 */
+	private final Path doneLog;
+
+	/**
+	 * The fingerprints of links compacted out of the seen log
+	 */
+	private final Path seenPrints;
+
+	/**
+	 * The compressed html of each page that was indexed
+	 */
+	private final Path pagesLog;
+
+	/**
+	 * The most links read into memory or being crawled at once
+	 */
+	private final int window;
+
+	/**
+	 * The fingerprint of every link ever claimed
+	 */
+	private SeenSet seen;
+
+	/**
+	 * The numbers of finished links that are still in the seen log
+	 */
+	private final Set<Long> done;
+
+	/**
+	 * The links read from the seen log that have not been handed out, in order
+	 */
+	private final ArrayDeque<String> ahead;
+
+	/**
+	 * The links handed out and not yet finished, by normalized url
+	 */
+	private final Map<String, Long> crawling;
+
+	/**
+	 * The number of the first link in the seen log
+	 */
+	private long base;
+
+	/**
+	 * The number of links ever claimed
+	 */
+	private long size;
+
+	/**
+	 * Where to read the next link past those read ahead in the seen log
+	 */
+	private long readOffset;
+
+	/**
+	 * The number of the next link to read from the seen log
+	 */
+	private long readNumber;
+
+	/**
+	 * The number of links claimed when the log was opened, or -1 once the log
+	 * has been resumed
+	 */
+	private long resumed;
+
+	/**
+	 * Appends to the seen log
+	 */
+	private BufferedWriter seenWriter;
+
+	/**
+	 * Appends to the done log
+	 */
+	private DataOutputStream doneWriter;
+
+	/**
+	 * Appends to the pages log
+	 */
+	private DataOutputStream pagesWriter;
+
+	/**
+	 * Compresses pages
+	 */
+	private final Deflater deflater;
+
+	/**
+	 * Opens a crawl log with the default window, creating it if it does not exist
+	 *
+	 * @param directory the directory to keep the log in
+	 * @throws IOException if unable to read or create the log
+	 *
+	 * @see #CrawlLog(Path, int)
+	 */
+	public CrawlLog(Path directory) throws IOException {
+		this(directory, DEFAULT_WINDOW);
+	}
+
+	/**
+	 * Opens a crawl log, creating it if it does not exist. Anything left half
+	 * written when a crawl was stopped is cut off.
+	 *
+	 * @param directory the directory to keep the log in
+	 * @param window the most links read into memory or being crawled at once
+	 * @throws IOException if unable to read or create the log
+	 */
+	public CrawlLog(Path directory, int window) throws IOException {
+		Files.createDirectories(directory);
+		this.seenLog = directory.resolve("seen.log");
+		this.doneLog = directory.resolve("done.log");
+		this.seenPrints = directory.resolve("seen.bin");
+		this.pagesLog = directory.resolve("pages.log");
+		this.window = Math.max(window, 1);
+		this.seen = new SeenSet();
+		this.done = new HashSet<>();
+		this.ahead = new ArrayDeque<>();
+		this.crawling = new HashMap<>();
+		this.deflater = new Deflater();
+
+		if (!Files.exists(seenLog)) {
+			Files.writeString(seenLog, "#0\n", UTF_8);
+		}
+		loadPrints();
+		loadSeen();
+		loadDone();
+		trimPages();
+
+		this.readNumber = base;
+		this.resumed = size;
+		this.seenWriter = Files.newBufferedWriter(seenLog, UTF_8, StandardOpenOption.APPEND);
+		this.doneWriter = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(doneLog, StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+		this.pagesWriter = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(pagesLog, StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+	}
+
+	/**
+	 * Reads the fingerprints of compacted links
+	 *
+	 * @throws IOException if unable to read the file
+	 */
+	private void loadPrints() throws IOException {
+		if (!Files.exists(seenPrints)) {
+			return;
+		}
+		long length = Files.size(seenPrints) / Long.BYTES * Long.BYTES;
+		truncate(seenPrints, length);
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(seenPrints)))) {
+			for (long i = 0; i < length / Long.BYTES; i++) {
+				seen.add(input.readLong());
+			}
+		}
+	}
+
+	/**
+	 * Reads the seen log, cutting off a last line that was not finished
+	 *
+	 * @throws IOException if unable to read the file
+	 */
+	private void loadSeen() throws IOException {
+		long offset = 0;
+		long complete = 0;
+		try (BufferedReader reader = Files.newBufferedReader(seenLog, UTF_8)) {
+			String header = reader.readLine();
+			if (header == null || !header.startsWith("#")) {
+				throw new IOException("Not a crawl log: " + seenLog);
+			}
+			base = Long.parseLong(header.substring(1).strip());
+			offset = bytes(header);
+			readOffset = offset;
+			complete = offset;
+			size = base;
+
+			String line;
+			while ((line = reader.readLine()) != null) {
+				offset += bytes(line);
+				if (offset > Files.size(seenLog)) {
+					break;
+				}
+				seen.add(line);
+				size++;
+				complete = offset;
+			}
+		}
+		truncate(seenLog, complete);
+	}
+
+	/**
+	 * Reads the done log, cutting off a last number that was not finished
+	 *
+	 * @throws IOException if unable to read the file
+	 */
+	private void loadDone() throws IOException {
+		if (!Files.exists(doneLog)) {
+			return;
+		}
+		long length = Files.size(doneLog) / Long.BYTES * Long.BYTES;
+		truncate(doneLog, length);
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(doneLog)))) {
+			for (long i = 0; i < length / Long.BYTES; i++) {
+				long number = input.readLong();
+				if (number >= base) {
+					done.add(number);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Cuts off a last page in the pages log that was not finished
+	 *
+	 * @throws IOException if unable to read the file
+	 */
+	private void trimPages() throws IOException {
+		if (!Files.exists(pagesLog)) {
+			return;
+		}
+		long complete = 0;
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(pagesLog)))) {
+			while (true) {
+				int url = input.readUnsignedShort();
+				input.skipNBytes(url);
+				input.readInt();
+				int length = input.readInt();
+				input.skipNBytes(length);
+				complete += 2 + url + 4 + 4 + length;
+			}
+		} catch (EOFException e) {
+			// the rest of the log was not finished
+		}
+		truncate(pagesLog, complete);
+	}
+
+	/**
+	 * Rebuilds what was crawled before the log was opened. Calls the consumer
+	 * with the location and html of every page that was indexed, in the order
+	 * they finished. Only does anything the first time it is called.
+	 *
+	 * @param consumer receives the location and html of each page
+	 * @return the number of links that were claimed before the log was opened, or
+	 *   0 if the log was already resumed
+	 * @throws IOException if unable to read the pages log
+	 */
+	public synchronized long resume(BiConsumer<String, String> consumer) throws IOException {
+		if (resumed < 0) {
+			return 0;
+		}
+		pagesWriter.flush();
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(pagesLog)))) {
+			Inflater inflater = new Inflater();
+			while (true) {
+				String location;
+				try {
+					location = input.readUTF();
+				} catch (EOFException e) {
+					break;
+				}
+				byte[] html = new byte[input.readInt()];
+				byte[] packed = input.readNBytes(input.readInt());
+				inflater.reset();
+				inflater.setInput(packed);
+				try {
+					inflater.inflate(html);
+				} catch (DataFormatException e) {
+					throw new IOException("Corrupt page in crawl log: " + location, e);
+				}
+				consumer.accept(location, new String(html, UTF_8));
+			}
+			inflater.end();
+		}
+		long claimed = resumed;
+		resumed = -1;
+		return claimed;
+	}
+
+	/**
+	 * Claims a link for crawling if it has never been claimed
+	 *
+	 * @param url the normalized link
+	 * @return true if the link is new and was added to the frontier
+	 */
+	public synchronized boolean add(URL url) {
+		String link = url.toString();
+		if (link.indexOf('\n') >= 0 || link.indexOf('\r') >= 0 || !seen.add(link)) {
+			return false;
+		}
+		try {
+			seenWriter.write(link);
+			seenWriter.write('\n');
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		size++;
+		return true;
+	}
+
+	/**
+	 * Hands out the next link in the frontier, unless the window of links being
+	 * crawled is full
+	 *
+	 * @return the normalized link, or null if the frontier is empty or enough
+	 *   links are already being crawled
+	 */
+	public synchronized URL next() {
+		while (crawling.size() < window) {
+			if (ahead.isEmpty() && !readAhead()) {
+				return null;
+			}
+			long number = readNumber - ahead.size();
+			String link = ahead.pollFirst();
+			if (done.contains(number)) {
+				continue;
+			}
+			try {
+				URL url = new URL(link);
+				if (crawling.putIfAbsent(url.toString(), number) == null) {
+					return url;
+				}
+			} catch (MalformedURLException e) {
+				// a link that cannot be crawled is finished right away
+			}
+			markDone(number);
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the next window of links from the seen log
+	 *
+	 * @return true if any links were read
+	 */
+	private boolean readAhead() {
+		if (readNumber >= size) {
+			return false;
+		}
+		try {
+			seenWriter.flush();
+			try (FileChannel channel = FileChannel.open(seenLog, StandardOpenOption.READ);
+					BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel.position(readOffset)), UTF_8))) {
+				String line;
+				while (ahead.size() < window && readNumber < size && (line = reader.readLine()) != null) {
+					ahead.addLast(line);
+					readOffset += bytes(line);
+					readNumber++;
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return !ahead.isEmpty();
+	}
+
+	/**
+	 * Records that a link handed out by {@link #next()} finished. If the page was
+	 * indexed, its html is saved so the index can be rebuilt on resume. Links
+	 * claimed while crawling the page are saved before the page is marked
+	 * finished, so they are never lost.
+	 *
+	 * @param url the normalized link
+	 * @param html the html of the page if it was indexed, or null if not
+	 */
+	public synchronized void finished(URL url, String html) {
+		Long number = crawling.remove(url.toString());
+		if (number == null) {
+			return;
+		}
+		try {
+			if (html != null) {
+				byte[] raw = html.getBytes(UTF_8);
+				byte[] packed = deflate(raw);
+				pagesWriter.writeUTF(url.toString());
+				pagesWriter.writeInt(raw.length);
+				pagesWriter.writeInt(packed.length);
+				pagesWriter.write(packed);
+				pagesWriter.flush();
+			}
+			seenWriter.flush();
+			markDone(number);
+			doneWriter.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		if (number % 1000 == 0 && finishedFront() - base >= COMPACT_EVERY) {
+			compact();
+		}
+	}
+
+	/**
+	 * Records that a link finished
+	 *
+	 * @param number the number of the link
+	 */
+	private void markDone(long number) {
+		done.add(number);
+		try {
+			doneWriter.writeLong(number);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Returns the number of the first link that has not finished
+	 *
+	 * @return every link before this number has finished
+	 */
+	private long finishedFront() {
+		long front = readNumber - ahead.size();
+		for (long number : crawling.values()) {
+			front = Math.min(front, number);
+		}
+		return front;
+	}
+
+	/**
+	 * Removes the links at the front of the seen log that have all finished,
+	 * keeping only their fingerprints
+	 */
+	public synchronized void compact() {
+		long front = finishedFront();
+		if (front <= base) {
+			return;
+		}
+		try {
+			seenWriter.flush();
+			doneWriter.flush();
+			Path seenTemp = seenLog.resolveSibling("seen.log.tmp");
+			Path doneTemp = doneLog.resolveSibling("done.log.tmp");
+
+			long tail;
+			try (BufferedReader reader = Files.newBufferedReader(seenLog, UTF_8);
+					DataOutputStream prints = new DataOutputStream(new BufferedOutputStream(
+							Files.newOutputStream(seenPrints, StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+				tail = bytes(reader.readLine());
+				for (long number = base; number < front; number++) {
+					String line = reader.readLine();
+					prints.writeLong(SeenSet.fingerprint(line));
+					tail += bytes(line);
+				}
+			}
+
+			try (BufferedWriter writer = Files.newBufferedWriter(seenTemp, UTF_8);
+					FileChannel channel = FileChannel.open(seenLog, StandardOpenOption.READ);
+					BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel.position(tail)), UTF_8))) {
+				writer.write("#" + front + "\n");
+				reader.transferTo(writer);
+			}
+
+			try (DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(doneTemp)))) {
+				done.removeIf(number -> number < front);
+				for (long number : done) {
+					writer.writeLong(number);
+				}
+			}
+
+			// replacing the seen log commits the compaction
+			seenWriter.close();
+			doneWriter.close();
+			Files.move(seenTemp, seenLog, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			Files.move(doneTemp, doneLog, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			seenWriter = Files.newBufferedWriter(seenLog, UTF_8, StandardOpenOption.APPEND);
+			doneWriter = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(doneLog, StandardOpenOption.APPEND)));
+
+			readOffset = readOffset - tail + bytes("#" + front);
+			base = front;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Saves everything written so far and closes the log
+	 *
+	 * @throws IOException if unable to write the log
+	 */
+	public synchronized void close() throws IOException {
+		seenWriter.close();
+		doneWriter.close();
+		pagesWriter.close();
+		deflater.end();
+	}
+
+	/**
+	 * Returns the number of links ever claimed
+	 *
+	 * @return the number of links claimed
+	 */
+	public synchronized long size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of links waiting to be crawled
+	 *
+	 * @return the number of links claimed that were not handed out or finished
+	 */
+	public synchronized long frontier() {
+		long front = readNumber - ahead.size();
+		long waiting = size - front;
+		for (long number : done) {
+			if (number >= front) {
+				waiting--;
+			}
+		}
+		return waiting;
+	}
+
+	/**
+	 * Returns the fingerprints of every link ever claimed
+	 *
+	 * @return the links seen
+	 */
+	public synchronized SeenSet getSeen() {
+		return seen;
+	}
+
+	/**
+	 * Puts a Bloom filter in front of the links seen, sized for those already
+	 * seen and the number of links expected to be claimed. Only call this before
+	 * crawling, since the links are copied into a new set.
+	 *
+	 * @param expected the number of links expected to be claimed
+	 *
+	 * @see SeenSet#SeenSet(SeenSet, long)
+	 */
+	public synchronized void expectLinks(long expected) {
+		seen = new SeenSet(seen, seen.size() + expected);
+	}
+
+	/**
+	 * Returns the most links read into memory or being crawled at once
+	 *
+	 * @return the window size
+	 */
+	public int getWindow() {
+		return window;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("claimed: %d, frontier: %d, crawling: %d, read ahead: %d, compacted: %d",
+				size, frontier(), crawling.size(), ahead.size(), base);
+	}
+
+	/**
+	 * Compresses a page
+	 *
+	 * @param raw the bytes of the page
+	 * @return the compressed bytes
+	 */
+	private byte[] deflate(byte[] raw) {
+		deflater.reset();
+		deflater.setInput(raw);
+		deflater.finish();
+		ByteArrayOutputStream packed = new ByteArrayOutputStream(raw.length / 3 + 16);
+		byte[] buffer = new byte[8192];
+		while (!deflater.finished()) {
+			packed.write(buffer, 0, deflater.deflate(buffer));
+		}
+		return packed.toByteArray();
+	}
+
+	/**
+	 * Returns the number of bytes a line takes in a log, including its line feed
+	 *
+	 * @param line the line
+	 * @return the number of bytes
+	 */
+	private static long bytes(String line) {
+		return line.getBytes(UTF_8).length + 1;
+	}
+
+	/**
+	 * Cuts a file down to a length if it is longer
+	 *
+	 * @param file the file
+	 * @param length the length to keep
+	 * @throws IOException if unable to write the file
+	 */
+	private static void truncate(Path file, long length) throws IOException {
+		if (Files.size(file) > length) {
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+				channel.truncate(length);
+			}
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package edu.usfca.cs272;
+
+/**
+ * A point in time after which a search should stop and return the best results
+ * found so far. Searches check the deadline between terms and every
+ * {@link #CHECK_INTERVAL} postings, so a search overruns its deadline by at most
+ * the time it takes to read that many postings. Once a check finds the deadline
+ * has passed, the deadline remembers that the results were cut short.
+ *
+ * @author zoe
+ *
+ */
+public class Deadline {
+
+	/**
+	 * A deadline that never expires
+	 */
+	public static final Deadline NONE = new Deadline(0, false);
+
+	/**
+	 * The number of postings read between checks of the clock
+	 */
+	public static final int CHECK_INTERVAL = 1024;
+
+	/**
+	 * When the deadline expires, in {@link System#nanoTime()} units
+	 */
+	private final long end;
+
+	/**
+	 * Whether this deadline can expire at all
+	 */
+	private final boolean limited;
+
+	/**
+	 * Whether a check found that the deadline had passed
+	 */
+	private volatile boolean reached;
+
+	/**
+	 * Constructs a deadline
+	 *
+	 * @param end when the deadline expires, in {@link System#nanoTime()} units
+	 * @param limited whether the deadline can expire
+	 */
+	private Deadline(long end, boolean limited) {
+		this.end = end;
+		this.limited = limited;
+		this.reached = false;
+	}
+
+	/**
+	 * Returns a deadline the given number of milliseconds from now
+	 *
+	 * @param millis the time budget in milliseconds, or 0 or less for no deadline
+	 * @return the deadline
+	 */
+	public static Deadline after(long millis) {
+		if (millis <= 0) {
+			return NONE;
+		}
+		return new Deadline(System.nanoTime() + millis * 1_000_000, true);
+	}
+
+	/**
+	 * Returns whether the deadline has passed
+	 *
+	 * @return true if the search should stop
+	 */
+	public boolean expired() {
+		if (!limited) {
+			return false;
+		}
+		if (!reached && System.nanoTime() - end >= 0) {
+			reached = true;
+		}
+		return reached;
+	}
+
+	/**
+	 * Returns whether the deadline has passed, only checking the clock once every
+	 * {@link #CHECK_INTERVAL} postings
+	 *
+	 * @param visited the number of postings read so far
+	 * @return true if the search should stop
+	 */
+	public boolean expired(long visited) {
+		return visited % CHECK_INTERVAL == 0 && expired();
+	}
+
+	/**
+	 * Returns whether a search using this deadline was cut short
+	 *
+	 * @return true if a check found the deadline had passed
+	 */
+	public boolean wasReached() {
+		return reached;
+	}
+
+	@Override
+	public String toString() {
+		if (!limited) {
+			return "no deadline";
+		}
+		return String.format("%.1f ms left", (end - System.nanoTime()) / 1e6);
+	}
+}
@@ -0,0 +1,672 @@
+package edu.usfca.cs272;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * A compressed set of non-negative document ids in the style of a roaring
+ * bitmap. Ids are grouped by their upper 16 bits, and each group is stored as a
+ * sorted array of the lower 16 bits while it is sparse or as a 65536 bit bitmap
+ * once it holds more than {@link #ARRAY_LIMIT} ids. Intersections, unions and
+ * differences work a group at a time, using word-wide bit operations whenever
+ * either side is a bitmap.
+ *
+ * @author zoe
+ *
+ */
+public class DocSet {
+
+	/**
+	 * The most ids a group stores as a sorted array before switching to a bitmap
+	 */
+	public static final int ARRAY_LIMIT = 4096;
+
+	/**
+	 * The number of longs in a bitmap group
+	 */
+	private static final int BITMAP_WORDS = 1024;
+
+	/**
+	 * The upper 16 bits of each group, in sorted order
+	 */
+	private char[] keys;
+
+	/**
+	 * The lower 16 bits of the ids in each group
+	 */
+	private Container[] containers;
+
+	/**
+	 * The number of groups in use
+	 */
+	private int groups;
+
+	/**
+	 * Constructs an empty set
+	 */
+	public DocSet() {
+		this.keys = new char[1];
+		this.containers = new Container[1];
+		this.groups = 0;
+	}
+
+	/**
+	 * Adds an id to the set
+	 *
+	 * @param id the non-negative id to add
+	 */
+	public void add(int id) {
+		char key = (char) (id >>> 16);
+		int i = find(key);
+		if (i < 0) {
+			i = -i - 1;
+			insert(i, key, new ArrayContainer());
+		}
+		containers[i] = containers[i].add((char) id);
+	}
+
+	/**
+	 * Returns whether the set contains the id
+	 *
+	 * @param id the id to find
+	 * @return true if the id is in the set
+	 */
+	public boolean contains(int id) {
+		int i = find((char) (id >>> 16));
+		return i >= 0 && containers[i].contains((char) id);
+	}
+
+	/**
+	 * Returns the number of ids in the set
+	 *
+	 * @return the number of ids
+	 */
+	public int size() {
+		int size = 0;
+		for (int i = 0; i < groups; i++) {
+			size += containers[i].cardinality();
+		}
+		return size;
+	}
+
+	/**
+	 * Returns whether the set is empty
+	 *
+	 * @return true if there are no ids in the set
+	 */
+	public boolean isEmpty() {
+		return groups == 0;
+	}
+
+	/**
+	 * Calls the action for every id in the set in increasing order
+	 *
+	 * @param action the action to call
+	 */
+	public void forEach(IntConsumer action) {
+		for (int i = 0; i < groups; i++) {
+			containers[i].forEach(keys[i] << 16, action);
+		}
+	}
+
+	/**
+	 * Returns a new set with the ids in both sets
+	 *
+	 * @param other the other set
+	 * @return the intersection of the sets
+	 */
+	public DocSet and(DocSet other) {
+		DocSet result = new DocSet();
+		int i = 0;
+		int j = 0;
+		while (i < groups && j < other.groups) {
+			if (keys[i] < other.keys[j]) {
+				i++;
+			} else if (keys[i] > other.keys[j]) {
+				j++;
+			} else {
+				Container container = containers[i].and(other.containers[j]);
+				if (container.cardinality() > 0) {
+					result.append(keys[i], container);
+				}
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a new set with the ids in either set
+	 *
+	 * @param other the other set
+	 * @return the union of the sets
+	 */
+	public DocSet or(DocSet other) {
+		DocSet result = new DocSet();
+		int i = 0;
+		int j = 0;
+		while (i < groups || j < other.groups) {
+			if (j >= other.groups || (i < groups && keys[i] < other.keys[j])) {
+				result.append(keys[i], containers[i].copy());
+				i++;
+			} else if (i >= groups || keys[i] > other.keys[j]) {
+				result.append(other.keys[j], other.containers[j].copy());
+				j++;
+			} else {
+				result.append(keys[i], containers[i].or(other.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a new set with the ids in this set that are not in the other set
+	 *
+	 * @param other the other set
+	 * @return the difference of the sets
+	 */
+	public DocSet andNot(DocSet other) {
+		DocSet result = new DocSet();
+		int j = 0;
+		for (int i = 0; i < groups; i++) {
+			while (j < other.groups && other.keys[j] < keys[i]) {
+				j++;
+			}
+			Container container = containers[i];
+			if (j < other.groups && other.keys[j] == keys[i]) {
+				container = container.andNot(other.containers[j]);
+			} else {
+				container = container.copy();
+			}
+			if (container.cardinality() > 0) {
+				result.append(keys[i], container);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the union of all of the sets
+	 *
+	 * @param sets the sets to combine
+	 * @return a new set with every id in any of the sets
+	 */
+	public static DocSet union(List<DocSet> sets) {
+		return union(sets, 0, sets.size());
+	}
+
+	/**
+	 * Returns the union of a range of the sets, combining them in pairs so that
+	 * each id is copied a logarithmic number of times
+	 *
+	 * @param sets the sets to combine
+	 * @param start the first set to combine (inclusive)
+	 * @param end the last set to combine (exclusive)
+	 * @return a new set with every id in any of the sets in the range
+	 */
+	private static DocSet union(List<DocSet> sets, int start, int end) {
+		if (end - start == 0) {
+			return new DocSet();
+		}
+		if (end - start == 1) {
+			return sets.get(start).or(new DocSet());
+		}
+		int middle = (start + end) >>> 1;
+		return union(sets, start, middle).or(union(sets, middle, end));
+	}
+
+	/**
+	 * Returns the index of the group with the key, or (-(insertion point) - 1)
+	 *
+	 * @param key the upper 16 bits of an id
+	 * @return the index of the group or where it would be inserted
+	 */
+	private int find(char key) {
+		return Arrays.binarySearch(keys, 0, groups, key);
+	}
+
+	/**
+	 * Inserts a group at the index
+	 *
+	 * @param index where to insert the group
+	 * @param key the upper 16 bits of the group
+	 * @param container the lower 16 bits of the group
+	 */
+	private void insert(int index, char key, Container container) {
+		if (groups == keys.length) {
+			keys = Arrays.copyOf(keys, groups * 2);
+			containers = Arrays.copyOf(containers, groups * 2);
+		}
+		System.arraycopy(keys, index, keys, index + 1, groups - index);
+		System.arraycopy(containers, index, containers, index + 1, groups - index);
+		keys[index] = key;
+		containers[index] = container;
+		groups++;
+	}
+
+	/**
+	 * Adds a group after every existing group
+	 *
+	 * @param key the upper 16 bits of the group, greater than any existing key
+	 * @param container the lower 16 bits of the group
+	 */
+	private void append(char key, Container container) {
+		insert(groups, key, container);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("[");
+		forEach(id -> {
+			if (builder.length() > 1) {
+				builder.append(", ");
+			}
+			builder.append(id);
+		});
+		return builder.append("]").toString();
+	}
+
+	/**
+	 * The lower 16 bits of the ids in one group
+	 */
+	private static abstract class Container {
+
+		/**
+		 * Returns the number of values in this container
+		 *
+		 * @return the number of values
+		 */
+		public abstract int cardinality();
+
+		/**
+		 * Adds a value, returning the container that now holds the values
+		 *
+		 * @param value the value to add
+		 * @return this container or a replacement that can hold more values
+		 */
+		public abstract Container add(char value);
+
+		/**
+		 * Returns whether the container holds the value
+		 *
+		 * @param value the value to find
+		 * @return true if the value is in the container
+		 */
+		public abstract boolean contains(char value);
+
+		/**
+		 * Calls the action for every value in increasing order
+		 *
+		 * @param base the upper bits to combine with each value
+		 * @param action the action to call
+		 */
+		public abstract void forEach(int base, IntConsumer action);
+
+		/**
+		 * Returns a copy of this container
+		 *
+		 * @return the copy
+		 */
+		public abstract Container copy();
+
+		/**
+		 * Returns the values of this container as a bitmap
+		 *
+		 * @return a new bitmap container
+		 */
+		public abstract BitmapContainer toBitmap();
+
+		/**
+		 * Returns a new container with the values in both containers
+		 *
+		 * @param other the other container
+		 * @return the intersection
+		 */
+		public Container and(Container other) {
+			if (this instanceof ArrayContainer a && other instanceof ArrayContainer b) {
+				return a.intersect(b);
+			}
+			if (this instanceof ArrayContainer a) {
+				return a.filter(other, true);
+			}
+			if (other instanceof ArrayContainer b) {
+				return b.filter(this, true);
+			}
+			BitmapContainer result = toBitmap();
+			result.and((BitmapContainer) other);
+			return result.shrink();
+		}
+
+		/**
+		 * Returns a new container with the values in either container
+		 *
+		 * @param other the other container
+		 * @return the union
+		 */
+		public Container or(Container other) {
+			if (this instanceof ArrayContainer a && other instanceof ArrayContainer b
+					&& a.cardinality + b.cardinality <= ARRAY_LIMIT) {
+				return a.merge(b);
+			}
+			BitmapContainer result = toBitmap();
+			result.or(other.toBitmap());
+			return result.shrink();
+		}
+
+		/**
+		 * Returns a new container with the values in this container that are not in
+		 * the other
+		 *
+		 * @param other the other container
+		 * @return the difference
+		 */
+		public Container andNot(Container other) {
+			if (this instanceof ArrayContainer a) {
+				return a.filter(other, false);
+			}
+			BitmapContainer result = toBitmap();
+			result.andNot(other.toBitmap());
+			return result.shrink();
+		}
+	}
+
+	/**
+	 * A sparse group stored as a sorted array of values
+	 */
+	private static class ArrayContainer extends Container {
+
+		/**
+		 * The sorted values
+		 */
+		private char[] values;
+
+		/**
+		 * The number of values in use
+		 */
+		private int cardinality;
+
+		/**
+		 * Constructs an empty container
+		 */
+		public ArrayContainer() {
+			this(new char[4], 0);
+		}
+
+		/**
+		 * Constructs a container from sorted values
+		 *
+		 * @param values the sorted values
+		 * @param cardinality the number of values in use
+		 */
+		public ArrayContainer(char[] values, int cardinality) {
+			this.values = values;
+			this.cardinality = cardinality;
+		}
+
+		@Override
+		public int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		public Container add(char value) {
+			// ids are usually added in increasing order
+			if (cardinality > 0 && values[cardinality - 1] < value) {
+				if (cardinality == ARRAY_LIMIT) {
+					return toBitmap().add(value);
+				}
+				if (cardinality == values.length) {
+					values = Arrays.copyOf(values, Math.min(Math.max(cardinality * 2, 4), ARRAY_LIMIT));
+				}
+				values[cardinality++] = value;
+				return this;
+			}
+
+			int i = Arrays.binarySearch(values, 0, cardinality, value);
+			if (i >= 0) {
+				return this;
+			}
+			if (cardinality == ARRAY_LIMIT) {
+				return toBitmap().add(value);
+			}
+			i = -i - 1;
+			if (cardinality == values.length) {
+				values = Arrays.copyOf(values, Math.min(Math.max(cardinality * 2, 4), ARRAY_LIMIT));
+			}
+			System.arraycopy(values, i, values, i + 1, cardinality - i);
+			values[i] = value;
+			cardinality++;
+			return this;
+		}
+
+		@Override
+		public boolean contains(char value) {
+			return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+		}
+
+		@Override
+		public void forEach(int base, IntConsumer action) {
+			for (int i = 0; i < cardinality; i++) {
+				action.accept(base | values[i]);
+			}
+		}
+
+		@Override
+		public Container copy() {
+			return new ArrayContainer(Arrays.copyOf(values, cardinality), cardinality);
+		}
+
+		@Override
+		public BitmapContainer toBitmap() {
+			BitmapContainer bitmap = new BitmapContainer();
+			for (int i = 0; i < cardinality; i++) {
+				bitmap.add(values[i]);
+			}
+			return bitmap;
+		}
+
+		/**
+		 * Returns the values in both sorted arrays
+		 *
+		 * @param other the other array container
+		 * @return the intersection
+		 */
+		public ArrayContainer intersect(ArrayContainer other) {
+			char[] result = new char[Math.min(cardinality, other.cardinality)];
+			int size = 0;
+			int i = 0;
+			int j = 0;
+			while (i < cardinality && j < other.cardinality) {
+				if (values[i] < other.values[j]) {
+					i++;
+				} else if (values[i] > other.values[j]) {
+					j++;
+				} else {
+					result[size++] = values[i];
+					i++;
+					j++;
+				}
+			}
+			return new ArrayContainer(result, size);
+		}
+
+		/**
+		 * Returns the values in either sorted array
+		 *
+		 * @param other the other array container
+		 * @return the union
+		 */
+		public ArrayContainer merge(ArrayContainer other) {
+			char[] result = new char[cardinality + other.cardinality];
+			int size = 0;
+			int i = 0;
+			int j = 0;
+			while (i < cardinality || j < other.cardinality) {
+				if (j >= other.cardinality || (i < cardinality && values[i] < other.values[j])) {
+					result[size++] = values[i++];
+				} else if (i >= cardinality || values[i] > other.values[j]) {
+					result[size++] = other.values[j++];
+				} else {
+					result[size++] = values[i];
+					i++;
+					j++;
+				}
+			}
+			return new ArrayContainer(result, size);
+		}
+
+		/**
+		 * Returns the values that are (or are not) in the other container
+		 *
+		 * @param other the other container
+		 * @param keep whether to keep values found in the other container
+		 * @return the filtered values
+		 */
+		public ArrayContainer filter(Container other, boolean keep) {
+			char[] result = new char[cardinality];
+			int size = 0;
+			for (int i = 0; i < cardinality; i++) {
+				if (other.contains(values[i]) == keep) {
+					result[size++] = values[i];
+				}
+			}
+			return new ArrayContainer(result, size);
+		}
+	}
+
+	/**
+	 * A dense group stored as a bitmap of all 65536 possible values
+	 */
+	private static class BitmapContainer extends Container {
+
+		/**
+		 * One bit per possible value
+		 */
+		private final long[] words;
+
+		/**
+		 * The number of bits set
+		 */
+		private int cardinality;
+
+		/**
+		 * Constructs an empty bitmap
+		 */
+		public BitmapContainer() {
+			this(new long[BITMAP_WORDS], 0);
+		}
+
+		/**
+		 * Constructs a bitmap from existing words
+		 *
+		 * @param words the bits
+		 * @param cardinality the number of bits set
+		 */
+		private BitmapContainer(long[] words, int cardinality) {
+			this.words = words;
+			this.cardinality = cardinality;
+		}
+
+		@Override
+		public int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		public Container add(char value) {
+			long before = words[value >>> 6];
+			words[value >>> 6] |= 1L << value;
+			if (before != words[value >>> 6]) {
+				cardinality++;
+			}
+			return this;
+		}
+
+		@Override
+		public boolean contains(char value) {
+			return (words[value >>> 6] & (1L << value)) != 0;
+		}
+
+		@Override
+		public void forEach(int base, IntConsumer action) {
+			for (int i = 0; i < BITMAP_WORDS; i++) {
+				long word = words[i];
+				while (word != 0) {
+					action.accept(base | (i << 6) | Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+		}
+
+		@Override
+		public Container copy() {
+			return new BitmapContainer(words.clone(), cardinality);
+		}
+
+		@Override
+		public BitmapContainer toBitmap() {
+			return (BitmapContainer) copy();
+		}
+
+		/**
+		 * Keeps only the bits also set in the other bitmap
+		 *
+		 * @param other the other bitmap
+		 */
+		public void and(BitmapContainer other) {
+			int count = 0;
+			for (int i = 0; i < BITMAP_WORDS; i++) {
+				words[i] &= other.words[i];
+				count += Long.bitCount(words[i]);
+			}
+			cardinality = count;
+		}
+
+		/**
+		 * Sets every bit set in the other bitmap
+		 *
+		 * @param other the other bitmap
+		 */
+		public void or(BitmapContainer other) {
+			int count = 0;
+			for (int i = 0; i < BITMAP_WORDS; i++) {
+				words[i] |= other.words[i];
+				count += Long.bitCount(words[i]);
+			}
+			cardinality = count;
+		}
+
+		/**
+		 * Clears every bit set in the other bitmap
+		 *
+		 * @param other the other bitmap
+		 */
+		public void andNot(BitmapContainer other) {
+			int count = 0;
+			for (int i = 0; i < BITMAP_WORDS; i++) {
+				words[i] &= ~other.words[i];
+				count += Long.bitCount(words[i]);
+			}
+			cardinality = count;
+		}
+
+		/**
+		 * Returns an array container if this bitmap has become sparse
+		 *
+		 * @return this bitmap or an equivalent array container
+		 */
+		public Container shrink() {
+			if (cardinality > ARRAY_LIMIT) {
+				return this;
+			}
+			char[] values = new char[cardinality];
+			int[] size = { 0 };
+			forEach(0, value -> values[size[0]++] = (char) value);
+			return new ArrayContainer(values, cardinality);
+		}
+	}
+}
@@ -0,0 +1,478 @@
+package edu.usfca.cs272;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A compact store of the words of each indexed document, used to show snippets
+ * of text around the matches of a query. The word at index position {@code n}
+ * is the {@code n}th word of the document as it was written, before cleaning and
+ * stemming, so the positions already in the index say where each match is.
+ * Words are compressed in blocks of {@link #BLOCK_SIZE}, and a bounded cache
+ * keeps the most recently decompressed blocks so a snippet usually reads at
+ * most one or two blocks. This class is thread safe.
+ *
+ * @author zoe
+ *
+ */
+public class DocumentStore {
+
+	/**
+	 * The number of words compressed together in one block
+	 */
+	public static final int BLOCK_SIZE = 512;
+
+	/**
+	 * The default number of decompressed blocks to keep
+	 */
+	public static final int DEFAULT_CACHE = 512;
+
+	/**
+	 * The number of words shown on each side of the matches in a snippet
+	 */
+	public static final int DEFAULT_RADIUS = 12;
+
+	/**
+	 * The compressed words of each document by location
+	 */
+	private final Map<String, StoredDocument> documents;
+
+	/**
+	 * The most recently decompressed blocks, by location and block number
+	 */
+	private final LruCache<String, String[]> blocks;
+
+	/**
+	 * The total size in bytes of every block before compression
+	 */
+	private long rawBytes;
+
+	/**
+	 * The total size in bytes of every block after compression
+	 */
+	private long compressedBytes;
+
+	/**
+	 * Constructs a store with the default cache size
+	 *
+	 * @see #DocumentStore(int)
+	 */
+	public DocumentStore() {
+		this(DEFAULT_CACHE);
+	}
+
+	/**
+	 * Constructs a store that keeps at most the given number of decompressed
+	 * blocks
+	 *
+	 * @param capacity the number of decompressed blocks to keep
+	 */
+	public DocumentStore(int capacity) {
+		this.documents = new HashMap<>();
+		this.blocks = new LruCache<>(capacity);
+		this.rawBytes = 0;
+		this.compressedBytes = 0;
+	}
+
+	/**
+	 * Stores the words of a document, replacing any words already stored for the
+	 * location. The words are compressed before any lock is taken.
+	 *
+	 * @param location the location of the document
+	 * @param words the words of the document in position order, where the first
+	 *   word is at position 1
+	 */
+	public void add(String location, List<String> words) {
+		StoredDocument document = new StoredDocument(words);
+		synchronized (this) {
+			StoredDocument previous = documents.put(location, document);
+			if (previous != null) {
+				rawBytes -= previous.rawBytes();
+				compressedBytes -= previous.compressedBytes();
+				for (int block = 0; block < previous.blocks.length; block++) {
+					blocks.remove(key(location, block));
+				}
+			}
+			rawBytes += document.rawBytes();
+			compressedBytes += document.compressedBytes();
+		}
+	}
+
+	/**
+	 * Returns whether any words are stored for the location
+	 *
+	 * @param location the location to check
+	 * @return true if the location has stored words
+	 */
+	public synchronized boolean contains(String location) {
+		return documents.containsKey(location);
+	}
+
+	/**
+	 * Returns the number of words stored for the location
+	 *
+	 * @param location the location
+	 * @return the number of words, or 0 if nothing is stored for the location
+	 */
+	public int numWords(String location) {
+		StoredDocument document = get(location);
+		return document == null ? 0 : document.words;
+	}
+
+	/**
+	 * Returns the stored words between two positions
+	 *
+	 * @param location the location of the document
+	 * @param from the first position to return, starting at 1
+	 * @param to the last position to return
+	 * @return the words between the positions, which is empty if nothing is
+	 *   stored for the location or the positions are out of range
+	 */
+	public List<String> words(String location, int from, int to) {
+		StoredDocument document = get(location);
+		if (document == null) {
+			return Collections.emptyList();
+		}
+		from = Math.max(from, 1);
+		to = Math.min(to, document.words);
+		List<String> words = new ArrayList<>(Math.max(to - from + 1, 0));
+		if (from > to) {
+			return words;
+		}
+		for (int block = (from - 1) / BLOCK_SIZE; block <= (to - 1) / BLOCK_SIZE; block++) {
+			String[] decompressed = block(location, document, block);
+			int first = block * BLOCK_SIZE + 1;
+			int last = Math.min(to, first + decompressed.length - 1);
+			for (int position = Math.max(from, first); position <= last; position++) {
+				words.add(decompressed[position - first]);
+			}
+		}
+		return words;
+	}
+
+	/**
+	 * Returns a snippet of the document around its densest run of matches. The
+	 * window of {@code 2 * radius + 1} words holding the most matches is found
+	 * first, then centered on the matches inside it. A document without matches
+	 * is shown from its first word.
+	 *
+	 * @param location the location of the document
+	 * @param matches the positions of the words that matched the query
+	 * @param radius the number of words to show on each side of the matches
+	 * @return the snippet, or null if nothing is stored for the location
+	 */
+	public Snippet snippet(String location, SortedSet<Integer> matches, int radius) {
+		StoredDocument document = get(location);
+		if (document == null) {
+			return null;
+		}
+
+		int width = 2 * radius + 1;
+		int start = 1;
+		if (!matches.isEmpty()) {
+			List<Integer> sorted = new ArrayList<>(matches);
+			int best = 0;
+			int bestEnd = 0;
+			int end = 0;
+			for (int i = 0; i < sorted.size(); i++) {
+				end = Math.max(end, i);
+				while (end + 1 < sorted.size() && sorted.get(end + 1) - sorted.get(i) < width) {
+					end++;
+				}
+				if (end - i > bestEnd - best) {
+					best = i;
+					bestEnd = end;
+				}
+			}
+			int first = sorted.get(best);
+			int last = sorted.get(bestEnd);
+			start = Math.max(first - (width - (last - first + 1)) / 2, 1);
+		}
+		int end = Math.min(start + width - 1, document.words);
+		start = Math.max(Math.min(start, end - width + 1), 1);
+
+		return new Snippet(start, words(location, start, end), matches.subSet(start, end + 1), end < document.words);
+	}
+
+	/**
+	 * Returns the stored document for a location
+	 *
+	 * @param location the location
+	 * @return the stored document, or null if there is none
+	 */
+	private synchronized StoredDocument get(String location) {
+		return documents.get(location);
+	}
+
+	/**
+	 * Returns a decompressed block, from the cache if possible. The block is
+	 * looked up, decompressed and cached under the same lock that replacing a
+	 * document takes, so a block of a replaced document is never cached.
+	 *
+	 * @param location the location of the document
+	 * @param document the stored document
+	 * @param block the block number, starting at 0
+	 * @return the words in the block
+	 */
+	private synchronized String[] block(String location, StoredDocument document, int block) {
+		if (documents.get(location) != document) {
+			// replaced since it was looked up, so the cached blocks are for the new words
+			return document.decompress(block);
+		}
+		String key = key(location, block);
+		String[] words = blocks.get(key);
+		if (words == null) {
+			words = document.decompress(block);
+			blocks.put(key, words);
+		}
+		return words;
+	}
+
+	/**
+	 * Returns the cache key of a block
+	 *
+	 * @param location the location of the document
+	 * @param block the block number, starting at 0
+	 * @return the key of the block
+	 */
+	private static String key(String location, int block) {
+		return location + '\0' + block;
+	}
+
+	/**
+	 * Returns the number of bytes the stored words take before compression
+	 *
+	 * @return the uncompressed size in bytes
+	 */
+	public synchronized long rawBytes() {
+		return rawBytes;
+	}
+
+	/**
+	 * Returns the number of bytes the stored words take after compression
+	 *
+	 * @return the compressed size in bytes
+	 */
+	public synchronized long compressedBytes() {
+		return compressedBytes;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("documents: %d, raw: %d bytes, compressed: %d bytes, blocks %s", documents.size(), rawBytes, compressedBytes, blocks);
+	}
+
+	/**
+	 * The compressed blocks of words of a single document
+	 */
+	private static class StoredDocument {
+
+		/**
+		 * The compressed words of each block
+		 */
+		private final byte[][] blocks;
+
+		/**
+		 * The size in bytes of each block before compression
+		 */
+		private final int[] lengths;
+
+		/**
+		 * The number of words in the document
+		 */
+		private final int words;
+
+		/**
+		 * Compresses the words of a document
+		 *
+		 * @param words the words of the document in position order
+		 */
+		public StoredDocument(List<String> words) {
+			int count = (words.size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+			this.blocks = new byte[count][];
+			this.lengths = new int[count];
+			this.words = words.size();
+
+			Deflater deflater = new Deflater();
+			byte[] buffer = new byte[4096];
+			try {
+				for (int block = 0; block < count; block++) {
+					byte[] raw = String.join(" ", words.subList(block * BLOCK_SIZE, Math.min((block + 1) * BLOCK_SIZE, words.size()))).getBytes(UTF_8);
+					deflater.reset();
+					deflater.setInput(raw);
+					deflater.finish();
+					ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 2 + 16);
+					while (!deflater.finished()) {
+						compressed.write(buffer, 0, deflater.deflate(buffer));
+					}
+					blocks[block] = compressed.toByteArray();
+					lengths[block] = raw.length;
+				}
+			} finally {
+				deflater.end();
+			}
+		}
+
+		/**
+		 * Decompresses the words of a block
+		 *
+		 * @param block the block number, starting at 0
+		 * @return the words in the block
+		 */
+		public String[] decompress(int block) {
+			Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(blocks[block]);
+				byte[] raw = new byte[lengths[block]];
+				int read = 0;
+				while (read < raw.length && !inflater.finished()) {
+					read += inflater.inflate(raw, read, raw.length - read);
+				}
+				return raw.length == 0 ? new String[0] : new String(raw, UTF_8).split(" ");
+			} catch (DataFormatException e) {
+				throw new IllegalStateException("Corrupt document block " + block, e);
+			} finally {
+				inflater.end();
+			}
+		}
+
+		/**
+		 * Returns the size in bytes of every block before compression
+		 *
+		 * @return the uncompressed size
+		 */
+		public long rawBytes() {
+			long total = 0;
+			for (int length : lengths) {
+				total += length;
+			}
+			return total;
+		}
+
+		/**
+		 * Returns the size in bytes of every block after compression
+		 *
+		 * @return the compressed size
+		 */
+		public long compressedBytes() {
+			long total = 0;
+			for (byte[] block : blocks) {
+				total += block.length;
+			}
+			return total;
+		}
+	}
+
+	/**
+	 * A short run of words from a document, with the positions of the words that
+	 * matched the query
+	 */
+	public static class Snippet {
+
+		/**
+		 * The position of the first word
+		 */
+		private final int start;
+
+		/**
+		 * The words of the snippet
+		 */
+		private final List<String> words;
+
+		/**
+		 * The positions of the matching words within the snippet
+		 */
+		private final SortedSet<Integer> matches;
+
+		/**
+		 * Whether the document continues after the snippet
+		 */
+		private final boolean more;
+
+		/**
+		 * Constructs a snippet
+		 *
+		 * @param start the position of the first word
+		 * @param words the words of the snippet
+		 * @param matches the positions of the matching words within the snippet
+		 * @param more whether the document continues after the snippet
+		 */
+		private Snippet(int start, List<String> words, SortedSet<Integer> matches, boolean more) {
+			this.start = start;
+			this.words = words;
+			this.matches = matches;
+			this.more = more;
+		}
+
+		/**
+		 * Returns an unmodifiable view of the words of the snippet
+		 *
+		 * @return the words
+		 */
+		public List<String> viewWords() {
+			return Collections.unmodifiableList(words);
+		}
+
+		/**
+		 * Returns the position of the first word of the snippet
+		 *
+		 * @return the first position
+		 */
+		public int getStart() {
+			return start;
+		}
+
+		/**
+		 * Returns whether a word of the snippet matched the query
+		 *
+		 * @param index the index of the word within the snippet, starting at 0
+		 * @return true if the word should be highlighted
+		 */
+		public boolean isMatch(int index) {
+			return matches.contains(start + index);
+		}
+
+		/**
+		 * Returns whether the document has words before the snippet
+		 *
+		 * @return true if the snippet does not start at the first word
+		 */
+		public boolean hasBefore() {
+			return start > 1;
+		}
+
+		/**
+		 * Returns whether the document has words after the snippet
+		 *
+		 * @return true if the snippet does not end at the last word
+		 */
+		public boolean hasAfter() {
+			return more;
+		}
+
+		/**
+		 * Returns the snippet as plain text, with matches in square brackets
+		 */
+		@Override
+		public String toString() {
+			StringBuilder text = new StringBuilder(hasBefore() ? "... " : "");
+			for (int i = 0; i < words.size(); i++) {
+				if (i > 0) {
+					text.append(' ');
+				}
+				text.append(isMatch(i) ? "[" + words.get(i) + "]" : words.get(i));
+			}
+			return text.append(more ? " ..." : "").toString();
+		}
+	}
+}
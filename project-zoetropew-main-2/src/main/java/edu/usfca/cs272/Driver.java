@@ -28,11 +28,14 @@ public class Driver {
 		ResultsInterface results;
 		WorkQueue queue = null;
 		ThreadedIndex safe = null;
+		ThreadedIndex web = null;
+		FederatedIndex federation = null;
 		WebCrawler crawler = null;
 		ThreadedResults safeResults = null;
+		DocumentStore documents = map.hasFlag("-snippets") ? new DocumentStore() : null;
 
 		// Create threads
-		if (map.hasFlag("-threads") || map.hasFlag("-server") || 
+		if (map.hasFlag("-threads") || map.hasFlag("-server") || map.hasFlag("-federate") ||
 				(map.hasFlag("-html") && map.hasValue("-html"))) {
 			int threads = map.getInteger("-threads");
 			if (threads < 1) {
@@ -41,7 +44,17 @@ public class Driver {
 				queue = new WorkQueue(threads);
 			}
 			index = safe = new ThreadedIndex();
-			results = safeResults = new ThreadedResults(safe, queue);
+			if (map.hasFlag("-federate")) {
+				// keep text files and crawled pages in separate indexes searched together
+				web = new ThreadedIndex();
+				federation = new FederatedIndex();
+				federation.swap("local", safe);
+				federation.swap("web", web);
+				results = safeResults = new ThreadedResults(federation, queue);
+			} else {
+				web = safe;
+				results = safeResults = new ThreadedResults(safe, queue);
+			}
 		} else {
 			index = new InvertedIndex();
 			results = new Results(index);
@@ -49,11 +62,52 @@ public class Driver {
 
 		// Input links
 		if(map.hasFlag("-html") && map.hasValue("-html")) {
-			crawler = new WebCrawler(queue, safe);
+			if (map.hasFlag("-maxbytes") || map.hasFlag("-fetchtimeout")) {
+				// limit how much and how long each page is read before giving up on it
+				HttpsFetcher.setLimits(map.getInteger("-maxbytes", (int) HttpsFetcher.DEFAULT_MAX_BYTES), map.getInteger("-fetchtimeout", HttpsFetcher.DEFAULT_TIMEOUT));
+			}
+			AsyncFetcher fetcher = null;
+			if (map.hasFlag("-async")) {
+				// fetch pages off the work queue so workers only clean and index them
+				int inFlight = map.getInteger("-async", AsyncFetcher.DEFAULT_IN_FLIGHT);
+				fetcher = new AsyncFetcher(inFlight < 1 ? AsyncFetcher.DEFAULT_IN_FLIGHT : inFlight, AsyncFetcher.DEFAULT_THREADS);
+			}
+			if (map.hasFlag("-fetchers")) {
+				// give each page its own thread that blocks on the network
+				crawler = new WebCrawler(web, documents, map.getInteger("-fetchers", WebCrawler.DEFAULT_FETCHERS));
+			} else {
+				crawler = new WebCrawler(queue, web, documents, fetcher);
+			}
+			if (map.hasFlag("-perhost") || map.hasFlag("-delay")) {
+				// queue links by host and limit how often each host is fetched from
+				crawler.throttle(map.getInteger("-perhost", Frontier.DEFAULT_PER_HOST), map.getInteger("-delay", (int) Frontier.DEFAULT_DELAY));
+			}
+			if (map.hasFlag("-titles")) {
+				// index page titles too, which shifts the positions of the other words
+				crawler.indexTitles(true);
+			}
+			if (map.hasFlag("-crawllog")) {
+				// keep the crawl on disk so a stopped crawl resumes where it left off
+				Path directory = map.getPath("-crawllog", Path.of("crawl"));
+				try {
+					crawler.persist(new CrawlLog(directory));
+				} catch (IOException e) {
+					System.out.println("Unable to open crawl log at " + directory);
+				}
+			}
+			if (map.hasFlag("-recrawl")) {
+				// visit crawled pages again as often as they turn out to change
+				long interval = map.getInteger("-recrawl", (int) (Recrawler.DEFAULT_MIN_INTERVAL / 1000)) * 1000L;
+				crawler.refresh(new Recrawler(crawler, queue, interval, Recrawler.DEFAULT_MAX_INTERVAL));
+			}
 			int crawl = 1;
 			if(map.hasFlag("-crawl") && map.getInteger("-crawl") != 0) {
 				crawl = map.getInteger("-crawl");
 			}
+			if (map.hasFlag("-bloom")) {
+				// answer most checks for links never claimed without taking a lock
+				crawler.expectLinks(map.getInteger("-bloom", crawl));
+			}
 			String input = map.getString("-html");
 			try {
 				crawler.build(input, crawl);
@@ -67,9 +121,9 @@ public class Driver {
 			Path input = map.getPath("-text");
 			try {
 				if (queue != null) {
-					ThreadedIndexBuilder.build(input, safe, queue);
+					ThreadedIndexBuilder.build(input, safe, queue, documents);
 				} else {
-					InvertedIndexBuilder.build(input, index);
+					InvertedIndexBuilder.build(input, index, documents);
 				}
 			} catch (IOException e) {
 				System.out.println("Failed to read text input from " + input);
@@ -80,7 +134,8 @@ public class Driver {
 		if(map.hasFlag("-query") && map.hasValue("-query")) {
 			Path output = map.getPath("-query");
 			try {
-				results.readQueries(output, map.hasFlag("-partial"));
+				LocationFilter filter = LocationFilter.parse(map.getString("-filter"));
+				results.readQueries(output, map.hasFlag("-partial"), filter);
 			} catch (IOException e) {
 				System.out.println("Unable to fetch queries from the path: " + output);
 			}
@@ -92,8 +147,16 @@ public class Driver {
 			if (port <= 0) {
 				port = 8080;
 			}
+			if (crawler != null && crawler.getRecrawler() != null) {
+				crawler.getRecrawler().start();
+			}
 			try {
-				SearchEngineServer server = new SearchEngineServer(safeResults, queue, crawler, safe);
+				long timeout = map.getInteger("-timeout", (int) SearchEngineServer.DEFAULT_TIMEOUT);
+				long maxCost = map.getInteger("-maxcost", (int) AdmissionPolicy.DEFAULT_MAX_COST);
+				AdmissionPolicy.Action overflow = AdmissionPolicy.parseAction(map.getString("-admission"), AdmissionPolicy.Action.DEADLINE);
+				long degraded = map.getInteger("-degraded", (int) AdmissionPolicy.DEFAULT_DEGRADED_TIMEOUT);
+				AdmissionPolicy admission = new AdmissionPolicy(maxCost, overflow, degraded);
+				SearchEngineServer server = new SearchEngineServer(safeResults, queue, crawler, web, federation == null ? web : federation, timeout, admission, documents);
 				server.startServer(port);
 			} catch (Exception e) {
 				System.out.println("Error starting server");
@@ -101,6 +164,12 @@ public class Driver {
 		}
 
 		// Shutdown queue
+		if (crawler != null && crawler.getRecrawler() != null) {
+			crawler.getRecrawler().stop();
+		}
+		if (crawler != null) {
+			crawler.shutdown();
+		}
 		if(queue != null) {
 			queue.shutdown();
 		}
@@ -0,0 +1,313 @@
+package edu.usfca.cs272;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import edu.usfca.cs272.InvertedIndex.Result;
+
+/**
+ * Several named indexes searched together, such as a local corpus and a web
+ * crawl, each built and replaced on its own. A query runs against every source
+ * in parallel and the ranked results are merged into one list. Scores can be
+ * merged as they are, since a score only depends on the matches and length of
+ * its own location and not on the rest of the index it came from.
+ *
+ * <p>
+ * The sources are kept in an immutable map that is replaced whenever a source
+ * is added, swapped, or removed. Each search reads the map once, so swapping a
+ * source never blocks or disturbs searches that are already running, and a
+ * source that is still being built only locks itself.
+ *
+ * @author zoe
+ *
+ */
+public class FederatedIndex implements Searchable {
+
+	/**
+	 * The sources by name, in the order they were added. Never modified, only
+	 * replaced.
+	 */
+	private volatile Map<String, Searchable> sources;
+
+	/**
+	 * The generation of the last time a source was added, swapped, or removed
+	 */
+	private volatile long swapped;
+
+	/**
+	 * Constructs a federation with no sources
+	 */
+	public FederatedIndex() {
+		this.sources = Collections.emptyMap();
+		this.swapped = InvertedIndex.nextGeneration();
+	}
+
+	/**
+	 * Adds a source, or atomically replaces the source with the same name. Searches
+	 * that already started keep using the old source until they finish.
+	 *
+	 * @param name the name of the source
+	 * @param source the thread safe index to search
+	 * @return the source that was replaced, or null if the name is new
+	 */
+	public synchronized Searchable swap(String name, Searchable source) {
+		Map<String, Searchable> copy = new LinkedHashMap<>(sources);
+		Searchable previous = copy.put(name, source);
+		sources = Collections.unmodifiableMap(copy);
+		swapped = InvertedIndex.nextGeneration();
+		return previous;
+	}
+
+	/**
+	 * Removes a source
+	 *
+	 * @param name the name of the source
+	 * @return the source that was removed, or null if there was none
+	 */
+	public synchronized Searchable remove(String name) {
+		if (!sources.containsKey(name)) {
+			return null;
+		}
+		Map<String, Searchable> copy = new LinkedHashMap<>(sources);
+		Searchable previous = copy.remove(name);
+		sources = Collections.unmodifiableMap(copy);
+		swapped = InvertedIndex.nextGeneration();
+		return previous;
+	}
+
+	/**
+	 * Returns a source
+	 *
+	 * @param name the name of the source
+	 * @return the source, or null if there is none with that name
+	 */
+	public Searchable get(String name) {
+		return sources.get(name);
+	}
+
+	/**
+	 * Returns the names of the sources
+	 *
+	 * @return an unmodifiable view of the source names, in the order they were
+	 *   added
+	 */
+	public Set<String> viewSources() {
+		return sources.keySet();
+	}
+
+	/**
+	 * Finds only the best search results across every source. Each source ranks
+	 * its own best results in parallel and the ranked lists are merged, keeping
+	 * the first result for a location found in more than one source.
+	 */
+	@Override
+	public List<Result> search(SearchQuery query, boolean partial, LocationFilter filter, int limit, Deadline deadline) {
+		List<Searchable> snapshot = new ArrayList<>(sources.values());
+		if (snapshot.isEmpty()) {
+			return new ArrayList<>();
+		}
+		if (snapshot.size() == 1) {
+			return snapshot.get(0).search(query, partial, filter, limit, deadline);
+		}
+
+		List<SourceTask> tasks = new ArrayList<>(snapshot.size());
+		for (Searchable source : snapshot) {
+			tasks.add(new SourceTask(source, query, partial, filter, limit, deadline));
+		}
+		// search the first source on this thread while the others run in the pool
+		for (SourceTask task : tasks.subList(1, tasks.size())) {
+			ForkJoinPool.commonPool().execute(task);
+		}
+		List<List<Result>> ranked = new ArrayList<>(tasks.size());
+		ranked.add(tasks.get(0).compute());
+		for (SourceTask task : tasks.subList(1, tasks.size())) {
+			ranked.add(task.join());
+		}
+		return merge(ranked, limit);
+	}
+
+	/**
+	 * Merges ranked lists of results into one ranked list
+	 *
+	 * @param ranked the results of each source in ranked order
+	 * @param limit the most results to return, or 0 for every result
+	 * @return the merged results in ranked order
+	 */
+	public static List<Result> merge(List<List<Result>> ranked, int limit) {
+		int[] next = new int[ranked.size()];
+		PriorityQueue<Integer> heads = new PriorityQueue<>(Math.max(ranked.size(), 1),
+				(a, b) -> ranked.get(a).get(next[a]).compareTo(ranked.get(b).get(next[b])));
+		int total = 0;
+		for (int i = 0; i < ranked.size(); i++) {
+			total += ranked.get(i).size();
+			if (!ranked.get(i).isEmpty()) {
+				heads.add(i);
+			}
+		}
+
+		List<Result> merged = new ArrayList<>(limit > 0 ? Math.min(limit, total) : total);
+		Set<String> seen = new HashSet<>();
+		while (!heads.isEmpty() && (limit <= 0 || merged.size() < limit)) {
+			int source = heads.poll();
+			Result result = ranked.get(source).get(next[source]++);
+			if (seen.add(result.getLocation())) {
+				merged.add(result);
+			}
+			if (next[source] < ranked.get(source).size()) {
+				heads.add(source);
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * Adds up the estimated cost of the query in every source
+	 */
+	@Override
+	public QueryCost estimate(SearchQuery query, boolean partial) {
+		QueryCost cost = new QueryCost(0, 0);
+		for (Searchable source : sources.values()) {
+			cost = cost.plus(source.estimate(query, partial));
+		}
+		return cost;
+	}
+
+	/**
+	 * Combines the matching positions found by every source
+	 */
+	@Override
+	public Map<String, SortedSet<Integer>> positions(SearchQuery query, boolean partial, Collection<String> locations) {
+		Map<String, SortedSet<Integer>> positions = new HashMap<>();
+		for (String location : locations) {
+			positions.put(location, new TreeSet<>());
+		}
+		for (Searchable source : sources.values()) {
+			for (var entry : source.positions(query, partial, locations).entrySet()) {
+				positions.get(entry.getKey()).addAll(entry.getValue());
+			}
+		}
+		return positions;
+	}
+
+	/**
+	 * Describes the plan of the query in each source
+	 */
+	@Override
+	public String explain(SearchQuery query, boolean partial, LocationFilter filter) {
+		StringBuilder plan = new StringBuilder();
+		for (var entry : sources.entrySet()) {
+			plan.append("source ").append(entry.getKey()).append(":\n");
+			plan.append(entry.getValue().explain(query, partial, filter)).append('\n');
+		}
+		return plan.toString();
+	}
+
+	/**
+	 * Returns the latest generation of any source or of the sources themselves.
+	 * Generations are handed out in increasing order across every index, so this
+	 * changes whenever any source changes or a source is swapped.
+	 */
+	@Override
+	public long generation() {
+		long latest = swapped;
+		for (Searchable source : sources.values()) {
+			latest = Math.max(latest, source.generation());
+		}
+		return latest;
+	}
+
+	/**
+	 * Describes the prefix cache of each source
+	 */
+	@Override
+	public String prefixCacheStats() {
+		StringBuilder stats = new StringBuilder();
+		for (var entry : sources.entrySet()) {
+			if (!stats.isEmpty()) {
+				stats.append("; ");
+			}
+			stats.append(entry.getKey()).append(": ").append(entry.getValue().prefixCacheStats());
+		}
+		return stats.toString();
+	}
+
+	@Override
+	public String toString() {
+		return "sources: " + sources.keySet();
+	}
+
+	/**
+	 * A task that ranks the results of one source
+	 */
+	private static class SourceTask extends RecursiveTask<List<Result>> {
+
+		/** For serialization */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The source to search
+		 */
+		private final Searchable source;
+
+		/**
+		 * The parsed query
+		 */
+		private final SearchQuery query;
+
+		/**
+		 * Whether to run partial or exact search
+		 */
+		private final boolean partial;
+
+		/**
+		 * The locations to keep, or null to keep every location
+		 */
+		private final LocationFilter filter;
+
+		/**
+		 * The most results to return, or 0 for every result
+		 */
+		private final int limit;
+
+		/**
+		 * When to stop and return the results found so far
+		 */
+		private final Deadline deadline;
+
+		/**
+		 * Constructor for this task
+		 *
+		 * @param source the source to search
+		 * @param query the parsed query
+		 * @param partial whether to run partial or exact search
+		 * @param filter the locations to keep, or null to keep every location
+		 * @param limit the most results to return, or 0 for every result
+		 * @param deadline when to stop and return the results found so far
+		 */
+		public SourceTask(Searchable source, SearchQuery query, boolean partial, LocationFilter filter, int limit, Deadline deadline) {
+			this.source = source;
+			this.query = query;
+			this.partial = partial;
+			this.filter = filter;
+			this.limit = limit;
+			this.deadline = deadline;
+		}
+
+		@Override
+		protected List<Result> compute() {
+			return source.search(query, partial, filter, limit, deadline);
+		}
+	}
+}
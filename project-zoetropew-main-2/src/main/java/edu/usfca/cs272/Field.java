@@ -0,0 +1,42 @@
+package edu.usfca.cs272;
+
+/**
+ * The part of a web page a word was found in. A match in a more important field
+ * counts as more than one match when scoring, so a page with the query in its
+ * title ranks above a page that only mentions it in passing.
+ *
+ * @author zoe
+ *
+ */
+public enum Field {
+	/** The text of the title element */
+	TITLE(3.0),
+	/** The text of any h1 to h6 element */
+	HEADING(2.0),
+	/** Every other visible text */
+	BODY(1.0);
+
+	/**
+	 * How much a match in this field counts compared to a match in the body
+	 */
+	private final double boost;
+
+	/**
+	 * Constructs a field
+	 *
+	 * @param boost how much a match in this field counts
+	 */
+	Field(double boost) {
+		this.boost = boost;
+	}
+
+	/**
+	 * Returns how much a match in this field counts compared to a match in the
+	 * body
+	 *
+	 * @return the boost of this field
+	 */
+	public double boost() {
+		return boost;
+	}
+}
@@ -0,0 +1,125 @@
+package edu.usfca.cs272;
+
+import java.util.Collection;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The positions of a word in one location, along with the field of the page
+ * each position is in. Since these are the same sets the index already returns
+ * for a word and location, the scorer gets the field counts without looking
+ * anything else up. Only positions outside the body are tagged, so positions
+ * that are all in the body carry nothing extra at all.
+ *
+ * @author zoe
+ *
+ */
+public class FieldPositions extends TreeSet<Integer> {
+
+	/** For serialization */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The field of each position outside the body, or null if every position is
+	 * in the body. Body positions are never kept here since they are the rest of
+	 * the set.
+	 */
+	private TreeMap<Integer, Field> fields;
+
+	/**
+	 * Constructs an empty set of positions
+	 */
+	public FieldPositions() {
+		super();
+	}
+
+	/**
+	 * Adds a position found in a field
+	 *
+	 * @param position the position
+	 * @param field the field the position is in
+	 * @return true if the position was not already in the set
+	 */
+	public boolean add(int position, Field field) {
+		boolean added = add(position);
+		if (added && field != Field.BODY) {
+			if (fields == null) {
+				fields = new TreeMap<>();
+			}
+			fields.put(position, field);
+		}
+		return added;
+	}
+
+	/**
+	 * Adds every position in the collection, along with their fields if the
+	 * collection has them. Positions already in the set keep the field they were
+	 * added with.
+	 */
+	@Override
+	public boolean addAll(Collection<? extends Integer> positions) {
+		if (!(positions instanceof FieldPositions other) || other.fields == null) {
+			return super.addAll(positions);
+		}
+		boolean changed = false;
+		for (Integer position : other) {
+			Field field = other.fields.get(position);
+			if (add(position, field == null ? Field.BODY : field)) {
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Returns the number of positions in a field
+	 *
+	 * @param field the field
+	 * @return the number of positions in the field
+	 */
+	public int count(Field field) {
+		if (fields == null) {
+			return field == Field.BODY ? size() : 0;
+		}
+		if (field == Field.BODY) {
+			return size() - fields.size();
+		}
+		int count = 0;
+		for (Field tagged : fields.values()) {
+			if (tagged == field) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of matches these positions count as, where a position in
+	 * a field counts as the boost of that field
+	 *
+	 * @return the boosted number of positions
+	 */
+	public double weight() {
+		double weight = size();
+		if (fields != null) {
+			for (Field field : fields.values()) {
+				weight += field.boost() - 1;
+			}
+		}
+		return weight;
+	}
+
+	/**
+	 * Returns the number of matches a set of positions counts as
+	 *
+	 * @param positions the positions of a word in one location
+	 * @return the boosted number of positions if the set has field counts, or the
+	 *   number of positions otherwise
+	 */
+	public static double weight(Collection<Integer> positions) {
+		if (positions instanceof FieldPositions fielded) {
+			return fielded.weight();
+		}
+		return positions.size();
+	}
+}
@@ -0,0 +1,313 @@
+package edu.usfca.cs272;
+
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * The links waiting to be crawled, kept in a separate queue for each host so
+ * that no host is fetched from too often. Each host has at most a fixed number
+ * of fetches running at once, and its fetches start at least a minimum delay
+ * apart. Links are started round robin across hosts, one link per host at a
+ * time, so a host with many links cannot take every worker.
+ *
+ * <p>
+ * Links are only handed to the crawler once they can be fetched right away, so
+ * no worker ever sleeps to wait out a delay. A host that is waiting out its
+ * delay is started later by a single timer thread, while links from other hosts
+ * keep being started in the meantime.
+ *
+ * @author zoe
+ *
+ */
+public class Frontier {
+
+	/**
+	 * The default most fetches running at once for a single host
+	 */
+	public static final int DEFAULT_PER_HOST = 2;
+
+	/**
+	 * The default minimum milliseconds between the starts of fetches to a host
+	 */
+	public static final long DEFAULT_DELAY = 0;
+
+	/**
+	 * The timer that starts links once their host is done waiting, shared by
+	 * every frontier
+	 */
+	private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(task -> {
+		Thread thread = new Thread(task, "Frontier");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * The most fetches running at once for a single host
+	 */
+	private final int perHost;
+
+	/**
+	 * The minimum nanoseconds between the starts of fetches to a host
+	 */
+	private final long delay;
+
+	/**
+	 * Starts crawling a link once it is allowed
+	 */
+	private final Consumer<URL> starter;
+
+	/**
+	 * Every host seen, in the order they were first seen
+	 */
+	private final Map<String, Host> hosts;
+
+	/**
+	 * The hosts with links waiting, in round robin order
+	 */
+	private final ArrayDeque<Host> ready;
+
+	/**
+	 * When the timer is next set to start links, or {@link Long#MAX_VALUE} if it is
+	 * not set
+	 */
+	private long wakeup;
+
+	/**
+	 * Constructs a frontier with the default limits
+	 *
+	 * @param starter starts crawling a link once it is allowed
+	 *
+	 * @see #Frontier(int, long, Consumer)
+	 */
+	public Frontier(Consumer<URL> starter) {
+		this(DEFAULT_PER_HOST, DEFAULT_DELAY, starter);
+	}
+
+	/**
+	 * Constructs a frontier
+	 *
+	 * @param perHost the most fetches running at once for a single host
+	 * @param delay the minimum milliseconds between the starts of fetches to a
+	 *   host
+	 * @param starter starts crawling a link once it is allowed, and must call
+	 *   {@link #finished(URL)} once the link has been fetched
+	 */
+	public Frontier(int perHost, long delay, Consumer<URL> starter) {
+		this.perHost = Math.max(perHost, 1);
+		this.delay = TimeUnit.MILLISECONDS.toNanos(Math.max(delay, 0));
+		this.starter = starter;
+		this.hosts = new LinkedHashMap<>();
+		this.ready = new ArrayDeque<>();
+		this.wakeup = Long.MAX_VALUE;
+	}
+
+	/**
+	 * Returns the host a link is throttled under
+	 *
+	 * @param url the link
+	 * @return the lowercase host of the link
+	 */
+	public static String host(URL url) {
+		return url.getHost().toLowerCase();
+	}
+
+	/**
+	 * Adds a link to the queue of its host, and starts it right away if the host
+	 * allows it
+	 *
+	 * @param url the link to crawl
+	 */
+	public void add(URL url) {
+		synchronized (this) {
+			Host host = hosts.computeIfAbsent(host(url), Host::new);
+			if (host.links.isEmpty()) {
+				ready.addLast(host);
+			}
+			host.links.addLast(url);
+		}
+		dispatch();
+	}
+
+	/**
+	 * Marks that a link has been fetched, which frees a slot for its host
+	 *
+	 * @param url the link that was fetched
+	 */
+	public void finished(URL url) {
+		synchronized (this) {
+			Host host = hosts.get(host(url));
+			if (host != null && host.active > 0) {
+				host.active--;
+				host.fetched++;
+			}
+		}
+		dispatch();
+	}
+
+	/**
+	 * Starts every link that is allowed to start. Links are taken one per host
+	 * at a time in round robin order, and the links are started outside the lock
+	 * of the frontier.
+	 */
+	private void dispatch() {
+		List<URL> started = new ArrayList<>();
+		synchronized (this) {
+			long now = System.nanoTime();
+			long next = Long.MAX_VALUE;
+			boolean progress = true;
+			while (progress && !ready.isEmpty()) {
+				progress = false;
+				for (int i = ready.size(); i > 0; i--) {
+					Host host = ready.pollFirst();
+					if (host.active < perHost && host.allowed - now <= 0) {
+						started.add(host.links.pollFirst());
+						host.active++;
+						host.allowed = now + delay;
+						if (host.first == 0) {
+							host.first = now;
+						}
+						progress = true;
+					} else if (host.active < perHost) {
+						next = Math.min(next, host.allowed);
+					}
+					if (!host.links.isEmpty()) {
+						ready.addLast(host);
+					}
+				}
+			}
+			// wake up for the first host that is only waiting out its delay
+			if (next != Long.MAX_VALUE && next < wakeup) {
+				wakeup = next;
+				TIMER.schedule(this::wake, Math.max(next - now, 0), TimeUnit.NANOSECONDS);
+			}
+		}
+		for (URL url : started) {
+			starter.accept(url);
+		}
+	}
+
+	/**
+	 * Starts the links whose hosts are done waiting
+	 */
+	private void wake() {
+		synchronized (this) {
+			wakeup = Long.MAX_VALUE;
+		}
+		dispatch();
+	}
+
+	/**
+	 * Returns the number of links waiting to be crawled
+	 *
+	 * @return the number of links in every host queue
+	 */
+	public synchronized int size() {
+		int size = 0;
+		for (Host host : ready) {
+			size += host.links.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the number of links waiting to be crawled from a host
+	 *
+	 * @param host the lowercase host
+	 * @return the number of links in the queue of the host
+	 */
+	public synchronized int depth(String host) {
+		Host found = hosts.get(host);
+		return found == null ? 0 : found.links.size();
+	}
+
+	/**
+	 * Returns how fast pages have been fetched from a host since its first fetch
+	 * started
+	 *
+	 * @param host the lowercase host
+	 * @return the pages fetched per second
+	 */
+	public synchronized double rate(String host) {
+		Host found = hosts.get(host);
+		return found == null ? 0 : found.rate(System.nanoTime());
+	}
+
+	@Override
+	public synchronized String toString() {
+		long now = System.nanoTime();
+		StringBuilder stats = new StringBuilder();
+		for (Host host : hosts.values()) {
+			if (!stats.isEmpty()) {
+				stats.append("; ");
+			}
+			stats.append(String.format("%s queued: %d, active: %d, fetched: %d, %.1f pages/s",
+					host.name, host.links.size(), host.active, host.fetched, host.rate(now)));
+		}
+		return stats.toString();
+	}
+
+	/**
+	 * The queue and throttling state of one host
+	 */
+	private static class Host {
+
+		/**
+		 * The lowercase host
+		 */
+		private final String name;
+
+		/**
+		 * The links waiting to be crawled
+		 */
+		private final ArrayDeque<URL> links;
+
+		/**
+		 * The number of fetches running
+		 */
+		private int active;
+
+		/**
+		 * When the next fetch may start, in nanoseconds
+		 */
+		private long allowed;
+
+		/**
+		 * When the first fetch started in nanoseconds, or 0 if none has
+		 */
+		private long first;
+
+		/**
+		 * The number of fetches finished
+		 */
+		private long fetched;
+
+		/**
+		 * Constructs a host with nothing queued
+		 *
+		 * @param name the lowercase host
+		 */
+		public Host(String name) {
+			this.name = name;
+			this.links = new ArrayDeque<>();
+			this.allowed = System.nanoTime();
+		}
+
+		/**
+		 * Returns how fast pages have been fetched since the first fetch started
+		 *
+		 * @param now the current time in nanoseconds
+		 * @return the pages fetched per second
+		 */
+		public double rate(long now) {
+			return first == 0 || now == first ? 0 : fetched * 1e9 / (now - first);
+		}
+	}
+}
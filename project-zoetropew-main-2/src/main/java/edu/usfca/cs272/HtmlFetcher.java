@@ -1,17 +1,11 @@
 package edu.usfca.cs272;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.net.MalformedURLException;
-import java.net.Socket;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.stream.Collectors;
 
 /**
  * A specialized version of {@link HttpsFetcher} that follows redirects and
@@ -33,7 +27,7 @@ public class HtmlFetcher {
 	 */
 	public static boolean isHtml(Map<String, List<String>> headers) {
 		for (Entry<String, List<String>> header : headers.entrySet()) {
-			if (header.getKey() != null && header.getKey().equals("Content-Type") && header.getValue().get(0).startsWith("text/html")) {
+			if (header.getKey() != null && header.getKey().equalsIgnoreCase("Content-Type") && header.getValue().get(0).startsWith("text/html")) {
 				return true;
 			}
 		}
@@ -62,7 +56,7 @@ public class HtmlFetcher {
 	public static String getRedirect(Map<String, List<String>> headers) {
 		int temp = getStatusCode(headers);
 		if (temp <= 399 && temp >= 300) {
-			return headers.get("Location").get(0);
+			return HttpsFetcher.getHeader(headers, "Location");
 		}
 		return null;
 	}
@@ -70,49 +64,76 @@ public class HtmlFetcher {
 	/**
 	 * Fetches the resource at the URL using HTTP/1.1 and sockets. If the status
 	 * code is 200 and the content type is HTML, returns the HTML as a single
-	 * string. If the status code is a valid redirect, will follow that redirect if
-	 * the number of redirects is greater than 0. Otherwise, returns {@code null}.
+	 * string. If the status code is a valid redirect, will follow that redirect,
+	 * which may be relative to the url, if the number of redirects is greater than
+	 * 0. Otherwise, returns {@code null}.
+	 * Connections are kept open and reused between fetches from the same host.
 	 *
 	 * @param url the url to fetch
 	 * @param redirects the number of times to follow redirects
 	 * @return the html or {@code null} if unable to fetch the resource or the
 	 *   resource is not html
 	 *
-	 * @see HttpsFetcher#openConnection(URL)
-	 * @see HttpsFetcher#printGetRequest(PrintWriter, URL)
-	 * @see HttpsFetcher#getHeaderFields(BufferedReader)
+	 * @see HttpsFetcher#fetchUrl(URL, java.util.function.Predicate)
 	 *
-	 * @see String#join(CharSequence, CharSequence...)
+	 * @see String#join(CharSequence, Iterable)
 	 *
 	 * @see #isHtml(Map)
 	 * @see #getRedirect(Map)
 	 */
 	public static String fetch(URL url, int redirects) {
-		String html = null;
+		return fetch(url, redirects, HttpsFetcher.getPool());
+	}
 
-		try (
-				Socket socket = HttpsFetcher.openConnection(url);
-				PrintWriter request = new PrintWriter(socket.getOutputStream());
-				InputStreamReader input = new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8);
-				BufferedReader response = new BufferedReader(input);
-				) {
-			HttpsFetcher.printGetRequest(request, url);
-			Map<String, List<String>> headers = HttpsFetcher.getHeaderFields(response);
+	/**
+	 * See {@link #fetch(URL, int)} for details. Uses connections from the given
+	 * pool instead of the shared one.
+	 *
+	 * @param url the url to fetch
+	 * @param redirects the number of times to follow redirects
+	 * @param pool the pool of connections to use
+	 * @return the html or {@code null} if unable to fetch the resource or the
+	 *   resource is not html
+	 */
+	public static String fetch(URL url, int redirects, ConnectionPool pool) {
+		return fetch(url, redirects, pool, null);
+	}
+
+	/**
+	 * See {@link #fetch(URL, int, ConnectionPool)} for details. Also keeps the
+	 * "ETag" and "Last-Modified" headers of the page, if its server sent them, so
+	 * the page can later be fetched again only if it changed.
+	 *
+	 * @param url the url to fetch
+	 * @param redirects the number of times to follow redirects
+	 * @param pool the pool of connections to use
+	 * @param validators where to put the headers by name, or null to not keep them
+	 * @return the html or {@code null} if unable to fetch the resource or the
+	 *   resource is not html
+	 */
+	public static String fetch(URL url, int redirects, ConnectionPool pool, Map<String, String> validators) {
+		try {
+			Map<String, List<String>> headers = HttpsFetcher.fetchUrl(url, h -> getStatusCode(h) == 200 && isHtml(h), pool);
 			if (getStatusCode(headers) == 200 && isHtml(headers)) {
-				html = response.lines().collect(Collectors.joining("\n"));
-			} else {
-				String r = getRedirect(headers);
-				if (r != null && redirects > 0) {
-					return fetch(r, redirects - 1);
+				if (validators != null) {
+					for (String name : List.of("ETag", "Last-Modified")) {
+						String value = HttpsFetcher.getHeader(headers, name);
+						if (value != null) {
+							validators.put(name, value);
+						}
+					}
 				}
-				return null;
+				return String.join("\n", headers.get("Content"));
+			}
+			String r = getRedirect(headers);
+			if (r != null && redirects > 0) {
+				return fetch(new URL(url, r), redirects - 1, pool, validators);
 			}
+			return null;
 		}
 		catch (IOException e) {
-			html = null;
+			return null;
 		}
-
-		return html;
 	}
 
 	/**
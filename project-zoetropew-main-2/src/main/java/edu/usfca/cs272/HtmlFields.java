@@ -0,0 +1,319 @@
+package edu.usfca.cs272;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The visible text of a web page split into runs by the field each run is in.
+ * The page is read in a single pass of {@link HtmlScanner}, so the text is
+ * cleaned exactly the way {@link HtmlScanner#stripHtml(String)} cleans it, and
+ * the tags the scanner removes decide which field the text after them is in.
+ * Unlike {@link HtmlScanner#stripHtml(String)}, the title is kept from the head
+ * the scanner removes. Runs are kept in page order, so numbering their words in
+ * order gives the same positions every time.
+ *
+ * <p>
+ * The same pass also collects the links in the anchor tags of the page. These
+ * are the tags left once comments and block elements are removed, so a crawler
+ * does not have to copy and search the page again to find where to go next.
+ *
+ * @author zoe
+ *
+ */
+public class HtmlFields {
+
+	/**
+	 * The elements whose text is in the heading field
+	 */
+	private static final Set<String> HEADINGS = Set.of("h1", "h2", "h3", "h4", "h5", "h6");
+
+	/**
+	 * The field of each run
+	 */
+	private final List<Field> fields;
+
+	/**
+	 * The text of each run
+	 */
+	private final List<String> runs;
+
+	/**
+	 * The HTTP(S) links found in anchor tags, in page order
+	 */
+	private final List<URL> links;
+
+	/**
+	 * Constructs an empty page
+	 */
+	private HtmlFields() {
+		this.fields = new ArrayList<>();
+		this.runs = new ArrayList<>();
+		this.links = new ArrayList<>();
+	}
+
+	/**
+	 * Splits the visible text of a page into fields
+	 *
+	 * @param html the HTML of the page
+	 * @return the text of the page by field
+	 */
+	public static HtmlFields parse(String html) {
+		return parse(html, null);
+	}
+
+	/**
+	 * Splits the visible text of a page into fields and collects the links in its
+	 * anchor tags
+	 *
+	 * @param html the HTML of the page
+	 * @param base the location of the page used to resolve relative links, or
+	 *   null to skip collecting links
+	 * @return the text and links of the page
+	 */
+	public static HtmlFields parse(String html, URL base) {
+		Parser parser = new Parser(new HtmlFields(), base);
+		HtmlScanner scanner = new HtmlScanner(parser.text, parser::tag, parser::head);
+		scanner.scan(html);
+		scanner.finish();
+		parser.page.add(parser.field(), parser.text);
+		return parser.page;
+	}
+
+	/**
+	 * Returns the lowercase name of a tag
+	 *
+	 * @param html the HTML
+	 * @param start the index of the first character of the name
+	 * @param end the index of the closing angle bracket of the tag
+	 * @return the name of the tag
+	 */
+	private static String name(String html, int start, int end) {
+		int stop = start;
+		while (stop < end && Character.isLetterOrDigit(html.charAt(stop))) {
+			stop++;
+		}
+		return html.substring(start, stop).toLowerCase();
+	}
+
+	/**
+	 * Adds the link in the double quoted href attribute of an anchor tag, without
+	 * its fragment or any newlines or tabs, if it resolves to an HTTP(S) link
+	 *
+	 * @param base the location of the page
+	 * @param html the HTML
+	 * @param start the index just past the name of the tag
+	 * @param end the index of the closing angle bracket of the tag
+	 */
+	private void link(URL base, String html, int start, int end) {
+		// the attribute name has to start after a space, so data-href is skipped
+		int href = start;
+		while (href + 4 <= end && !(Character.isWhitespace(html.charAt(href - 1)) && html.regionMatches(true, href, "href", 0, 4))) {
+			href++;
+		}
+		int quote = href + 4;
+		while (quote < end && Character.isWhitespace(html.charAt(quote))) {
+			quote++;
+		}
+		if (quote >= end || html.charAt(quote) != '=') {
+			return;
+		}
+		quote++;
+		while (quote < end && Character.isWhitespace(html.charAt(quote))) {
+			quote++;
+		}
+		if (quote >= end || html.charAt(quote) != '"') {
+			return;
+		}
+		StringBuilder link = new StringBuilder();
+		for (int i = quote + 1; i < end; i++) {
+			char c = html.charAt(i);
+			if (c == '"' || c == '#') {
+				break;
+			}
+			if (c != '\n' && c != '\t') {
+				link.append(c);
+			}
+		}
+		try {
+			URL url = new URL(base, link.toString());
+			if (LinkFinder.isHttp(url)) {
+				links.add(url);
+			}
+		} catch (MalformedURLException e) {
+			// not a link
+		}
+	}
+
+	/**
+	 * Adds the text read so far as a run and clears it
+	 *
+	 * @param field the field the text is in
+	 * @param text the text read so far
+	 */
+	private void add(Field field, StringBuilder text) {
+		if (!text.isEmpty()) {
+			String run = text.toString();
+			if (!run.isBlank()) {
+				fields.add(field);
+				runs.add(run);
+			}
+			text.setLength(0);
+		}
+	}
+
+	/**
+	 * Returns the number of runs of text
+	 *
+	 * @return the number of runs
+	 */
+	public int size() {
+		return runs.size();
+	}
+
+	/**
+	 * Returns the field of a run
+	 *
+	 * @param run the index of the run
+	 * @return the field the run is in
+	 */
+	public Field field(int run) {
+		return fields.get(run);
+	}
+
+	/**
+	 * Returns the text of a run
+	 *
+	 * @param run the index of the run
+	 * @return the text of the run
+	 */
+	public String text(int run) {
+		return runs.get(run);
+	}
+
+	/**
+	 * Returns the HTTP(S) links found in the anchor tags of the page, which are
+	 * only collected when the page is parsed with its location
+	 *
+	 * @return the links in page order
+	 *
+	 * @see #parse(String, URL)
+	 */
+	public List<URL> links() {
+		return Collections.unmodifiableList(links);
+	}
+
+	/**
+	 * Returns all of the text in a field, in page order
+	 *
+	 * @param field the field
+	 * @return the text of every run in the field, separated by spaces
+	 */
+	public String text(Field field) {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < runs.size(); i++) {
+			if (fields.get(i) == field) {
+				if (!text.isEmpty()) {
+					text.append(' ');
+				}
+				text.append(runs.get(i));
+			}
+		}
+		return text.toString();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < runs.size(); i++) {
+			text.append(fields.get(i)).append(": ").append(runs.get(i).strip()).append('\n');
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Splits a page into runs as the scanner reports the tags it removes
+	 */
+	private static class Parser {
+
+		/**
+		 * The page being split
+		 */
+		private final HtmlFields page;
+
+		/**
+		 * The location of the page used to resolve relative links, or null to skip
+		 * collecting links
+		 */
+		private final URL base;
+
+		/**
+		 * The text scanned since the last run was added
+		 */
+		private final StringBuilder text;
+
+		/**
+		 * The number of headings open
+		 */
+		private int headings;
+
+		/**
+		 * Constructs a parser
+		 *
+		 * @param page the page to split
+		 * @param base the location of the page, or null to skip collecting links
+		 */
+		public Parser(HtmlFields page, URL base) {
+			this.page = page;
+			this.base = base;
+			this.text = new StringBuilder();
+			this.headings = 0;
+		}
+
+		/**
+		 * Returns the field the text scanned now is in
+		 *
+		 * @return the field
+		 */
+		public Field field() {
+			return headings > 0 ? Field.HEADING : Field.BODY;
+		}
+
+		/**
+		 * Collects the link of an anchor tag, and starts a new run when a heading
+		 * opens or closes
+		 *
+		 * @param tag the tag removed, from its opening to its closing angle bracket
+		 */
+		public void tag(String tag) {
+			boolean closing = tag.charAt(1) == '/';
+			String name = name(tag, closing ? 2 : 1, tag.length() - 1);
+			if (base != null && !closing && name.equals("a")) {
+				page.link(base, tag, 2, tag.length() - 1);
+			}
+			if (HEADINGS.contains(name)) {
+				Field before = field();
+				headings = closing ? Math.max(headings - 1, 0) : headings + 1;
+				if (field() != before) {
+					page.add(before, text);
+				}
+			}
+		}
+
+		/**
+		 * Adds the titles in a head element as runs of their own. Each title is
+		 * cleaned on its own, so nothing after it can end up in the title.
+		 *
+		 * @param head the inside of the head element removed
+		 */
+		public void head(String head) {
+			page.add(field(), text);
+			for (String title : HtmlScanner.elements(head, "title")) {
+				page.add(Field.TITLE, new StringBuilder(HtmlScanner.stripHtml(title)));
+			}
+		}
+	}
+}
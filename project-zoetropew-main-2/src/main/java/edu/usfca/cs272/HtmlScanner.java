@@ -0,0 +1,766 @@
+package edu.usfca.cs272;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.apache.commons.text.StringEscapeUtils;
+
+/**
+ * Cleans HTML into plain text in a single pass. Each character of the page goes
+ * through a chain of small state machines, one for each step of
+ * {@link HtmlCleaner#stripHtml(String)}: removing comments, removing block
+ * elements, removing tags, converting entities, and removing entities that were
+ * not recognized. Each step only holds on to the characters it cannot decide on
+ * yet, like a tag that has not been closed, so the page is never copied as a
+ * whole and no pattern ever backtracks. Every step decides the same way the
+ * regular expressions of {@link HtmlCleaner} do, so the text comes out the same.
+ *
+ * <p>
+ * The page can be given as a string or read from a {@link Reader}, and the text
+ * can be written to any {@link Appendable}. A scanner can also report the parts
+ * of the page it removes that say how the text is laid out, which is how
+ * {@link HtmlFields} splits a page into fields without reading it again.
+ *
+ * @author zoe
+ *
+ */
+public class HtmlScanner {
+
+	/**
+	 * The block elements removed along with everything inside them, in the order
+	 * {@link HtmlCleaner#stripElement(String, String)} used to remove them. Each
+	 * has its own step, so an element that overlaps another is removed the same
+	 * way as when each was removed from the whole page in turn.
+	 */
+	private static final List<String> BLOCKS = List.of("head", "style", "script", "noscript", "iframe", "svg");
+
+	/**
+	 * The first step characters are passed to
+	 */
+	private final Step first;
+
+	/**
+	 * Constructs a scanner that writes the text of a page as it is scanned
+	 *
+	 * @param text where to write the text
+	 * @param tags true to remove tags and entities as well as comments and block
+	 *   elements
+	 */
+	public HtmlScanner(Appendable text, boolean tags) {
+		this(text, tags, null, null);
+	}
+
+	/**
+	 * Constructs a scanner that removes tags and entities as well as comments and
+	 * block elements, and reports each tag and head element it removes. A tag is
+	 * reported after the text before it has been passed on, but text that a later
+	 * step is still holding back, like an entity cut off by the tag, is only
+	 * written after the tag is reported.
+	 *
+	 * @param text where to write the text
+	 * @param tags what to do with each tag removed, from its opening to its
+	 *   closing angle bracket
+	 * @param heads what to do with the inside of each head element removed
+	 */
+	public HtmlScanner(Appendable text, Consumer<String> tags, Consumer<String> heads) {
+		this(text, true, tags, heads);
+	}
+
+	/**
+	 * Constructs a scanner
+	 *
+	 * @param text where to write the text
+	 * @param tags true to remove tags and entities as well as comments and block
+	 *   elements
+	 * @param tagged what to do with each tag removed, or null to drop them
+	 * @param heads what to do with the inside of each head element removed, or
+	 *   null to drop them
+	 */
+	private HtmlScanner(Appendable text, boolean tags, Consumer<String> tagged, Consumer<String> heads) {
+		Step last = new Output(text);
+		if (tags) {
+			last = new Tags(new Entities(new Leftovers(last)), tagged);
+		}
+		for (int i = BLOCKS.size() - 1; i >= 0; i--) {
+			String name = BLOCKS.get(i);
+			last = new Block(name, last, name.equals("head") ? heads : null);
+		}
+		this.first = new Comments(last);
+	}
+
+	/**
+	 * Scans the next part of a page
+	 *
+	 * @param html the next characters of the page
+	 * @param offset the index of the first character to scan
+	 * @param length the number of characters to scan
+	 */
+	public void scan(char[] html, int offset, int length) {
+		first.accept(html, offset, offset + length);
+	}
+
+	/**
+	 * Scans the next part of a page, a piece at a time
+	 *
+	 * @param html the next characters of the page
+	 */
+	public void scan(String html) {
+		char[] buffer = new char[Math.min(html.length(), 8192)];
+		for (int start = 0; start < html.length(); start += buffer.length) {
+			int end = Math.min(start + buffer.length, html.length());
+			html.getChars(start, end, buffer, 0);
+			scan(buffer, 0, end - start);
+		}
+	}
+
+	/**
+	 * Marks the end of the page, which writes out anything held back
+	 */
+	public void finish() {
+		first.finish();
+	}
+
+	/**
+	 * Scans a page from a reader
+	 *
+	 * @param html the page
+	 * @param text where to write the text
+	 * @param tags true to remove tags and entities as well as comments and block
+	 *   elements
+	 * @throws IOException if unable to read the page or write the text
+	 */
+	public static void scan(Reader html, Appendable text, boolean tags) throws IOException {
+		HtmlScanner scanner = new HtmlScanner(text, tags);
+		char[] buffer = new char[8192];
+		try {
+			int read;
+			while ((read = html.read(buffer)) >= 0) {
+				scanner.scan(buffer, 0, read);
+			}
+			scanner.finish();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Removes all tags, comments, and certain block elements from a page, and
+	 * converts its entities
+	 *
+	 * @param html the page
+	 * @return the text of the page
+	 *
+	 * @see HtmlCleaner#stripHtml(String)
+	 */
+	public static String stripHtml(String html) {
+		return scan(html, true);
+	}
+
+	/**
+	 * Removes comments and certain block elements from a page
+	 *
+	 * @param html the page
+	 * @return the page without comments and block elements
+	 *
+	 * @see HtmlCleaner#stripBlockElements(String)
+	 */
+	public static String stripBlockElements(String html) {
+		return scan(html, false);
+	}
+
+	/**
+	 * Finds the inside of every element with a name, the same way as block
+	 * elements are found to be removed
+	 *
+	 * @param html the page
+	 * @param name the lowercase name of the element
+	 * @return the inside of each element, in page order
+	 */
+	public static List<String> elements(String html, String name) {
+		List<String> elements = new ArrayList<>();
+		Step block = new Block(name, new Output(new StringBuilder()), elements::add);
+		char[] characters = html.toCharArray();
+		block.accept(characters, 0, characters.length);
+		block.finish();
+		return elements;
+	}
+
+	/**
+	 * Scans a page held in memory
+	 *
+	 * @param html the page
+	 * @param tags true to remove tags and entities as well
+	 * @return the cleaned page
+	 */
+	private static String scan(String html, boolean tags) {
+		StringBuilder text = new StringBuilder(html.length());
+		HtmlScanner scanner = new HtmlScanner(text, tags);
+		scanner.scan(html);
+		scanner.finish();
+		return text.toString();
+	}
+
+	/**
+	 * Finds the next occurrence of a character
+	 *
+	 * @param text the characters to search
+	 * @param c the character to find
+	 * @param start the index to start at
+	 * @param end the index to stop before
+	 * @return the index of the character, or the end if it was not found
+	 */
+	private static int find(char[] text, char c, int start, int end) {
+		int i = start;
+		while (i < end && text[i] != c) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * One step of cleaning, which passes on the characters it keeps. Characters
+	 * the step has nothing to do with are passed on in runs rather than one at a
+	 * time.
+	 */
+	private abstract static class Step {
+
+		/**
+		 * The step to pass characters on to
+		 */
+		protected final Step next;
+
+		/**
+		 * The characters held back until the step can decide on them
+		 */
+		protected char[] held;
+
+		/**
+		 * The number of characters held back
+		 */
+		protected int count;
+
+		/**
+		 * Constructs a step
+		 *
+		 * @param next the step to pass characters on to, or null if this is the
+		 *   last step
+		 */
+		public Step(Step next) {
+			this.next = next;
+			this.held = new char[64];
+			this.count = 0;
+		}
+
+		/**
+		 * Takes the next characters
+		 *
+		 * @param text the characters
+		 * @param start the index of the first character to take
+		 * @param end the index to stop before
+		 */
+		public abstract void accept(char[] text, int start, int end);
+
+		/**
+		 * Passes on the characters held back and then finishes the next step
+		 */
+		public void finish() {
+			release();
+			next.finish();
+		}
+
+		/**
+		 * Passes characters on to the next step
+		 *
+		 * @param text the characters
+		 * @param start the index of the first character to pass on
+		 * @param end the index to stop before
+		 */
+		protected void pass(char[] text, int start, int end) {
+			if (start < end) {
+				next.accept(text, start, end);
+			}
+		}
+
+		/**
+		 * Holds back a character
+		 *
+		 * @param c the character
+		 */
+		protected void hold(char c) {
+			if (count == held.length) {
+				held = Arrays.copyOf(held, count * 2);
+			}
+			held[count++] = c;
+		}
+
+		/**
+		 * Holds back characters
+		 *
+		 * @param text the characters
+		 * @param start the index of the first character to hold back
+		 * @param end the index to stop before
+		 */
+		protected void hold(char[] text, int start, int end) {
+			int length = end - start;
+			if (count + length > held.length) {
+				held = Arrays.copyOf(held, Math.max(held.length * 2, count + length));
+			}
+			System.arraycopy(text, start, held, count, length);
+			count += length;
+		}
+
+		/**
+		 * Passes on the characters held back and clears them
+		 */
+		protected void release() {
+			int length = count;
+			count = 0;
+			pass(held, 0, length);
+		}
+	}
+
+	/**
+	 * Removes comments, like {@link HtmlCleaner#stripComments(String)}
+	 */
+	private static class Comments extends Step {
+
+		/**
+		 * How a comment starts
+		 */
+		private static final String OPEN = "<!--";
+
+		/**
+		 * Whether the characters held back are an open comment
+		 */
+		private boolean inside;
+
+		/**
+		 * Constructs the step
+		 *
+		 * @param next the step to pass characters on to
+		 */
+		public Comments(Step next) {
+			super(next);
+		}
+
+		@Override
+		public void accept(char[] text, int start, int end) {
+			int i = start;
+			while (i < end) {
+				if (inside) {
+					int close = find(text, '>', i, end);
+					hold(text, i, Math.min(close + 1, end));
+					i = close + 1;
+					// the end of a comment cannot overlap its start
+					if (close < end && count >= OPEN.length() + 3 && held[count - 2] == '-' && held[count - 3] == '-') {
+						count = 0;
+						inside = false;
+					}
+				} else if (count == 0) {
+					int open = find(text, '<', i, end);
+					pass(text, i, open);
+					if (open < end) {
+						hold('<');
+					}
+					i = open + 1;
+				} else if (text[i] == OPEN.charAt(count)) {
+					hold(text[i]);
+					inside = count == OPEN.length();
+					i++;
+				} else {
+					release();
+				}
+			}
+		}
+
+		@Override
+		public void finish() {
+			// a comment that never closes is kept as text
+			inside = false;
+			super.finish();
+		}
+	}
+
+	/**
+	 * Removes one kind of block element and everything inside it, like
+	 * {@link HtmlCleaner#stripElement(String, String)}. An element starts with its
+	 * name in any case followed by a closing angle bracket or a space, and ends at
+	 * the first closing tag with the same name followed by any spaces.
+	 */
+	private static class Block extends Step {
+
+		/**
+		 * The lowercase name of the element
+		 */
+		private final String name;
+
+		/**
+		 * Whether the characters held back are an element whose opening tag has
+		 * been read up to its name
+		 */
+		private boolean element;
+
+		/**
+		 * Whether the opening tag of the element has been closed
+		 */
+		private boolean inside;
+
+		/**
+		 * Whether the element was found to never close, after which it is kept as
+		 * text
+		 */
+		private boolean unclosed;
+
+		/**
+		 * The number of characters held back when the opening tag was closed, which
+		 * is where the inside of the element starts
+		 */
+		private int opened;
+
+		/**
+		 * What to do with the inside of each element removed, or null to drop it
+		 */
+		private final Consumer<String> removed;
+
+		/**
+		 * Constructs the step
+		 *
+		 * @param name the lowercase name of the element
+		 * @param next the step to pass characters on to
+		 * @param removed what to do with the inside of each element removed, or
+		 *   null to drop it
+		 */
+		public Block(String name, Step next, Consumer<String> removed) {
+			super(next);
+			this.name = name;
+			this.removed = removed;
+		}
+
+		@Override
+		public void accept(char[] text, int start, int end) {
+			if (unclosed) {
+				pass(text, start, end);
+				return;
+			}
+			int i = start;
+			while (i < end) {
+				if (element) {
+					int close = find(text, '>', i, end);
+					hold(text, i, Math.min(close + 1, end));
+					i = close + 1;
+					if (close < end) {
+						if (!inside) {
+							inside = true;
+							opened = count;
+						} else {
+							int closing = closing();
+							if (closing >= 0) {
+								if (removed != null) {
+									removed.accept(new String(held, opened, closing - opened));
+								}
+								count = 0;
+								element = false;
+								inside = false;
+							}
+						}
+					}
+					continue;
+				}
+				if (count == 0) {
+					int open = find(text, '<', i, end);
+					pass(text, i, open);
+					if (open < end) {
+						hold('<');
+					}
+					i = open + 1;
+					continue;
+				}
+				char c = text[i];
+				int matched = count - 1;
+				if (matched < name.length() && Character.toLowerCase(c) == name.charAt(matched)) {
+					hold(c);
+					i++;
+				} else if (matched == name.length() && (c == '>' || c == ' ')) {
+					hold(c);
+					element = true;
+					inside = c == '>';
+					opened = count;
+					i++;
+				} else {
+					release();
+				}
+			}
+		}
+
+		/**
+		 * Finds the closing tag of the element at the end of the characters held
+		 * back, which may have spaces before its closing angle bracket
+		 *
+		 * @return the index of the closing tag, or -1 if the element was not just
+		 *   closed
+		 */
+		private int closing() {
+			int end = count - 2;
+			while (end >= 0 && held[end] == ' ') {
+				end--;
+			}
+			int start = end - name.length() - 1;
+			if (start < opened || held[start] != '<' || held[start + 1] != '/') {
+				return -1;
+			}
+			for (int i = 0; i < name.length(); i++) {
+				if (Character.toLowerCase(held[start + 2 + i]) != name.charAt(i)) {
+					return -1;
+				}
+			}
+			return start;
+		}
+
+		@Override
+		public void finish() {
+			// an element that never closes is kept, and so is every later element
+			// with the same name, since none of them can close either
+			if (element) {
+				unclosed = true;
+				element = false;
+				inside = false;
+			}
+			super.finish();
+		}
+	}
+
+	/**
+	 * Removes tags, like {@link HtmlCleaner#stripTags(String)}. A tag is an opening
+	 * angle bracket followed by at least one character other than an angle bracket
+	 * and then a closing angle bracket.
+	 */
+	private static class Tags extends Step {
+
+		/**
+		 * What to do with each tag removed, or null to drop it
+		 */
+		private final Consumer<String> tagged;
+
+		/**
+		 * Constructs the step
+		 *
+		 * @param next the step to pass characters on to
+		 * @param tagged what to do with each tag removed, or null to drop it
+		 */
+		public Tags(Step next, Consumer<String> tagged) {
+			super(next);
+			this.tagged = tagged;
+		}
+
+		@Override
+		public void accept(char[] text, int start, int end) {
+			int i = start;
+			while (i < end) {
+				if (count == 0) {
+					int open = find(text, '<', i, end);
+					pass(text, i, open);
+					if (open < end) {
+						hold('<');
+					}
+					i = open + 1;
+					continue;
+				}
+				int stop = i;
+				while (stop < end && text[stop] != '<' && text[stop] != '>') {
+					stop++;
+				}
+				hold(text, i, stop);
+				if (stop == end) {
+					return;
+				}
+				if (text[stop] == '>') {
+					if (count == 1) {
+						// nothing between the angle brackets, so they are text
+						release();
+						pass(text, stop, stop + 1);
+					} else if (tagged != null) {
+						hold('>');
+						tagged.accept(new String(held, 0, count));
+					}
+					count = 0;
+				} else {
+					release();
+					hold('<');
+				}
+				i = stop + 1;
+			}
+		}
+	}
+
+	/**
+	 * Converts entities to characters, like
+	 * {@link StringEscapeUtils#unescapeHtml4(String)}. Entities only have letters,
+	 * digits, and number signs, so only those are held back after an ampersand,
+	 * and the ampersand and what follows it are converted on their own.
+	 */
+	private static class Entities extends Step {
+
+		/**
+		 * Constructs the step
+		 *
+		 * @param next the step to pass characters on to
+		 */
+		public Entities(Step next) {
+			super(next);
+		}
+
+		@Override
+		public void accept(char[] text, int start, int end) {
+			int i = start;
+			while (i < end) {
+				if (count == 0) {
+					int amp = find(text, '&', i, end);
+					pass(text, i, amp);
+					if (amp < end) {
+						hold('&');
+					}
+					i = amp + 1;
+					continue;
+				}
+				char c = text[i];
+				if (c < 128 && (Character.isLetterOrDigit(c) || c == '#')) {
+					hold(c);
+					i++;
+				} else if (c == ';') {
+					hold(c);
+					convert();
+					i++;
+				} else {
+					convert();
+				}
+			}
+		}
+
+		/**
+		 * Passes on the entity held back, converted if it is recognized
+		 */
+		private void convert() {
+			String entity = new String(held, 0, count);
+			count = 0;
+			try {
+				entity = StringEscapeUtils.unescapeHtml4(entity);
+			} catch (IllegalArgumentException e) {
+				// a number past the last code point is kept as it is
+			}
+			pass(entity.toCharArray(), 0, entity.length());
+		}
+
+		@Override
+		public void finish() {
+			if (count > 0) {
+				convert();
+			}
+			super.finish();
+		}
+	}
+
+	/**
+	 * Removes what is left of entities that were not recognized, like the
+	 * expression {@code &[^ ]*;} in {@link HtmlCleaner#stripEntities(String)}:
+	 * everything from an ampersand to the last semicolon before the next space.
+	 */
+	private static class Leftovers extends Step {
+
+		/**
+		 * Constructs the step
+		 *
+		 * @param next the step to pass characters on to
+		 */
+		public Leftovers(Step next) {
+			super(next);
+		}
+
+		@Override
+		public void accept(char[] text, int start, int end) {
+			int i = start;
+			while (i < end) {
+				if (count == 0) {
+					int amp = find(text, '&', i, end);
+					pass(text, i, amp);
+					if (amp < end) {
+						hold('&');
+					}
+					i = amp + 1;
+					continue;
+				}
+				int space = find(text, ' ', i, end);
+				hold(text, i, space);
+				if (space == end) {
+					return;
+				}
+				drop();
+				i = space;
+			}
+		}
+
+		/**
+		 * Passes on what follows the last semicolon held back, or everything if
+		 * there is no semicolon
+		 */
+		private void drop() {
+			int semicolon = count - 1;
+			while (semicolon >= 0 && held[semicolon] != ';') {
+				semicolon--;
+			}
+			int length = count;
+			count = 0;
+			pass(held, semicolon + 1, length);
+		}
+
+		@Override
+		public void finish() {
+			drop();
+			super.finish();
+		}
+	}
+
+	/**
+	 * Writes the characters that made it through every step
+	 */
+	private static class Output extends Step {
+
+		/**
+		 * Where to write the text
+		 */
+		private final Appendable text;
+
+		/**
+		 * Constructs the step
+		 *
+		 * @param text where to write the text
+		 */
+		public Output(Appendable text) {
+			super(null);
+			this.text = text;
+		}
+
+		@Override
+		public void accept(char[] characters, int start, int end) {
+			try {
+				if (text instanceof StringBuilder builder) {
+					builder.append(characters, start, end - start);
+				} else {
+					text.append(CharBuffer.wrap(characters, start, end - start));
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public void finish() {
+			// nothing is held back
+		}
+	}
+}
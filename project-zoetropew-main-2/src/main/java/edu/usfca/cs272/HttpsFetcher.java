@@ -3,11 +3,17 @@ package edu.usfca.cs272;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.UnknownHostException;
@@ -15,6 +21,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
 
 import javax.net.SocketFactory;
 import javax.net.ssl.SSLSocketFactory;
@@ -27,6 +34,44 @@ import javax.net.ssl.SSLSocketFactory;
  * @version Spring 2023
  */
 public class HttpsFetcher {
+	/**
+	 * The pool of keep-alive connections shared by every fetch
+	 */
+	private static final ConnectionPool POOL = new ConnectionPool();
+
+	/**
+	 * The largest unwanted body that is read and thrown away to keep its
+	 * connection open, since closing is cheaper than reading anything bigger
+	 */
+	private static final int DISCARD_LIMIT = 64 * 1024;
+
+	/**
+	 * The longest header line allowed
+	 */
+	private static final int MAX_LINE = 64 * 1024;
+
+	/**
+	 * The default largest body read, in bytes
+	 */
+	public static final long DEFAULT_MAX_BYTES = 10 * 1024 * 1024;
+
+	/**
+	 * The default time allowed to connect, to wait for each read, and to read a
+	 * whole response, in milliseconds
+	 */
+	public static final int DEFAULT_TIMEOUT = 30_000;
+
+	/**
+	 * The largest body read, in bytes
+	 */
+	private static volatile long maxBytes = DEFAULT_MAX_BYTES;
+
+	/**
+	 * The time allowed to connect, to wait for each read, and to read a whole
+	 * response, in milliseconds
+	 */
+	private static volatile int timeout = DEFAULT_TIMEOUT;
+
 	/**
 	 * Fetches the headers and content for the specified URL. The content is placed
 	 * as a list of all the lines fetched under the "Content" key.
@@ -34,28 +79,165 @@ public class HttpsFetcher {
 	 * @param url the url to fetch
 	 * @return a map with the headers and content
 	 * @throws IOException if unable to fetch headers and content
+	 *
+	 * @see #fetchUrl(URL, Predicate)
 	 */
 	public static Map<String, List<String>> fetchUrl(URL url) throws IOException {
-		try (
-				Socket socket = openConnection(url);
-				PrintWriter request = new PrintWriter(socket.getOutputStream());
-				InputStreamReader input = new InputStreamReader(socket.getInputStream(), UTF_8);
-				BufferedReader response = new BufferedReader(input);
-				) {
-			// make http GET request of the web server
-			printGetRequest(request, url);
-
-			// the headers will be first in the response
-			Map<String, List<String>> headers = getHeaderFields(response);
-
-			// read everything remaining in socket reader as the content
-			List<String> content = response.lines().toList();
-			headers.put("Content", content);
-
-			return headers;
+		return fetchUrl(url, headers -> true);
+	}
+
+	/**
+	 * Fetches the headers for the specified URL, and the content only if the
+	 * headers pass the check. The content is placed as a list of all the lines
+	 * fetched under the "Content" key.
+	 *
+	 * <p>
+	 * Requests are sent over persistent connections from a pool shared by every
+	 * fetch, so fetching many pages from one host reuses the same few sockets. The
+	 * body is read using its "Content-Length" or chunked encoding, so the
+	 * connection can carry the next request without waiting for the server to
+	 * close it. If a pooled connection turns out to have been closed by the server
+	 * while idle, the request is sent once more over a new connection.
+	 *
+	 * <p>
+	 * A body is never read past {@link #getMaxBytes()} or for longer than
+	 * {@link #getTimeout()}. A wanted body that says up front it is too large is
+	 * refused as soon as the headers are read, and a body that grows too large or
+	 * too slow is abandoned along with its connection. Either way an exception is
+	 * thrown, so a huge or endless response can never fill up the heap.
+	 *
+	 * @param url the url to fetch
+	 * @param wanted whether the content is wanted given the headers
+	 * @return a map with the headers, and the content if it was wanted
+	 * @throws IOException if unable to fetch headers and content
+	 */
+	public static Map<String, List<String>> fetchUrl(URL url, Predicate<Map<String, List<String>>> wanted) throws IOException {
+		return fetchUrl(url, wanted, POOL);
+	}
+
+	/**
+	 * See {@link #fetchUrl(URL, Predicate)} for details. Uses connections from the
+	 * given pool instead of the shared one, such as a pool that allows more
+	 * connections to each host.
+	 *
+	 * @param url the url to fetch
+	 * @param wanted whether the content is wanted given the headers
+	 * @param pool the pool of connections to use
+	 * @return a map with the headers, and the content if it was wanted
+	 * @throws IOException if unable to fetch headers and content, or the content
+	 *   is too large or too slow
+	 */
+	public static Map<String, List<String>> fetchUrl(URL url, Predicate<Map<String, List<String>>> wanted, ConnectionPool pool) throws IOException {
+		return fetchUrl(url, Map.of(), wanted, pool);
+	}
+
+	/**
+	 * See {@link #fetchUrl(URL, Predicate)} for details. Sends extra headers with
+	 * the request, such as the validators of a conditional request.
+	 *
+	 * @param url the url to fetch
+	 * @param request the extra headers to send
+	 * @param wanted whether the content is wanted given the headers
+	 * @param pool the pool of connections to use
+	 * @return a map with the headers, and the content if it was wanted
+	 * @throws IOException if unable to fetch headers and content, or the content
+	 *   is too large or too slow
+	 */
+	public static Map<String, List<String>> fetchUrl(URL url, Map<String, String> request, Predicate<Map<String, List<String>>> wanted, ConnectionPool pool) throws IOException {
+		while (true) {
+			ConnectionPool.Connection connection = pool.acquire(url);
+			boolean reusable = false;
+			boolean answered = false;
+			long deadline = System.currentTimeMillis() + timeout;
+			long max = maxBytes;
+			try {
+				OutputStream output = connection.getOutput();
+				output.write(getRequest(url, request).getBytes(UTF_8));
+				output.flush();
+
+				InputStream response = connection.getInput();
+				Map<String, List<String>> headers = readHeaderFields(response);
+				answered = true;
+				connection.markUsed();
+
+				int status = getStatus(headers);
+				boolean empty = status / 100 == 1 || status == 204 || status == 304;
+				long length = empty ? 0 : getContentLength(headers);
+				boolean chunked = !empty && "chunked".equalsIgnoreCase(getHeader(headers, "Transfer-Encoding"));
+
+				if (wanted.test(headers)) {
+					if (length > max) {
+						throw new IOException("Body too large: " + length + " bytes");
+					}
+					byte[] body = chunked ? readChunked(response, max, deadline) : readBody(response, length, max, deadline);
+					if (body == null) {
+						throw new IOException("Body larger than " + max + " bytes");
+					}
+					headers.put("Content", new String(body, UTF_8).lines().toList());
+					reusable = chunked || length >= 0;
+				} else if (chunked) {
+					// skip a small unwanted body, like a redirect page, to keep the connection
+					reusable = readChunked(response, DISCARD_LIMIT, deadline) != null;
+				} else if (length >= 0 && length <= DISCARD_LIMIT) {
+					readBody(response, length, DISCARD_LIMIT, deadline);
+					reusable = true;
+				}
+
+				reusable = reusable && isPersistent(headers);
+				return headers;
+			} catch (IOException e) {
+				// the server may close an idle connection just as it is reused
+				if (connection.isReused() && !answered) {
+					continue;
+				}
+				throw e;
+			} finally {
+				pool.release(connection, reusable);
+			}
 		}
 	}
 
+	/**
+	 * Sets the limits on every fetch made after this call. Connections already
+	 * open keep the timeout they were opened with for each read.
+	 *
+	 * @param maxBytes the largest body read, in bytes, up to about 2 GB
+	 * @param timeout the time allowed to connect, to wait for each read, and to
+	 *   read a whole response, in milliseconds
+	 */
+	public static void setLimits(long maxBytes, int timeout) {
+		HttpsFetcher.maxBytes = maxBytes > 0 ? Math.min(maxBytes, Integer.MAX_VALUE - 8) : DEFAULT_MAX_BYTES;
+		HttpsFetcher.timeout = timeout > 0 ? timeout : DEFAULT_TIMEOUT;
+	}
+
+	/**
+	 * Returns the largest body read
+	 *
+	 * @return the limit in bytes
+	 */
+	public static long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Returns the time allowed to connect, to wait for each read, and to read a
+	 * whole response
+	 *
+	 * @return the timeout in milliseconds
+	 */
+	public static int getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Returns the pool of connections used to fetch pages
+	 *
+	 * @return the shared connection pool
+	 */
+	public static ConnectionPool getPool() {
+		return POOL;
+	}
+
 	/**
 	 * See {@link #fetchUrl(URL)} for details.
 	 *
@@ -72,7 +254,8 @@ public class HttpsFetcher {
 
 	/**
 	 * Uses a {@link Socket} to open a connection to the web server associated with
-	 * the provided URL. Supports HTTP and HTTPS connections.
+	 * the provided URL. Supports HTTP and HTTPS connections. Connecting and each
+	 * read from the socket give up after {@link #getTimeout()}.
 	 *
 	 * @param url the url to connect
 	 * @return a socket connection for that url
@@ -90,7 +273,15 @@ public class HttpsFetcher {
 		int port = url.getPort() < 0 ? defaultPort : url.getPort();
 
 		SocketFactory factory = https ? SSLSocketFactory.getDefault() : SocketFactory.getDefault();
-		return factory.createSocket(host, port);
+		Socket socket = factory.createSocket();
+		try {
+			socket.connect(new InetSocketAddress(host, port), timeout);
+			socket.setSoTimeout(timeout);
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+		return socket;
 	}
 
 	/**
@@ -140,4 +331,234 @@ public class HttpsFetcher {
 
 		return results;
 	}
+
+	/**
+	 * Returns a HTTP/1.1 GET request that asks the server to keep the connection
+	 * open afterwards.
+	 *
+	 * @param url the url to fetch
+	 * @return the request
+	 */
+	public static String getRequest(URL url) {
+		return getRequest(url, Map.of());
+	}
+
+	/**
+	 * Returns a HTTP/1.1 GET request with extra headers that asks the server to
+	 * keep the connection open afterwards.
+	 *
+	 * @param url the url to fetch
+	 * @param headers the extra headers to send
+	 * @return the request
+	 */
+	public static String getRequest(URL url, Map<String, String> headers) {
+		String host = url.getPort() < 0 ? url.getHost() : url.getHost() + ":" + url.getPort();
+		String resource = url.getFile().isBlank() ? "/" : url.getFile();
+		StringBuilder request = new StringBuilder();
+		request.append(String.format("GET %s HTTP/1.1\r\nHost: %s\r\nConnection: keep-alive\r\n", resource, host));
+		for (var header : headers.entrySet()) {
+			request.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+		}
+		return request.append("\r\n").toString();
+	}
+
+	/**
+	 * Reads the header fields from the input of a socket connection, leaving the
+	 * input at the first byte of the body.
+	 *
+	 * @param response the input of a socket connection
+	 * @return a map of header fields to a list of header values
+	 * @throws IOException if unable to read from socket, or the connection was
+	 *   closed before a status line was sent
+	 *
+	 * @see #getHeaderFields(BufferedReader)
+	 */
+	public static Map<String, List<String>> readHeaderFields(InputStream response) throws IOException {
+		Map<String, List<String>> results = new HashMap<>();
+
+		String line = readLine(response);
+		if (line == null) {
+			throw new EOFException("Connection closed before a response");
+		}
+		results.put(null, List.of(line));
+
+		while ((line = readLine(response)) != null && !line.isBlank()) {
+			int colon = line.indexOf(':');
+			if (colon > 0) {
+				results.putIfAbsent(line.substring(0, colon), new ArrayList<>());
+				results.get(line.substring(0, colon)).add(line.substring(colon + 1).strip());
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Returns the first value of a header, ignoring the case of its name
+	 *
+	 * @param headers the headers
+	 * @param name the name of the header
+	 * @return the first value of the header, or null if there is none
+	 */
+	public static String getHeader(Map<String, List<String>> headers, String name) {
+		for (var header : headers.entrySet()) {
+			if (header.getKey() != null && header.getKey().equalsIgnoreCase(name) && !header.getValue().isEmpty()) {
+				return header.getValue().get(0);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the status code of a response
+	 *
+	 * @param headers the headers
+	 * @return the status code, or -1 if the status line is malformed
+	 */
+	private static int getStatus(Map<String, List<String>> headers) {
+		String[] status = headers.get(null).get(0).split(" ", 3);
+		try {
+			return status.length < 2 ? -1 : Integer.parseInt(status[1]);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns the length of the body of a response
+	 *
+	 * @param headers the headers
+	 * @return the length of the body, or -1 if it is not given
+	 */
+	private static long getContentLength(Map<String, List<String>> headers) {
+		String length = getHeader(headers, "Content-Length");
+		try {
+			return length == null ? -1 : Long.parseLong(length.strip());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns whether the server will keep the connection open after a response.
+	 * HTTP/1.1 connections stay open unless the server says to close them, and
+	 * older connections close unless the server says to keep them.
+	 *
+	 * @param headers the headers
+	 * @return true if the connection can carry another request
+	 */
+	private static boolean isPersistent(Map<String, List<String>> headers) {
+		String connection = getHeader(headers, "Connection");
+		if (headers.get(null).get(0).startsWith("HTTP/1.1")) {
+			return connection == null || !connection.equalsIgnoreCase("close");
+		}
+		return connection != null && connection.equalsIgnoreCase("keep-alive");
+	}
+
+	/**
+	 * Reads a line ending with a line feed, without the line ending
+	 *
+	 * @param input the input to read from
+	 * @return the line, or null if the input ended before any byte was read
+	 * @throws IOException if unable to read from the input or the line is too long
+	 */
+	private static String readLine(InputStream input) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+		int next;
+		while ((next = input.read()) != '\n') {
+			if (next < 0) {
+				return line.size() == 0 ? null : line.toString(UTF_8);
+			}
+			if (line.size() >= MAX_LINE) {
+				throw new IOException("Header line too long");
+			}
+			line.write(next);
+		}
+		byte[] bytes = line.toByteArray();
+		int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+		return new String(bytes, 0, length, UTF_8);
+	}
+
+	/**
+	 * Reads a body a piece at a time, stopping once it grows past a limit or the
+	 * time runs out
+	 *
+	 * @param input the input to read from
+	 * @param length the number of bytes in the body, or -1 to read until the
+	 *   input ends
+	 * @param max the most bytes to read
+	 * @param deadline the time to give up by, in milliseconds since the epoch
+	 * @return the bytes read, or null if the body is larger than the limit
+	 * @throws IOException if unable to read from the input, the input ends early,
+	 *   or the time runs out
+	 */
+	private static byte[] readBody(InputStream input, long length, long max, long deadline) throws IOException {
+		if (length > max) {
+			return null;
+		}
+		ByteArrayOutputStream body = new ByteArrayOutputStream(length >= 0 ? (int) length : 8192);
+		byte[] buffer = new byte[8192];
+		while (length < 0 || body.size() < length) {
+			int wanted = length < 0 ? buffer.length : (int) Math.min(buffer.length, length - body.size());
+			int read = input.read(buffer, 0, wanted);
+			if (read < 0) {
+				if (length >= 0) {
+					throw new EOFException("Connection closed after " + body.size() + " of " + length + " bytes");
+				}
+				break;
+			}
+			if (body.size() + read > max) {
+				return null;
+			}
+			body.write(buffer, 0, read);
+			if (System.currentTimeMillis() > deadline) {
+				throw new SocketTimeoutException("Body not read in time after " + body.size() + " bytes");
+			}
+		}
+		return body.toByteArray();
+	}
+
+	/**
+	 * Reads a body sent with chunked transfer encoding, along with any trailing
+	 * headers, stopping once it grows past a limit or the time runs out
+	 *
+	 * @param input the input to read from
+	 * @param max the most bytes to read
+	 * @param deadline the time to give up by, in milliseconds since the epoch
+	 * @return the bytes of the body, or null if the body is larger than the limit
+	 * @throws IOException if unable to read from the input, a chunk is malformed,
+	 *   or the time runs out
+	 */
+	private static byte[] readChunked(InputStream input, long max, long deadline) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		while (true) {
+			String line = readLine(input);
+			if (line == null) {
+				throw new EOFException("Connection closed in chunked body");
+			}
+			int extension = line.indexOf(';');
+			long size;
+			try {
+				size = Long.parseLong((extension < 0 ? line : line.substring(0, extension)).strip(), 16);
+			} catch (NumberFormatException e) {
+				throw new IOException("Bad chunk size: " + line, e);
+			}
+			if (size == 0) {
+				break;
+			}
+			byte[] chunk = readBody(input, size, max - body.size(), deadline);
+			if (chunk == null) {
+				return null;
+			}
+			body.write(chunk);
+			readLine(input);
+		}
+
+		// trailing headers end with a blank line
+		String line;
+		while ((line = readLine(input)) != null && !line.isEmpty()) {
+			continue;
+		}
+		return body.toByteArray();
+	}
 }
@@ -3,14 +3,23 @@ package edu.usfca.cs272;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Data structure class for the inverted index and word counts
@@ -18,7 +27,7 @@ import java.util.TreeSet;
  * @author Zoe Wong
  *
  */
-public class InvertedIndex {
+public class InvertedIndex implements Searchable {
 
 	/**
 	 * Data structure to store counts of word stems in each file.
@@ -35,12 +44,162 @@ public class InvertedIndex {
 	 */
 	private final TreeMap<String, TreeMap<String, TreeSet<Integer>>> index;
 
+	/**
+	 * The number of postings a partial search has to visit before it is split
+	 * across multiple threads
+	 */
+	public static final long PARALLEL_THRESHOLD = 50_000;
+
+	/**
+	 * The number of postings a single parallel task counts without splitting
+	 */
+	public static final long SPLIT_THRESHOLD = 10_000;
+
+	/**
+	 * The number of word bitmaps combined at a time between deadline checks
+	 */
+	private static final int UNION_BATCH = 256;
+
+	/**
+	 * The last generation handed out, shared by every index so that no two
+	 * changes to any index get the same generation
+	 */
+	private static final AtomicLong GENERATIONS = new AtomicLong();
+
+	/**
+	 * The generation of the last change to this index
+	 */
+	private long generation;
+
+	/**
+	 * The fewest changes to the index that cause the term dictionary to be
+	 * rebuilt. Larger dictionaries wait for a fraction of their size instead.
+	 */
+	private static final int REBUILD_CHANGES = 1024;
+
+	/**
+	 * Front-coded copy of the words in the index used for prefix expansion,
+	 * together with the words added since it was built. The dictionary is a
+	 * snapshot that sits alongside the index rather than replacing it, so it adds
+	 * memory instead of saving it. Rebuilt once enough words and locations have
+	 * changed since it was built, and published whole so that searches never wait
+	 * for a rebuild.
+	 */
+	private volatile Terms terms;
+
+	/**
+	 * The number of words and locations of words added or removed since the
+	 * dictionary was built
+	 */
+	private volatile int changes;
+
+	/**
+	 * Held while the term dictionary or sorted locations are rebuilt, so that
+	 * only one search rebuilds them at a time
+	 */
+	private final ReentrantLock rebuilding;
+
+	/**
+	 * Recently used partial search prefixes and the locations of every word they
+	 * expand to
+	 */
+	private final PrefixCache<List<TreeMap<String, TreeSet<Integer>>>> expansions;
+
+	/**
+	 * Every word in the index spelled backwards, used to find words by suffix.
+	 * This keeps a second copy of every word on top of the index and dictionary.
+	 */
+	private final TreeSet<String> reversed;
+
+	/**
+	 * The words containing each three letter sequence, used to find words by
+	 * infix. Every word is listed once per trigram it contains, so this is the
+	 * largest of the word lookup structures.
+	 */
+	private final HashMap<String, TreeSet<String>> trigrams;
+
+	/**
+	 * The location of each document id, in the order locations were first added
+	 */
+	private final ArrayList<String> locations;
+
+	/**
+	 * The document id of each location
+	 */
+	private final HashMap<String, Integer> docIds;
+
+	/**
+	 * The words found in each location by document id, so a location can be
+	 * removed without visiting every word in the index. Costs one reference for
+	 * every word and location pair.
+	 */
+	private final ArrayList<ArrayList<String>> locationWords;
+
+	/**
+	 * The document ids of the locations containing each word
+	 */
+	private final HashMap<String, DocSet> documents;
+
+	/**
+	 * Sorted copy of the locations and their document ids, used to find every
+	 * location under a path or URL prefix. Rebuilt on demand after a new location
+	 * is added.
+	 */
+	private volatile TermDictionary<Integer> sortedLocations;
+
+	/**
+	 * The document ids of the locations with each file extension
+	 */
+	private final HashMap<String, DocSet> extensions;
+
+	/**
+	 * Recently used location filters and the document ids they keep
+	 */
+	private final LruCache<String, DocSet> filters;
+
+	/**
+	 * The number of words in each field of each location, indexed by field
+	 * ordinal. Only locations added with fields have lengths, which scores are
+	 * divided by once boosted.
+	 */
+	private final HashMap<String, int[]> fieldLengths;
+
 	/**
 	 * Constructor for InvertedIndex
 	 */
 	public InvertedIndex(){
 		counts = new TreeMap<>();
 		index = new TreeMap<>();
+		terms = new Terms(new TermDictionary<>(new TreeMap<>(), TreeMap::size), new TreeSet<>());
+		changes = 0;
+		rebuilding = new ReentrantLock();
+		expansions = new PrefixCache<>();
+		reversed = new TreeSet<>();
+		trigrams = new HashMap<>();
+		locations = new ArrayList<>();
+		docIds = new HashMap<>();
+		locationWords = new ArrayList<>();
+		documents = new HashMap<>();
+		sortedLocations = null;
+		extensions = new HashMap<>();
+		filters = new LruCache<>();
+		fieldLengths = new HashMap<>();
+		generation = nextGeneration();
+	}
+
+	/**
+	 * Returns a generation that has never been handed out before, later than every
+	 * generation handed out so far
+	 *
+	 * @return the new generation
+	 */
+	public static long nextGeneration() {
+		return GENERATIONS.incrementAndGet();
+	}
+
+	@Override
+	public long generation() {
+		return generation;
 	}
 
 	/**
@@ -126,6 +285,43 @@ public class InvertedIndex {
 		}
 	}
 
+	/**
+	 * Updates the word lookup structures for a word that is new to the index
+	 *
+	 * @param word the new word
+	 */
+	private void addWord(String word) {
+		expansions.invalidate(word);
+		terms.recent.add(word);
+		changes++;
+		reversed.add(new StringBuilder(word).reverse().toString());
+		for (int i = 0; i + 3 <= word.length(); i++) {
+			trigrams.computeIfAbsent(word.substring(i, i + 3), k -> new TreeSet<>()).add(word);
+		}
+	}
+
+	/**
+	 * Records that the word appears in a location it was not in before
+	 *
+	 * @param word the word
+	 * @param location the location the word was found in
+	 */
+	private void addDocument(String word, String location) {
+		Integer id = docIds.get(location);
+		if (id == null) {
+			id = locations.size();
+			locations.add(location);
+			docIds.put(location, id);
+			locationWords.add(new ArrayList<>());
+			extensions.computeIfAbsent(LocationFilter.extension(location), k -> new DocSet()).add(id);
+			sortedLocations = null;
+			filters.clear();
+		}
+		documents.computeIfAbsent(word, k -> new DocSet()).add(id);
+		locationWords.get(id).add(word);
+		changes++;
+	}
+
 	/**
 	 * Adds an instance of a word to the index
 	 * Calls addCont to update counts accordingly
@@ -135,18 +331,56 @@ public class InvertedIndex {
 	 * @param position the position the word was found in
 	 */
 	public void addIndexEntry(String word, String location, int position) {
+		positions(word, location, false).add(position);
+		addCount(location, position);
+		generation = nextGeneration();
+	}
+
+	/**
+	 * Adds an instance of a word found in a field of a web page to the index, and
+	 * counts it toward the length of that field
+	 * 
+	 * @param word the word to add
+	 * @param location the location where the word was found
+	 * @param position the position the word was found in
+	 * @param field the field of the page the word was found in
+	 */
+	public void addIndexEntry(String word, String location, int position, Field field) {
+		if (((FieldPositions) positions(word, location, true)).add(position, field)) {
+			fieldLengths.computeIfAbsent(location, k -> new int[Field.values().length])[field.ordinal()]++;
+		}
+		addCount(location, position);
+		generation = nextGeneration();
+	}
+
+	/**
+	 * Returns the positions of a word in a location, adding the word and location
+	 * to the index if they are new
+	 * 
+	 * @param word the word
+	 * @param location the location
+	 * @param fielded whether the positions need to keep field counts
+	 * @return the positions of the word in the location
+	 */
+	private TreeSet<Integer> positions(String word, String location, boolean fielded) {
 		TreeMap<String, TreeSet<Integer>> wordMap = index.get(word);
 		if(wordMap == null) {
 			wordMap = new TreeMap<>();
 			index.put(word, wordMap);
+			addWord(word);
 		}
 		TreeSet<Integer> positionList = wordMap.get(location);
 		if(positionList == null) {
-			positionList = new TreeSet<>();
+			positionList = fielded ? new FieldPositions() : new TreeSet<>();
 			wordMap.put(location, positionList);
+			addDocument(word, location);
+		} else if (fielded && !(positionList instanceof FieldPositions)) {
+			FieldPositions upgraded = new FieldPositions();
+			upgraded.addAll(positionList);
+			wordMap.put(location, upgraded);
+			positionList = upgraded;
 		}
-		positionList.add(position);
-		addCount(location, position);
+		return positionList;
 	}
 
 	/**
@@ -168,20 +402,32 @@ public class InvertedIndex {
 	 * @param storage the index to add from 
 	 */
 	public void addAll(InvertedIndex storage) {
+		generation = nextGeneration();
 		for (var entry : storage.index.entrySet()) {
 			String word = entry.getKey();
 			TreeMap<String, TreeSet<Integer>> storageLocations = entry.getValue();
 			TreeMap<String, TreeSet<Integer>> thisLocations = this.index.get(word);
 			if (thisLocations == null) {
 				this.index.put(word, storageLocations);
+				addWord(word);
+				for (String loc : storageLocations.keySet()) {
+					addDocument(word, loc);
+				}
 			} else {
 				for (Entry<String, TreeSet<Integer>> stored : storageLocations.entrySet()) {
 					String loc = stored.getKey();
 					TreeSet<Integer> overlap = thisLocations.get(loc);
 					if (overlap != null) {
+						if (stored.getValue() instanceof FieldPositions && !(overlap instanceof FieldPositions)) {
+							FieldPositions upgraded = new FieldPositions();
+							upgraded.addAll(overlap);
+							thisLocations.put(loc, upgraded);
+							overlap = upgraded;
+						}
 						overlap.addAll(stored.getValue());
 					} else {
 						thisLocations.put(loc, stored.getValue());
+						addDocument(word, loc);
 					}
 				}
 			}
@@ -195,6 +441,83 @@ public class InvertedIndex {
 				this.counts.put(file, thisCount + entry.getValue());
 			}
 		}
+		for (var entry : storage.fieldLengths.entrySet()) {
+			int[] lengths = this.fieldLengths.computeIfAbsent(entry.getKey(), k -> new int[Field.values().length]);
+			for (int i = 0; i < lengths.length; i++) {
+				lengths[i] += entry.getValue()[i];
+			}
+		}
+	}
+
+	/**
+	 * Removes every word found in a location, such as a web page that changed and
+	 * is about to be added again. Only the words found in the location are
+	 * visited. The location keeps its document id, so adding it again puts it
+	 * back where it was.
+	 * 
+	 * @param location the location to remove
+	 * @return true if the location was in the index
+	 */
+	public boolean removeLocation(String location) {
+		Integer id = docIds.get(location);
+		if (id == null) {
+			return false;
+		}
+		DocSet removed = new DocSet();
+		removed.add(id);
+		for (String word : locationWords.get(id)) {
+			TreeMap<String, TreeSet<Integer>> wordLocations = index.get(word);
+			if (wordLocations == null || wordLocations.remove(location) == null) {
+				continue;
+			}
+			changes++;
+			if (wordLocations.isEmpty()) {
+				index.remove(word);
+				removeWord(word);
+			} else {
+				documents.put(word, documents.get(word).andNot(removed));
+			}
+		}
+		locationWords.set(id, new ArrayList<>());
+		counts.remove(location);
+		fieldLengths.remove(location);
+		generation = nextGeneration();
+		return true;
+	}
+
+	/**
+	 * Replaces every word found in a location with the words of a new version of
+	 * it, such as a web page that changed
+	 * 
+	 * @param location the location to replace
+	 * @param page an index of only the new version of the location
+	 */
+	public void replaceLocation(String location, InvertedIndex page) {
+		removeLocation(location);
+		addAll(page);
+	}
+
+	/**
+	 * Updates the word lookup structures for a word that is no longer in any
+	 * location
+	 *
+	 * @param word the word that was removed
+	 */
+	private void removeWord(String word) {
+		expansions.invalidate(word);
+		terms.recent.remove(word);
+		changes++;
+		documents.remove(word);
+		reversed.remove(new StringBuilder(word).reverse().toString());
+		for (int i = 0; i + 3 <= word.length(); i++) {
+			TreeSet<String> words = trigrams.get(word.substring(i, i + 3));
+			if (words != null) {
+				words.remove(word);
+				if (words.isEmpty()) {
+					trigrams.remove(word.substring(i, i + 3));
+				}
+			}
+		}
 	}
 
 	/**
@@ -260,6 +583,38 @@ public class InvertedIndex {
 		return viewPositions(word, location).size();
 	}
 
+	/**
+	 * Returns the number of words in a field of a location, which is only known
+	 * for locations added with fields
+	 * 
+	 * @param location the location in the index
+	 * @param field the field
+	 * @return the number of words in the field, or 0 if the location has no fields
+	 */
+	public int fieldLength(String location, Field field) {
+		int[] lengths = fieldLengths.get(location);
+		return lengths == null ? 0 : lengths[field.ordinal()];
+	}
+
+	/**
+	 * Returns the number of words in a location, where a word in a field of a web
+	 * page counts as the boost of that field. Matches are boosted the same way, so
+	 * a score found with this length is never more than 1.
+	 * 
+	 * @param location the location in the index
+	 * @return the boosted number of words in the location
+	 */
+	private double boostedLength(String location) {
+		double length = counts.get(location);
+		int[] lengths = fieldLengths.get(location);
+		if (lengths != null) {
+			for (Field field : Field.values()) {
+				length += (field.boost() - 1) * lengths[field.ordinal()];
+			}
+		}
+		return length;
+	}
+
 	/**
 	 * Returns the size of the index, meaning how many words are in the index
 	 * 
@@ -269,6 +624,327 @@ public class InvertedIndex {
 		return index.size();
 	}
 
+	/**
+	 * Returns the number of words in the index that start with the prefix. This is
+	 * counted from the term dictionary, so words removed since it was last built
+	 * may still be counted.
+	 *
+	 * @param prefix the prefix of the words
+	 * @return the number of words starting with the prefix
+	 */
+	public int numPrefixWords(String prefix) {
+		Terms terms = terms();
+		return terms.dictionary.prefixCount(prefix) + withPrefix(terms.recent, prefix).size();
+	}
+
+	/**
+	 * Returns the total number of locations across all words that start with the
+	 * prefix, which is the number of postings a partial search would visit. This
+	 * is counted from the term dictionary, so locations added to or removed from
+	 * words since it was last built may be missed.
+	 *
+	 * @param prefix the prefix of the words
+	 * @return the sum of the number of locations of each word with the prefix
+	 */
+	public long numPrefixLocations(String prefix) {
+		Terms terms = terms();
+		long total = terms.dictionary.prefixWeight(prefix);
+		for (String word : withPrefix(terms.recent, prefix)) {
+			total += index.get(word).size();
+		}
+		return total;
+	}
+
+	/**
+	 * Estimates the cost of a query from the per-prefix statistics of the term
+	 * dictionary without reading any postings. Exact stems cost their own
+	 * locations, and partial stems and wildcard prefixes cost every word under
+	 * their prefix. Fuzzy stems are charged the whole dictionary, since an edit
+	 * can change any letter of the stem including the first, and so are wildcard
+	 * patterns without a prefix.
+	 *
+	 * @param query the parsed query
+	 * @param partial whether the query would run as a partial search
+	 * @return the estimated cost
+	 */
+	@Override
+	public QueryCost estimate(SearchQuery query, boolean partial) {
+		QueryCost cost = new QueryCost(0, 0);
+		for (Set<String> stems : List.of(query.viewRequired(), query.viewOptional(), query.viewExcluded())) {
+			for (String stem : stems) {
+				String prefix;
+				if (WildcardPattern.isPattern(stem)) {
+					prefix = new WildcardPattern(stem).prefix();
+				} else if (query.distance(stem) > 0) {
+					prefix = "";
+				} else if (partial) {
+					prefix = stem;
+				} else {
+					cost = cost.plus(new QueryCost(containsWord(stem) ? 1 : 0, numLocations(stem)));
+					continue;
+				}
+				cost = cost.plus(new QueryCost(numPrefixWords(prefix), numPrefixLocations(prefix)));
+			}
+		}
+		return cost;
+	}
+
+	/**
+	 * Returns the locations of every word that starts with the prefix. Expansions
+	 * are cached until a new word with the same prefix is added, and the cached
+	 * location maps stay current as locations are added to existing words.
+	 *
+	 * @param prefix the prefix to expand
+	 * @return the locations of each word starting with the prefix, in word order
+	 */
+	private List<TreeMap<String, TreeSet<Integer>>> expand(String prefix) {
+		List<TreeMap<String, TreeSet<Integer>>> lists = expansions.get(prefix);
+		if (lists == null) {
+			lists = new ArrayList<>();
+			expand(prefix, null, lists);
+			lists = Collections.unmodifiableList(lists);
+			expansions.put(prefix, lists);
+		}
+		return lists;
+	}
+
+	/**
+	 * Finds every word that starts with the prefix by walking the term dictionary
+	 * and merging in the words added since it was built. Words removed since then
+	 * are skipped, since their locations in the dictionary are empty.
+	 *
+	 * @param prefix the prefix to expand
+	 * @param words the list to add each word to in word order, or null
+	 * @param lists the list to add the locations of each word to in word order, or
+	 *   null
+	 */
+	private void expand(String prefix, List<String> words, List<TreeMap<String, TreeSet<Integer>>> lists) {
+		Terms terms = terms();
+		Iterator<String> added = withPrefix(terms.recent, prefix).iterator();
+		String next = added.hasNext() ? added.next() : null;
+
+		int ordinal = terms.dictionary.prefixStart(prefix);
+		int end = terms.dictionary.prefixEnd(prefix);
+		TermDictionary<TreeMap<String, TreeSet<Integer>>>.Cursor cursor = terms.dictionary.cursor(ordinal);
+		String current = ordinal < end ? cursor.next() : null;
+
+		while (current != null || next != null) {
+			String word;
+			TreeMap<String, TreeSet<Integer>> locations;
+			if (current != null && (next == null || current.compareTo(next) < 0)) {
+				word = current;
+				locations = terms.dictionary.value(ordinal);
+				ordinal = cursor.ordinal();
+				current = ordinal < end ? cursor.next() : null;
+			} else {
+				word = next;
+				locations = index.get(next);
+				next = added.hasNext() ? added.next() : null;
+			}
+			if (locations.isEmpty()) {
+				continue;
+			}
+			if (words != null) {
+				words.add(word);
+			}
+			if (lists != null) {
+				lists.add(locations);
+			}
+		}
+	}
+
+	/**
+	 * Returns the words in a sorted set that start with the prefix
+	 *
+	 * @param words the sorted words
+	 * @param prefix the prefix
+	 * @return a view of the words starting with the prefix
+	 */
+	private static SortedSet<String> withPrefix(TreeSet<String> words, String prefix) {
+		return words.subSet(prefix, prefix + Character.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the words in the index that a single query stem expands to, the same
+	 * way a search expands it
+	 *
+	 * @param stem the stem, which may be a wildcard pattern
+	 * @param partial whether to include every word starting with the stem
+	 * @param distance the number of edits allowed, or 0 for an exact stem
+	 * @return the matching words
+	 */
+	public List<String> expandStem(String stem, boolean partial, int distance) {
+		return Collections.unmodifiableList(new Postings(stem, stem, partial, distance).words);
+	}
+
+	/**
+	 * Finds the words in the index that match a wildcard pattern. A pattern with a
+	 * prefix is expanded through the term dictionary, a pattern with only a suffix
+	 * is looked up in the reversed words, and a pattern with only inner parts is
+	 * looked up by the trigrams of its longest part. Only inner parts shorter than
+	 * three letters fall back to checking every word.
+	 *
+	 * @param pattern the pattern to match
+	 * @return the matching words in sorted order
+	 */
+	private List<String> matchWords(WildcardPattern pattern) {
+		List<String> matches = new ArrayList<>();
+		String prefix = pattern.prefix();
+		String suffix = pattern.suffix();
+		String infix = pattern.longestInfix();
+
+		if (!prefix.isEmpty()) {
+			List<String> words = new ArrayList<>();
+			expand(prefix, words, null);
+			for (String word : words) {
+				if (pattern.matches(word)) {
+					matches.add(word);
+				}
+			}
+		} else if (!suffix.isEmpty()) {
+			String backwards = new StringBuilder(suffix).reverse().toString();
+			for (String candidate : reversed.tailSet(backwards)) {
+				if (!candidate.startsWith(backwards)) {
+					break;
+				}
+				String word = new StringBuilder(candidate).reverse().toString();
+				if (pattern.matches(word)) {
+					matches.add(word);
+				}
+			}
+			Collections.sort(matches);
+		} else if (infix.length() >= 3) {
+			TreeSet<String> smallest = null;
+			for (int i = 0; i + 3 <= infix.length(); i++) {
+				TreeSet<String> words = trigrams.get(infix.substring(i, i + 3));
+				if (words == null) {
+					return matches;
+				}
+				if (smallest == null || words.size() < smallest.size()) {
+					smallest = words;
+				}
+			}
+			for (String word : smallest) {
+				if (pattern.matches(word)) {
+					matches.add(word);
+				}
+			}
+		} else {
+			for (String word : index.keySet()) {
+				if (pattern.matches(word)) {
+					matches.add(word);
+				}
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Returns the hit rate and size of the partial search prefix cache
+	 *
+	 * @return a description of the prefix cache metrics
+	 */
+	@Override
+	public String prefixCacheStats() {
+		return expansions.toString();
+	}
+
+	/**
+	 * Returns the term dictionary and the words added since it was built. The
+	 * dictionary is only rebuilt once the changes since the last build reach
+	 * {@link #REBUILD_CHANGES} or an eighth of the dictionary, whichever is more,
+	 * so a live crawl does not rebuild it for every search. Only one search
+	 * rebuilds it, and any other search in the meantime keeps using the old
+	 * dictionary and the words added since, which together still hold every word.
+	 *
+	 * @return the term dictionary and the words not in it yet
+	 */
+	private Terms terms() {
+		Terms current = terms;
+		if (isStale(current) && rebuilding.tryLock()) {
+			try {
+				current = terms;
+				if (isStale(current)) {
+					current = new Terms(new TermDictionary<>(index, TreeMap::size), new TreeSet<>());
+					terms = current;
+					changes = 0;
+				}
+			} finally {
+				rebuilding.unlock();
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Returns whether enough has changed since the term dictionary was built to
+	 * build it again
+	 *
+	 * @param current the term dictionary and the words added since it was built
+	 * @return true if the dictionary should be rebuilt
+	 */
+	private boolean isStale(Terms current) {
+		return changes > Math.max(REBUILD_CHANGES, current.dictionary.size() / 8);
+	}
+
+	/**
+	 * Returns the sorted locations, rebuilding them first if a location was added
+	 * since they were last built. Searches only wait for each other while the
+	 * locations are being rebuilt.
+	 *
+	 * @return the up to date sorted locations
+	 */
+	private TermDictionary<Integer> sortedLocations() {
+		TermDictionary<Integer> sorted = sortedLocations;
+		if (sorted == null) {
+			rebuilding.lock();
+			try {
+				sorted = sortedLocations;
+				if (sorted == null) {
+					sorted = new TermDictionary<>(new TreeMap<>(docIds), id -> 1);
+					sortedLocations = sorted;
+				}
+			} finally {
+				rebuilding.unlock();
+			}
+		}
+		return sorted;
+	}
+
+	/**
+	 * Returns the document ids of the locations that pass the filter. Path and host
+	 * filters only visit the range of sorted locations under each of their
+	 * prefixes, and extension filters are looked up directly. The ids are cached
+	 * until a new location is added.
+	 *
+	 * @param filter the filter to apply
+	 * @return the document ids to keep, which must not be modified
+	 */
+	private DocSet filter(LocationFilter filter) {
+		String key = filter.toString();
+		DocSet allowed = filters.get(key);
+		if (allowed == null) {
+			if (filter.kind() == LocationFilter.Kind.EXTENSION) {
+				allowed = extensions.getOrDefault(filter.value(), new DocSet());
+			} else {
+				allowed = new DocSet();
+				TermDictionary<Integer> sorted = sortedLocations();
+				for (String prefix : filter.prefixes()) {
+					int end = sorted.prefixEnd(prefix);
+					TermDictionary<Integer>.Cursor cursor = sorted.cursor(sorted.prefixStart(prefix));
+					while (cursor.hasNext() && cursor.ordinal() < end) {
+						int ordinal = cursor.ordinal();
+						if (filter.matches(cursor.next())) {
+							allowed.add(sorted.value(ordinal));
+						}
+					}
+				}
+			}
+			filters.put(key, allowed);
+		}
+		return allowed;
+	}
+
 	@Override
 	public String toString() {
 		return "Counts: " + JsonWriter.writeObject(counts) + "\nIndex: " + JsonWriter.writeObjectObjects(index);
@@ -282,10 +958,23 @@ public class InvertedIndex {
 	 * @return the search results
 	 */
 	public List<Result> search(Set<String> queries, boolean partial) {
+		return search(queries, partial, 0, Deadline.NONE);
+	}
+
+	/**
+	 * Finds only the best search results found before the deadline
+	 * 
+	 * @param queries the queries to search for
+	 * @param partial whether to run partial or exact search
+	 * @param limit the most results to return, or 0 for every result
+	 * @param deadline when to stop and return the results found so far
+	 * @return the search results
+	 */
+	public List<Result> search(Set<String> queries, boolean partial, int limit, Deadline deadline) {
 		if (partial) {
-			return partialSearch(queries);
+			return partialSearch(queries, limit, deadline);
 		}
-		return exactSearch(queries);
+		return exactSearch(queries, limit, deadline);
 	}
 
 	/**
@@ -295,13 +984,27 @@ public class InvertedIndex {
 	 * @return the search results
 	 */
 	public List<Result> exactSearch(Set<String> queries) {
+		return exactSearch(queries, 0, Deadline.NONE);
+	}
+
+	/**
+	 * Finds only the best exact search results found before the deadline
+	 * 
+	 * @param queries the queries to search for
+	 * @param limit the most results to return, or 0 for every result
+	 * @param deadline when to stop and return the results found so far
+	 * @return the search results
+	 */
+	public List<Result> exactSearch(Set<String> queries, int limit, Deadline deadline) {
 		List<Result> results = new ArrayList<>();
 		Map<String, Result> lookup = new HashMap<>();
 		for (String query : queries) {
-			createResults(query, results, lookup);
+			if (deadline.expired()) {
+				break;
+			}
+			createResults(index.get(query), results, lookup, deadline);
 		}
-		Collections.sort(results);
-		return results;
+		return rank(results, limit);
 	}
 
 	/**
@@ -311,31 +1014,795 @@ public class InvertedIndex {
 	 * @return the search results
 	 */
 	public List<Result> partialSearch(Set<String> queries) {
+		return partialSearch(queries, 0, Deadline.NONE);
+	}
+
+	/**
+	 * Finds only the best partial search results found before the deadline. Broad
+	 * queries that expand to more than {@link #PARALLEL_THRESHOLD} postings are
+	 * counted in parallel.
+	 * 
+	 * @param queries the queries to search for
+	 * @param limit the most results to return, or 0 for every result
+	 * @param deadline when to stop and return the results found so far
+	 * @return the search results
+	 */
+	public List<Result> partialSearch(Set<String> queries, int limit, Deadline deadline) {
+		List<TreeMap<String, TreeSet<Integer>>> expanded = new ArrayList<>();
+		long cost = 0;
+		for (String query : queries) {
+			List<TreeMap<String, TreeSet<Integer>>> lists = expand(query);
+			expanded.addAll(lists);
+			for (var locations : lists) {
+				cost += locations.size();
+			}
+		}
+		if (cost > PARALLEL_THRESHOLD) {
+			return parallelResults(expanded, limit, deadline);
+		}
+
 		List<Result> results = new ArrayList<>();
 		Map<String, Result> lookup = new HashMap<>();
-		for (String query : queries) {
-			for (String key : index.tailMap(query).keySet()) {
-				if (!key.startsWith(query)) {
-					break;
-				}
-				createResults(key, results, lookup);
+		for (TreeMap<String, TreeSet<Integer>> locations : expanded) {
+			if (deadline.expired()) {
+				break;
+			}
+			createResults(locations, results, lookup, deadline);
+		}
+		return rank(results, limit);
+	}
+
+	/**
+	 * Counts the matches in each location across the given words using a fork-join
+	 * pool, then turns the merged counts into sorted results
+	 *
+	 * @param expanded the locations of every word to count
+	 * @param limit the most results to return, or 0 for every result
+	 * @param deadline when to stop counting
+	 * @return the sorted search results
+	 */
+	private List<Result> parallelResults(List<TreeMap<String, TreeSet<Integer>>> expanded, int limit, Deadline deadline) {
+		Map<String, Tally> merged = ForkJoinPool.commonPool().invoke(new CountTask(expanded, 0, expanded.size(), deadline));
+		List<Result> results = new ArrayList<>(merged.size());
+		for (Entry<String, Tally> entry : merged.entrySet()) {
+			Result result = new Result(entry.getKey());
+			result.update(entry.getValue().count, entry.getValue().weight);
+			results.add(result);
+		}
+		return rank(results, limit);
+	}
+
+	/**
+	 * Sorts the results, or when there are more than the limit, keeps only the
+	 * best ones in a bounded heap and sorts just those. This avoids sorting every
+	 * match of a broad query when only the first page is shown.
+	 *
+	 * @param results the unsorted results
+	 * @param limit the most results to return, or 0 for every result
+	 * @return the best results in sorted order
+	 */
+	private static List<Result> rank(List<Result> results, int limit) {
+		if (limit <= 0 || limit >= results.size()) {
+			Collections.sort(results);
+			return results;
+		}
+		PriorityQueue<Result> best = new PriorityQueue<>(limit + 1, Collections.reverseOrder());
+		for (Result result : results) {
+			if (best.size() < limit) {
+				best.add(result);
+			} else if (result.compareTo(best.peek()) < 0) {
+				best.poll();
+				best.add(result);
+			}
+		}
+		List<Result> top = new ArrayList<>(best);
+		Collections.sort(top);
+		return top;
+	}
+
+	/**
+	 * A task that counts the matches per location for a range of expanded words,
+	 * splitting the range in half until each piece is small enough to count
+	 * directly
+	 */
+	private static class CountTask extends RecursiveTask<Map<String, Tally>> {
+
+		/** For serialization */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The locations of every expanded word
+		 */
+		private final List<TreeMap<String, TreeSet<Integer>>> expanded;
+
+		/**
+		 * The first word to count (inclusive)
+		 */
+		private final int start;
+
+		/**
+		 * The last word to count (exclusive)
+		 */
+		private final int end;
+
+		/**
+		 * When to stop counting
+		 */
+		private final Deadline deadline;
+
+		/**
+		 * Constructor for this task
+		 *
+		 * @param expanded the locations of every expanded word
+		 * @param start the first word to count (inclusive)
+		 * @param end the last word to count (exclusive)
+		 * @param deadline when to stop counting
+		 */
+		public CountTask(List<TreeMap<String, TreeSet<Integer>>> expanded, int start, int end, Deadline deadline) {
+			this.expanded = expanded;
+			this.start = start;
+			this.end = end;
+			this.deadline = deadline;
+		}
+
+		@Override
+		protected Map<String, Tally> compute() {
+			long cost = 0;
+			for (int i = start; i < end; i++) {
+				cost += expanded.get(i).size();
+			}
+
+			if (cost <= SPLIT_THRESHOLD || end - start < 2) {
+				Map<String, Tally> counts = new HashMap<>();
+				long visited = 0;
+				for (int i = start; i < end && !deadline.expired(); i++) {
+					for (Entry<String, TreeSet<Integer>> entry : expanded.get(i).entrySet()) {
+						if (deadline.expired(++visited)) {
+							return counts;
+						}
+						counts.computeIfAbsent(entry.getKey(), k -> new Tally()).add(entry.getValue());
+					}
+				}
+				return counts;
+			}
+
+			int middle = (start + end) >>> 1;
+			CountTask left = new CountTask(expanded, start, middle, deadline);
+			CountTask right = new CountTask(expanded, middle, end, deadline);
+			left.fork();
+			Map<String, Tally> counts = right.compute();
+			Map<String, Tally> other = left.join();
+			if (other.size() > counts.size()) {
+				Map<String, Tally> swap = counts;
+				counts = other;
+				other = swap;
+			}
+			for (Entry<String, Tally> entry : other.entrySet()) {
+				counts.merge(entry.getKey(), entry.getValue(), Tally::add);
+			}
+			return counts;
+		}
+	}
+
+	/**
+	 * The term dictionary and the words added since it was built, taken together so
+	 * that a search reads a matching pair even if another search rebuilds them.
+	 * Words are only added to or removed from the set while no search is running.
+	 */
+	private static class Terms {
+
+		/**
+		 * The term dictionary
+		 */
+		private final TermDictionary<TreeMap<String, TreeSet<Integer>>> dictionary;
+
+		/**
+		 * The words added since the dictionary was built
+		 */
+		private final TreeSet<String> recent;
+
+		/**
+		 * Constructs the pair
+		 *
+		 * @param dictionary the term dictionary
+		 * @param recent the words added since the dictionary was built
+		 */
+		public Terms(TermDictionary<TreeMap<String, TreeSet<Integer>>> dictionary, TreeSet<String> recent) {
+			this.dictionary = dictionary;
+			this.recent = recent;
+		}
+	}
+
+	/**
+	 * The matches counted for one location by a {@link CountTask}
+	 */
+	private static class Tally {
+
+		/**
+		 * The number of matches
+		 */
+		private int count;
+
+		/**
+		 * The number of matches with each match counted as the boost of its field
+		 */
+		private double weight;
+
+		/**
+		 * Adds the matches of a word
+		 *
+		 * @param positions the positions of the word at the location
+		 */
+		public void add(Collection<Integer> positions) {
+			count += positions.size();
+			weight += FieldPositions.weight(positions);
+		}
+
+		/**
+		 * Adds the matches of another tally for the same location
+		 *
+		 * @param other the other tally
+		 * @return this tally
+		 */
+		public Tally add(Tally other) {
+			count += other.count;
+			weight += other.weight;
+			return this;
+		}
+	}
+
+	/**
+	 * Finds search results for a parsed query. Plain queries are a union of their
+	 * stems, the same as {@link #search(Set, boolean)}, and every other query is
+	 * evaluated by {@link #booleanSearch(SearchQuery, boolean)}.
+	 *
+	 * @param query the parsed query
+	 * @param partial whether to run partial or exact search
+	 * @return the search results
+	 */
+	public List<Result> search(SearchQuery query, boolean partial) {
+		return search(query, partial, null);
+	}
+
+	/**
+	 * Finds search results for a parsed query in only the locations that pass the
+	 * filter. Filtered queries are always evaluated by
+	 * {@link #booleanSearch(SearchQuery, boolean, LocationFilter)} so that
+	 * locations outside the filter are skipped while the postings are read.
+	 *
+	 * @param query the parsed query
+	 * @param partial whether to run partial or exact search
+	 * @param filter the locations to keep, or null to keep every location
+	 * @return the search results
+	 */
+	@Override
+	public List<Result> search(SearchQuery query, boolean partial, LocationFilter filter) {
+		return search(query, partial, filter, 0, Deadline.NONE);
+	}
+
+	/**
+	 * Finds only the best search results for a parsed query in the locations that
+	 * pass the filter. If the deadline passes first, the best results found so far
+	 * are returned and {@link Deadline#wasReached()} is true.
+	 *
+	 * @param query the parsed query
+	 * @param partial whether to run partial or exact search
+	 * @param filter the locations to keep, or null to keep every location
+	 * @param limit the most results to return, or 0 for every result
+	 * @param deadline when to stop and return the results found so far
+	 * @return the search results
+	 */
+	@Override
+	public List<Result> search(SearchQuery query, boolean partial, LocationFilter filter, int limit, Deadline deadline) {
+		if (query.isPlain() && filter == null) {
+			return search(query.viewOptional(), partial, limit, deadline);
+		}
+		return booleanSearch(query, partial, filter, limit, deadline);
+	}
+
+	/**
+	 * Finds search results for a query with required, excluded, fuzzy, or wildcard
+	 * stems. Locations matching every required stem are found by intersecting the
+	 * document bitmaps of each required stem, rarest first, and excluded stems are
+	 * subtracted the same way, so only the surviving locations are ever scored.
+	 *
+	 * @param query the parsed query
+	 * @param partial whether to run partial or exact search
+	 * @return the search results
+	 *
+	 * @see QueryPlan
+	 */
+	public List<Result> booleanSearch(SearchQuery query, boolean partial) {
+		return booleanSearch(query, partial, null);
+	}
+
+	/**
+	 * Finds search results for a query in only the locations that pass the filter.
+	 * The filter is intersected with the required stems before any location is
+	 * scored.
+	 *
+	 * @param query the parsed query
+	 * @param partial whether to run partial or exact search
+	 * @param filter the locations to keep, or null to keep every location
+	 * @return the search results
+	 */
+	public List<Result> booleanSearch(SearchQuery query, boolean partial, LocationFilter filter) {
+		return booleanSearch(query, partial, filter, 0, Deadline.NONE);
+	}
+
+	/**
+	 * Finds only the best search results for a query in the locations that pass
+	 * the filter, found before the deadline
+	 *
+	 * @param query the parsed query
+	 * @param partial whether to run partial or exact search
+	 * @param filter the locations to keep, or null to keep every location
+	 * @param limit the most results to return, or 0 for every result
+	 * @param deadline when to stop and return the results found so far
+	 * @return the search results
+	 */
+	public List<Result> booleanSearch(SearchQuery query, boolean partial, LocationFilter filter, int limit, Deadline deadline) {
+		return new QueryPlan(query, partial, filter).execute(limit, deadline);
+	}
+
+	/**
+	 * Describes how a query would be evaluated against this index, including the
+	 * order the stems are visited in and the cost of each stem.
+	 *
+	 * @param query the parsed query
+	 * @param partial whether to run partial or exact search
+	 * @return a human readable description of the query plan
+	 */
+	public String explain(SearchQuery query, boolean partial) {
+		return explain(query, partial, null);
+	}
+
+	/**
+	 * Describes how a filtered query would be evaluated against this index
+	 *
+	 * @param query the parsed query
+	 * @param partial whether to run partial or exact search
+	 * @param filter the locations to keep, or null to keep every location
+	 * @return a human readable description of the query plan
+	 */
+	@Override
+	public String explain(SearchQuery query, boolean partial, LocationFilter filter) {
+		return new QueryPlan(query, partial, filter).toString();
+	}
+
+	/**
+	 * Returns the positions of every word a query matches at each of the given
+	 * locations, which is where a snippet should highlight matches. Excluded
+	 * stems are ignored since they never match a result.
+	 *
+	 * @param query the parsed query
+	 * @param partial whether to include every word starting with a stem
+	 * @param locations the locations to find positions for
+	 * @return the sorted matching positions by location
+	 */
+	@Override
+	public Map<String, SortedSet<Integer>> positions(SearchQuery query, boolean partial, Collection<String> locations) {
+		Map<String, SortedSet<Integer>> positions = new HashMap<>();
+		for (String location : locations) {
+			positions.put(location, new TreeSet<>());
+		}
+		Set<String> stems = new TreeSet<>(query.viewRequired());
+		stems.addAll(query.viewOptional());
+		for (String stem : stems) {
+			Postings postings = new Postings(query.format(stem), stem, partial, query.distance(stem));
+			for (Entry<String, SortedSet<Integer>> entry : positions.entrySet()) {
+				postings.positions(entry.getKey(), entry.getValue());
+			}
+		}
+		return positions;
+	}
+
+	/**
+	 * The order in which the stems of a query are evaluated. Document frequencies
+	 * are looked up before any bitmaps are combined, required stems are intersected
+	 * from rarest to most common, and a required stem with no postings ends the
+	 * query before anything else is read.
+	 */
+	private class QueryPlan {
+
+		/**
+		 * The query being planned
+		 */
+		private final SearchQuery query;
+
+		/**
+		 * The postings every result must be in, rarest first
+		 */
+		private final List<Postings> required;
+
+		/**
+		 * The postings that only add to the score
+		 */
+		private final List<Postings> optional;
+
+		/**
+		 * The postings no result may be in, most common first
+		 */
+		private final List<Postings> excluded;
+
+		/**
+		 * The filter on result locations, or null if every location is kept
+		 */
+		private final LocationFilter filter;
+
+		/**
+		 * The document ids that pass the filter, or null if every location is kept
+		 */
+		private final DocSet allowed;
+
+		/**
+		 * Constructs the plan for a query
+		 *
+		 * @param query the parsed query
+		 * @param partial whether to run partial or exact search
+		 * @param filter the locations to keep, or null to keep every location
+		 */
+		public QueryPlan(SearchQuery query, boolean partial, LocationFilter filter) {
+			this.query = query;
+			this.filter = filter;
+			this.allowed = filter == null ? null : filter(filter);
+			required = expand(query.viewRequired(), partial);
+			optional = expand(query.viewOptional(), partial);
+			excluded = expand(query.viewExcluded(), partial);
+
+			required.sort(Comparator.comparingLong(Postings::cost));
+			excluded.sort(Comparator.comparingLong(Postings::cost).reversed());
+		}
+
+		/**
+		 * Expands each stem into its postings
+		 *
+		 * @param stems the stems to expand
+		 * @param partial whether to include every word starting with a stem
+		 * @return the postings for each stem
+		 */
+		private List<Postings> expand(Set<String> stems, boolean partial) {
+			List<Postings> expanded = new ArrayList<>();
+			for (String stem : stems) {
+				expanded.add(new Postings(query.format(stem), stem, partial, query.distance(stem)));
+			}
+			return expanded;
+		}
+
+		/**
+		 * Returns whether the plan can skip evaluation entirely, either because
+		 * nothing can match, no location passes the filter, or a required stem is
+		 * missing from the index
+		 *
+		 * @return true if the query has no results
+		 */
+		public boolean isEmpty() {
+			if (allowed != null && allowed.isEmpty()) {
+				return true;
+			}
+			if (required.isEmpty()) {
+				return optional.isEmpty();
+			}
+			return required.get(0).cost() == 0;
+		}
+
+		/**
+		 * Evaluates the plan
+		 *
+		 * @param limit the most results to return, or 0 for every result
+		 * @param deadline when to stop and return the results found so far
+		 * @return the sorted search results
+		 */
+		public List<Result> execute(int limit, Deadline deadline) {
+			List<Result> results = new ArrayList<>();
+			if (isEmpty()) {
+				return results;
+			}
+
+			if (required.isEmpty()) {
+				DocSet skip = excluded(deadline);
+				if (deadline.wasReached()) {
+					return results;
+				}
+				boolean check = allowed != null || !skip.isEmpty();
+				Map<String, Result> lookup = new HashMap<>();
+				long visited = 0;
+				for (Postings postings : optional) {
+					for (var locations : postings.lists) {
+						if (deadline.expired()) {
+							return rank(results, limit);
+						}
+						for (Entry<String, TreeSet<Integer>> entry : locations.entrySet()) {
+							if (deadline.expired(++visited)) {
+								return rank(results, limit);
+							}
+							String location = entry.getKey();
+							if (!check || keep(docIds.get(location), skip)) {
+								Result result = lookup.get(location);
+								if (result == null) {
+									result = new Result(location);
+									results.add(result);
+									lookup.put(location, result);
+								}
+								result.update(entry.getValue());
+							}
+						}
+					}
+				}
+			} else {
+				DocSet matches = required.get(0).documents(deadline);
+				if (allowed != null) {
+					matches = matches.and(allowed);
+				}
+				for (int i = 1; i < required.size() && !matches.isEmpty(); i++) {
+					if (deadline.expired()) {
+						return results;
+					}
+					matches = matches.and(required.get(i).documents(deadline));
+				}
+				for (Postings postings : excluded) {
+					if (matches.isEmpty() || deadline.expired()) {
+						return results;
+					}
+					matches = matches.andNot(postings.documents(deadline));
+				}
+				// an excluded bitmap cut short by the deadline would let excluded locations through
+				if (deadline.wasReached()) {
+					return results;
+				}
+				long[] visited = { 0 };
+				matches.forEach(id -> {
+					if (deadline.expired(++visited[0]) || deadline.wasReached()) {
+						return;
+					}
+					String location = locations.get(id);
+					Result result = new Result(location);
+					for (Postings postings : required) {
+						postings.update(location, result);
+					}
+					for (Postings postings : optional) {
+						postings.update(location, result);
+					}
+					results.add(result);
+				});
+			}
+
+			return rank(results, limit);
+		}
+
+		/**
+		 * Returns whether a location passes the filter and is not excluded
+		 *
+		 * @param id the document id of the location
+		 * @param skip the document ids of every excluded stem
+		 * @return true if the location can be a result
+		 */
+		private boolean keep(int id, DocSet skip) {
+			return (allowed == null || allowed.contains(id)) && !skip.contains(id);
+		}
+
+		/**
+		 * Returns the union of the document bitmaps of every excluded stem
+		 *
+		 * @param deadline when to stop combining bitmaps
+		 * @return the document ids no result may have
+		 */
+		private DocSet excluded(Deadline deadline) {
+			List<DocSet> sets = new ArrayList<>(excluded.size());
+			for (Postings postings : excluded) {
+				sets.add(postings.documents(deadline));
+			}
+			return DocSet.union(sets);
+		}
+
+		/**
+		 * Appends one line per postings to the plan description
+		 *
+		 * @param plan the description being built
+		 * @param label the role of these postings
+		 * @param list the postings to describe
+		 */
+		private void describe(StringBuilder plan, String label, List<Postings> list) {
+			int step = 1;
+			for (Postings postings : list) {
+				plan.append(String.format("  %s %d. %s (words: %d, postings: %d)%n",
+						label, step++, postings.stem, postings.lists.size(), postings.cost()));
+			}
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder plan = new StringBuilder();
+			if (isEmpty()) {
+				plan.append(String.format("empty: no locations can match%n"));
+			} else if (required.isEmpty()) {
+				plan.append(String.format("union of optional postings%n"));
+			} else {
+				plan.append(String.format("bitmap intersection led by \"%s\"%n", required.get(0).stem));
+			}
+			if (filter != null) {
+				plan.append(String.format("  filter %s (locations: %d)%n", filter, allowed.size()));
+			}
+			describe(plan, "required", required);
+			describe(plan, "optional", optional);
+			describe(plan, "excluded", excluded);
+			plan.append(String.format("prefix cache: %s%n", expansions));
+			return plan.toString();
+		}
+	}
+
+	/**
+	 * The posting lists a single query stem expands to, which is one list for an
+	 * exact stem or one list per matching word for a partial stem, along with the
+	 * document bitmap of every location in any of those lists.
+	 */
+	private class Postings {
+
+		/**
+		 * The query stem these postings were expanded from, as written in the
+		 * canonical query
+		 */
+		private final String stem;
+
+		/**
+		 * The locations of every word this stem expands to
+		 */
+		private final List<TreeMap<String, TreeSet<Integer>>> lists;
+
+		/**
+		 * Every word this stem expands to, in the same order as the lists
+		 */
+		private final List<String> words;
+
+		/**
+		 * The total number of locations across all lists
+		 */
+		private final long cost;
+
+		/**
+		 * The document ids of every location in any of the lists, built when first
+		 * needed
+		 */
+		private DocSet documents;
+
+		/**
+		 * Constructs the postings for a query stem
+		 *
+		 * @param label the stem as written in the canonical query
+		 * @param stem the stem to expand
+		 * @param partial whether to include every word starting with the stem, which
+		 *   does not apply to wildcard patterns
+		 * @param distance the number of edits allowed, or 0 for an exact stem
+		 */
+		public Postings(String label, String stem, boolean partial, int distance) {
+			this.stem = label;
+			lists = new ArrayList<>();
+			words = new ArrayList<>();
+			if (WildcardPattern.isPattern(stem)) {
+				for (String word : matchWords(new WildcardPattern(stem))) {
+					lists.add(index.get(word));
+					words.add(word);
+				}
+			} else if (distance > 0) {
+				Terms terms = terms();
+				LevenshteinAutomaton automaton = new LevenshteinAutomaton(stem, distance);
+				TreeMap<String, TreeMap<String, TreeSet<Integer>>> matched = new TreeMap<>();
+				for (int ordinal : automaton.intersect(terms.dictionary, partial)) {
+					if (!terms.dictionary.value(ordinal).isEmpty()) {
+						matched.put(terms.dictionary.term(ordinal), terms.dictionary.value(ordinal));
+					}
+				}
+				for (String word : terms.recent) {
+					if (automaton.accepts(word, partial)) {
+						matched.put(word, index.get(word));
+					}
+				}
+				words.addAll(matched.keySet());
+				lists.addAll(matched.values());
+			} else if (partial) {
+				expand(stem, words, lists);
+			} else {
+				TreeMap<String, TreeSet<Integer>> locations = index.get(stem);
+				if (locations != null) {
+					lists.add(locations);
+					words.add(stem);
+				}
+			}
+
+			long total = 0;
+			for (var locations : lists) {
+				total += locations.size();
+			}
+			cost = total;
+		}
+
+		/**
+		 * Returns the document frequency of this stem, which is the number of
+		 * locations that have to be visited to read all of its postings
+		 *
+		 * @return the total number of locations across all lists
+		 */
+		public long cost() {
+			return cost;
+		}
+
+		/**
+		 * Returns the document ids of every location in any of the lists. A single
+		 * word shares the bitmap kept by the index, so the result must not be
+		 * modified. The bitmaps of many words are combined a batch at a time, and if
+		 * the deadline passes between batches only the words combined so far are
+		 * included.
+		 *
+		 * @param deadline when to stop combining bitmaps
+		 * @return the document bitmap of this stem
+		 */
+		public DocSet documents(Deadline deadline) {
+			if (documents == null) {
+				if (words.size() == 1) {
+					documents = InvertedIndex.this.documents.get(words.get(0));
+				} else {
+					DocSet combined = new DocSet();
+					List<DocSet> sets = new ArrayList<>(UNION_BATCH);
+					for (int i = 0; i < words.size() && !deadline.expired(); i += UNION_BATCH) {
+						sets.clear();
+						for (String word : words.subList(i, Math.min(i + UNION_BATCH, words.size()))) {
+							sets.add(InvertedIndex.this.documents.get(word));
+						}
+						sets.add(combined);
+						combined = DocSet.union(sets);
+					}
+					documents = combined;
+				}
+			}
+			return documents;
+		}
+
+		/**
+		 * Adds the positions found at the location to its result
+		 *
+		 * @param location the location to count
+		 * @param result the result for the location
+		 */
+		public void update(String location, Result result) {
+			for (var locations : lists) {
+				TreeSet<Integer> positions = locations.get(location);
+				if (positions != null) {
+					result.update(positions);
+				}
+			}
+		}
+
+		/**
+		 * Adds the positions found at the location to a set
+		 *
+		 * @param location the location to look up
+		 * @param positions the set to add the positions to
+		 */
+		public void positions(String location, SortedSet<Integer> positions) {
+			for (var locations : lists) {
+				TreeSet<Integer> found = locations.get(location);
+				if (found != null) {
+					positions.addAll(found);
+				}
 			}
 		}
-		Collections.sort(results);
-		return results;
 	}
 
 	/**
 	 * A helper function for searching
-	 * 
-	 * @param query the word stem to search for
+	 *
+	 * @param locations the locations and positions of a single word
 	 * @param results the Results list to add to
 	 * @param lookup the map to keep track of which locations have been stored in results
+	 * @param deadline when to stop adding locations
 	 */
-	private void createResults(String query, List<Result> results, Map<String, Result> lookup) {
-		TreeMap<String, TreeSet<Integer>> locations = index.get(query);
+	private void createResults(TreeMap<String, TreeSet<Integer>> locations, List<Result> results, Map<String, Result> lookup, Deadline deadline) {
 		if (locations != null) {
+			long visited = 0;
 			for (Entry<String, TreeSet<Integer>> entry : locations.entrySet()) {
+				if (deadline.expired(++visited)) {
+					return;
+				}
 				String location = entry.getKey();
 				Result result = lookup.get(location);
 				if (result == null) {
@@ -343,7 +1810,7 @@ public class InvertedIndex {
 					results.add(result);
 					lookup.put(location, result);
 				}
-				result.update(entry.getValue().size());
+				result.update(entry.getValue());
 			}
 		}
 	}
@@ -354,7 +1821,8 @@ public class InvertedIndex {
 	public class Result implements Comparable<Result> {
 
 		/**
-		 * The percent of words in the file that match the query
+		 * The percent of words in the file that match the query, where a word in a
+		 * field of a web page counts as the boost of that field
 		 */
 		private double score;
 
@@ -363,11 +1831,22 @@ public class InvertedIndex {
 		 */
 		private int count;
 
+		/**
+		 * The number of matches with each match counted as the boost of its field
+		 */
+		private double weight;
+
 		/**
 		 * The location of the Result
 		 */
 		private final String location;
 
+		/**
+		 * The boosted number of words in the location, or 0 until the first match
+		 * is added
+		 */
+		private double length;
+
 		/**
 		 * Constructs a Result
 		 * 
@@ -375,8 +1854,10 @@ public class InvertedIndex {
 		 */
 		public Result(String file) {
 			count = 0;
+			weight = 0;
 			score = 0;
 			location = file;
+			length = 0;
 		}
 
 		/**
@@ -409,8 +1890,33 @@ public class InvertedIndex {
 		 * @param count the new count
 		 */
 		private void update(int count) {
+			update(count, count);
+		}
+
+		/**
+		 * Adds the matches of a word at this location, boosting the matches that
+		 * are in a field
+		 * 
+		 * @param positions the positions of the word at this location
+		 */
+		private void update(Collection<Integer> positions) {
+			update(positions.size(), FieldPositions.weight(positions));
+		}
+
+		/**
+		 * Adds to the count and recalculates the score from the boosted count and
+		 * the boosted length of the location
+		 * 
+		 * @param count the number of matches to add
+		 * @param weight the boosted number of matches to add
+		 */
+		private void update(int count, double weight) {
+			if (length == 0) {
+				length = boostedLength(location);
+			}
 			this.count = count + this.count;
-			this.score = (double) this.count/counts.get(location);
+			this.weight = weight + this.weight;
+			this.score = this.weight/length;
 		}
 
 		@Override
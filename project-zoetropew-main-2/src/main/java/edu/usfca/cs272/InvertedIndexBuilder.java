@@ -8,6 +8,8 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 import opennlp.tools.stemmer.Stemmer;
 import opennlp.tools.stemmer.snowball.SnowballStemmer;
@@ -29,11 +31,24 @@ public class InvertedIndexBuilder {
 	 * @throws IOException if an IO error occurs
 	 */
 	public static void build(Path path, InvertedIndex storage) throws IOException {
+		build(path, storage, null);
+	}
+
+	/**
+	 * Builds the inverted index and stores the text of every file for snippets
+	 * 
+	 * @param path the path to traverse
+	 * @param storage the data structure where file info will be stored
+	 * @param documents where to store the words of each file, or null to not
+	 *   store them
+	 * @throws IOException if an IO error occurs
+	 */
+	public static void build(Path path, InvertedIndex storage, DocumentStore documents) throws IOException {
 		if(Files.isDirectory(path)) {
-			traverseDirectory(path, storage);
+			traverseDirectory(path, storage, documents);
 		}
 		else {
-			processFile(path, storage);
+			processFile(path, storage, documents);
 		}
 	}
 
@@ -45,18 +60,64 @@ public class InvertedIndexBuilder {
 	 * @throws IOException if an IO error occurs
 	 */
 	public static void processFile(Path file, InvertedIndex storage) throws IOException {
+		processFile(file, storage, null);
+	}
+
+	/**
+	 * Processes a file and builds the word counts and word index, and stores the
+	 * words of the file as written so snippets can be shown for it
+	 * 
+	 * @param file the file to process
+	 * @param storage the data structure where file info will be stored
+	 * @param documents where to store the words of the file, or null to not store
+	 *   them
+	 * @throws IOException if an IO error occurs
+	 */
+	public static void processFile(Path file, InvertedIndex storage, DocumentStore documents) throws IOException {
 		try(BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)){
 			Stemmer stemmer = new SnowballStemmer(ENGLISH);
 			String location = file.toString();
+			List<String> text = documents == null ? null : new ArrayList<>();
 			String line;
 			int position = 0;
 			while ((line = br.readLine()) != null) {
-				String[] words = FileStemmer.parse(line);
-				for (String word : words) {
-					storage.addIndexEntry(stemmer.stem(word).toString(), location, ++position);
+				if (text == null) {
+					String[] words = FileStemmer.parse(line);
+					for (String word : words) {
+						storage.addIndexEntry(stemmer.stem(word).toString(), location, ++position);
+					}
+				} else {
+					position = addWords(line, location, position, stemmer, storage, text);
 				}
 			}
+			if (text != null) {
+				documents.add(location, text);
+			}
+		}
+	}
+
+	/**
+	 * Adds the words of some text to the index while keeping the word each
+	 * position came from as written, so the stored text lines up with the
+	 * positions in the index. Cleaning never splits a word, so each word as
+	 * written becomes at most one cleaned word.
+	 * 
+	 * @param text the text to add
+	 * @param location the location of the text
+	 * @param position the last position already added for the location
+	 * @param stemmer the stemmer to use
+	 * @param storage the data structure where the words will be stored
+	 * @param written where to add the words as written, one per position
+	 * @return the last position added
+	 */
+	public static int addWords(String text, String location, int position, Stemmer stemmer, InvertedIndex storage, List<String> written) {
+		for (String token : FileStemmer.split(text)) {
+			for (String word : FileStemmer.parse(token)) {
+				storage.addIndexEntry(stemmer.stem(word).toString(), location, ++position);
+				written.add(token);
+			}
 		}
+		return position;
 	}
 
 	/**
@@ -68,13 +129,27 @@ public class InvertedIndexBuilder {
 	 * @throws IOException if an IO error occurs
 	 */
 	public static void traverseDirectory(Path path, InvertedIndex storage) throws IOException {
+		traverseDirectory(path, storage, null);
+	}
+
+	/**
+	 * Recursively traverses the given directory to find all text files and stores
+	 * the words of each file for snippets
+	 * 
+	 * @param path the path to traverse
+	 * @param storage the data structure where file info will be stored
+	 * @param documents where to store the words of each file, or null to not
+	 *   store them
+	 * @throws IOException if an IO error occurs
+	 */
+	public static void traverseDirectory(Path path, InvertedIndex storage, DocumentStore documents) throws IOException {
 		try (DirectoryStream<Path> walk = Files.newDirectoryStream(path)){
 			for(Path thisPath:walk) {
 				if(Files.isDirectory(thisPath)) {
-					traverseDirectory(thisPath, storage);
+					traverseDirectory(thisPath, storage, documents);
 				}
 				else if(isTextFile(thisPath)){
-					processFile(thisPath, storage);
+					processFile(thisPath, storage, documents);
 				}
 			}
 		}
@@ -683,4 +683,39 @@ public class JsonWriter {
 			return null;
 		}
 	}
+
+	/**
+	 * Writes a page of results as a pretty JSON object with the query, the cursor
+	 * of the page, the cursor of the next page (or null if there is none), whether
+	 * the results are from partial search, whether the search timed out, whether
+	 * only the first page could be ranked, and the results on the page.
+	 *
+	 * @param query the query line the results are for, already escaped for JSON
+	 * @param page the page to write
+	 * @param writer the writer to use
+	 * @param indent the initial indent level; the first bracket is not indented,
+	 *   inner elements are indented by one, and the last bracket is indented at the
+	 *   initial indentation level
+	 * @throws IOException if an IO error occurs
+	 */
+	public static void writePage(String query, ResultPage page, Writer writer, int indent) throws IOException {
+		writer.write("{");
+		writeResultEntry("query", "\"" + query + "\"", writer, indent);
+		writer.write(",");
+		writeResultEntry("cursor", page.getCursor(), writer, indent);
+		writer.write(",");
+		writeResultEntry("next", page.hasNext() ? page.nextCursor() : "null", writer, indent);
+		writer.write(",");
+		writeResultEntry("partial", page.isPartial(), writer, indent);
+		writer.write(",");
+		writeResultEntry("timedOut", page.isTimedOut(), writer, indent);
+		writer.write(",");
+		writeResultEntry("limited", page.isLimited(), writer, indent);
+		writer.write(",\n");
+		JsonWriter.writeQuote("results", writer, indent + 1);
+		writer.write(": ");
+		writeArrayResults(page.viewResults(), writer, indent + 1);
+		writer.write("\n");
+		JsonWriter.writeIndent("}", writer, indent);
+	}
 }
@@ -0,0 +1,204 @@
+package edu.usfca.cs272;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Matches words within a small edit distance of a target word. The state of the
+ * automaton after reading some characters is a row of the edit distance table,
+ * so the state for a word can be built one character at a time from the state
+ * of its prefix.
+ *
+ * <p>
+ * Intersecting the automaton with a sorted {@link TermDictionary} reuses the
+ * states of the prefix each word shares with the word before it, and skips
+ * every word under a prefix as soon as no extension of that prefix can be
+ * within the distance. Only a small part of the dictionary is visited for short
+ * distances.
+ *
+ * @author zoe
+ *
+ */
+public class LevenshteinAutomaton {
+
+	/**
+	 * The largest edit distance supported
+	 */
+	public static final int MAX_DISTANCE = 2;
+
+	/**
+	 * The word to match
+	 */
+	private final String target;
+
+	/**
+	 * The largest number of edits allowed
+	 */
+	private final int distance;
+
+	/**
+	 * Constructs an automaton for the target word
+	 *
+	 * @param target the word to match
+	 * @param distance the largest number of edits allowed, at most
+	 *   {@link #MAX_DISTANCE}
+	 */
+	public LevenshteinAutomaton(String target, int distance) {
+		if (distance < 0 || distance > MAX_DISTANCE) {
+			throw new IllegalArgumentException("Edit distance must be between 0 and " + MAX_DISTANCE);
+		}
+		this.target = target;
+		this.distance = distance;
+	}
+
+	/**
+	 * Returns the state before any characters are read
+	 *
+	 * @return the starting state
+	 */
+	public int[] start() {
+		int[] row = new int[target.length() + 1];
+		for (int i = 0; i < row.length; i++) {
+			row[i] = i;
+		}
+		return row;
+	}
+
+	/**
+	 * Computes the state after reading one more character
+	 *
+	 * @param previous the current state
+	 * @param c the character read
+	 * @param next where to store the next state
+	 */
+	public void step(int[] previous, char c, int[] next) {
+		next[0] = previous[0] + 1;
+		for (int i = 1; i < next.length; i++) {
+			int cost = target.charAt(i - 1) == c ? 0 : 1;
+			next[i] = Math.min(Math.min(next[i - 1] + 1, previous[i] + 1), previous[i - 1] + cost);
+		}
+	}
+
+	/**
+	 * Returns whether the characters read so far are within the distance of the
+	 * target
+	 *
+	 * @param state the current state
+	 * @return true if the word read so far matches
+	 */
+	public boolean isMatch(int[] state) {
+		return state[state.length - 1] <= distance;
+	}
+
+	/**
+	 * Returns whether reading more characters could still lead to a match
+	 *
+	 * @param state the current state
+	 * @return true if some extension of the word read so far could match
+	 */
+	public boolean canMatch(int[] state) {
+		for (int value : state) {
+			if (value <= distance) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns whether a single term is accepted by this automaton, in the same way
+	 * as {@link #intersect(TermDictionary, boolean)} accepts dictionary terms
+	 *
+	 * @param term the term to check
+	 * @param prefixes whether to accept the term if it starts with a match
+	 * @return true if the term is accepted
+	 */
+	public boolean accepts(String term, boolean prefixes) {
+		int[] state = start();
+		int[] next = new int[state.length];
+		for (int i = 0; i < term.length(); i++) {
+			step(state, term.charAt(i), next);
+			int[] swap = state;
+			state = next;
+			next = swap;
+
+			if (prefixes && isMatch(state)) {
+				return true;
+			}
+			if (!canMatch(state)) {
+				return false;
+			}
+		}
+		return isMatch(state);
+	}
+
+	/**
+	 * Finds the ordinals of the dictionary terms accepted by this automaton. When
+	 * matching prefixes, a term is accepted if any prefix of it matches the target,
+	 * which mirrors how partial search treats exact stems.
+	 *
+	 * @param dictionary the sorted terms to search
+	 * @param prefixes whether to accept every term that starts with a match
+	 * @return the ordinals of the accepted terms in sorted order
+	 */
+	public List<Integer> intersect(TermDictionary<?> dictionary, boolean prefixes) {
+		List<Integer> ordinals = new ArrayList<>();
+		List<int[]> states = new ArrayList<>();
+		states.add(start());
+
+		String previous = "";
+		int ordinal = 0;
+		TermDictionary<?>.Cursor cursor = dictionary.cursor(ordinal);
+		while (cursor.hasNext()) {
+			ordinal = cursor.ordinal();
+			String term = cursor.next();
+
+			int shared = 0;
+			int max = Math.min(previous.length(), term.length());
+			while (shared < max && previous.charAt(shared) == term.charAt(shared)) {
+				shared++;
+			}
+			previous = term;
+
+			// states[depth] is the state after reading depth characters of the term
+			int skipTo = -1;
+			int depth = shared;
+			while (depth < term.length()) {
+				if (states.size() <= depth + 1) {
+					states.add(new int[target.length() + 1]);
+				}
+				int[] state = states.get(depth + 1);
+				step(states.get(depth), term.charAt(depth), state);
+				depth++;
+
+				if (prefixes && isMatch(state)) {
+					skipTo = dictionary.prefixEnd(term.substring(0, depth));
+					break;
+				}
+				if (!canMatch(state)) {
+					skipTo = dictionary.prefixEnd(term.substring(0, depth));
+					ordinal = -1;
+					break;
+				}
+			}
+
+			if (skipTo >= 0) {
+				if (ordinal >= 0) {
+					for (int i = ordinal; i < skipTo; i++) {
+						ordinals.add(i);
+					}
+				}
+				cursor = dictionary.cursor(skipTo);
+				previous = "";
+			} else if (isMatch(states.get(term.length()))) {
+				ordinals.add(ordinal);
+			}
+		}
+		return ordinals;
+	}
+
+	@Override
+	public String toString() {
+		return target + "~" + distance;
+	}
+}
@@ -0,0 +1,183 @@
+package edu.usfca.cs272;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Restricts search results to a subset of the indexed locations. A filter is
+ * written as {@code host:example.com} to keep one crawled host,
+ * {@code ext:html} to keep one file extension, or {@code path:input/text} (or
+ * just {@code input/text}) to keep every location starting with a path or URL
+ * prefix.
+ *
+ * @author zoe
+ *
+ */
+public class LocationFilter {
+
+	/**
+	 * The part of a location a filter looks at
+	 */
+	public enum Kind {
+		/** Locations starting with the value */
+		PATH,
+		/** URLs on the host named by the value */
+		HOST,
+		/** Locations ending with the value as their file extension */
+		EXTENSION
+	}
+
+	/**
+	 * The URL schemes a host filter checks
+	 */
+	private static final List<String> SCHEMES = List.of("http://", "https://");
+
+	/**
+	 * The part of a location this filter looks at
+	 */
+	private final Kind kind;
+
+	/**
+	 * The prefix, host, or extension to keep
+	 */
+	private final String value;
+
+	/**
+	 * Constructs a filter
+	 *
+	 * @param kind the part of a location the filter looks at
+	 * @param value the prefix, host, or extension to keep
+	 */
+	public LocationFilter(Kind kind, String value) {
+		this.kind = kind;
+		this.value = value;
+	}
+
+	/**
+	 * Parses a filter
+	 *
+	 * @param filter the filter as written by the user
+	 * @return the parsed filter, or null if the text is null or blank
+	 */
+	public static LocationFilter parse(String filter) {
+		if (filter == null || filter.isBlank()) {
+			return null;
+		}
+		filter = filter.strip();
+		if (filter.startsWith("host:")) {
+			return new LocationFilter(Kind.HOST, filter.substring(5).toLowerCase(Locale.ROOT));
+		}
+		if (filter.startsWith("ext:")) {
+			String extension = filter.substring(4);
+			if (extension.startsWith(".")) {
+				extension = extension.substring(1);
+			}
+			return new LocationFilter(Kind.EXTENSION, extension.toLowerCase(Locale.ROOT));
+		}
+		if (filter.startsWith("path:")) {
+			filter = filter.substring(5);
+		}
+		return new LocationFilter(Kind.PATH, filter);
+	}
+
+	/**
+	 * Returns the lowercase file extension of a path or URL, ignoring any URL
+	 * query or fragment
+	 *
+	 * @param location the location
+	 * @return the extension without its dot, or an empty string if there is none
+	 */
+	public static String extension(String location) {
+		int end = location.length();
+		int query = location.indexOf('?');
+		if (query >= 0) {
+			end = query;
+		}
+		int fragment = location.indexOf('#');
+		if (fragment >= 0 && fragment < end) {
+			end = fragment;
+		}
+		int slash = Math.max(location.lastIndexOf('/', end - 1), location.lastIndexOf('\\', end - 1));
+		int dot = location.lastIndexOf('.', end - 1);
+		if (dot <= slash) {
+			return "";
+		}
+		return location.substring(dot + 1, end).toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Returns the part of a location this filter looks at
+	 *
+	 * @return the kind of filter
+	 */
+	public Kind kind() {
+		return kind;
+	}
+
+	/**
+	 * Returns the prefix, host, or extension this filter keeps
+	 *
+	 * @return the value of the filter
+	 */
+	public String value() {
+		return value;
+	}
+
+	/**
+	 * Returns the prefixes every matching location starts with, so that a sorted
+	 * list of locations only needs to be checked within the range of each prefix
+	 *
+	 * @return the prefixes to look up, or an empty list if matches can be anywhere
+	 */
+	public List<String> prefixes() {
+		List<String> prefixes = new ArrayList<>();
+		switch (kind) {
+			case PATH -> prefixes.add(value);
+			case HOST -> {
+				for (String scheme : SCHEMES) {
+					prefixes.add(scheme + value);
+				}
+			}
+			default -> { }
+		}
+		return prefixes;
+	}
+
+	/**
+	 * Returns whether the location passes this filter
+	 *
+	 * @param location the location to check
+	 * @return true if the location should be kept
+	 */
+	public boolean matches(String location) {
+		return switch (kind) {
+			case PATH -> location.startsWith(value);
+			case EXTENSION -> extension(location).equals(value);
+			case HOST -> {
+				for (String scheme : SCHEMES) {
+					if (location.startsWith(scheme + value)) {
+						int end = scheme.length() + value.length();
+						if (end == location.length() || "/:?#".indexOf(location.charAt(end)) >= 0) {
+							yield true;
+						}
+					}
+				}
+				yield false;
+			}
+		};
+	}
+
+	/**
+	 * Returns the canonical form of this filter, which can be parsed back into an
+	 * equal filter
+	 */
+	@Override
+	public String toString() {
+		return switch (kind) {
+			case PATH -> "path:" + value;
+			case HOST -> "host:" + value;
+			case EXTENSION -> "ext:" + value;
+		};
+	}
+}
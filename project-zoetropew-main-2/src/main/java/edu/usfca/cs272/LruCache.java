@@ -0,0 +1,236 @@
+package edu.usfca.cs272;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded, thread safe cache that evicts the least recently used entries once
+ * it is full, and counts how often lookups find what they are looking for.
+ *
+ * <p>
+ * Lookups never wait for each other. Each entry remembers when it was last
+ * used, and once the cache holds more than its capacity, one thread evicts the
+ * entries used longest ago until an eighth of the capacity is free again. The
+ * eviction order is only approximate, since entries used during an eviction
+ * may still be evicted. While another thread is evicting, the cache can hold
+ * up to an eighth more than its capacity before adding an entry waits.
+ *
+ * @param <K> the type of key
+ * @param <V> the type of value stored for each key
+ *
+ * @author zoe
+ *
+ */
+public class LruCache<K, V> {
+
+	/**
+	 * The default number of entries to keep
+	 */
+	public static final int DEFAULT = 1024;
+
+	/**
+	 * The cached values by key
+	 */
+	private final ConcurrentHashMap<K, Entry<V>> cache;
+
+	/**
+	 * The most entries to keep
+	 */
+	private final int capacity;
+
+	/**
+	 * Held while evicting, so that only one thread evicts at a time
+	 */
+	private final ReentrantLock evicting;
+
+	/**
+	 * The number of lookups that found a cached value
+	 */
+	private final LongAdder hits;
+
+	/**
+	 * The number of lookups that did not find a cached value
+	 */
+	private final LongAdder misses;
+
+	/**
+	 * A cached value and when it was last used
+	 *
+	 * @param <V> the type of value
+	 */
+	private static class Entry<V> {
+
+		/**
+		 * The cached value
+		 */
+		private final V value;
+
+		/**
+		 * The time the value was last looked up or cached, in nanoseconds
+		 */
+		private volatile long used;
+
+		/**
+		 * Constructs an entry used now
+		 *
+		 * @param value the cached value
+		 */
+		public Entry(V value) {
+			this.value = value;
+			this.used = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Constructs a cache with the default capacity
+	 *
+	 * @see #LruCache(int)
+	 */
+	public LruCache() {
+		this(DEFAULT);
+	}
+
+	/**
+	 * Constructs a cache that holds about the given number of entries
+	 *
+	 * @param capacity the maximum number of entries to keep
+	 */
+	public LruCache(int capacity) {
+		this.cache = new ConcurrentHashMap<>();
+		this.capacity = capacity;
+		this.evicting = new ReentrantLock();
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+	}
+
+	/**
+	 * Returns the cached value of the key
+	 *
+	 * @param key the key to look up
+	 * @return the cached value or null if it is not cached
+	 */
+	public V get(K key) {
+		Entry<V> entry = cache.get(key);
+		if (entry == null) {
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		entry.used = System.nanoTime();
+		return entry.value;
+	}
+
+	/**
+	 * Caches the value of the key
+	 *
+	 * @param key the key
+	 * @param value the value of the key
+	 */
+	public void put(K key, V value) {
+		cache.put(key, new Entry<>(value));
+		int size = cache.size();
+		if (size <= capacity) {
+			return;
+		}
+		// only wait for another eviction once the cache is well past its capacity
+		if (size > capacity + capacity / 8) {
+			evicting.lock();
+		} else if (!evicting.tryLock()) {
+			return;
+		}
+		try {
+			evict();
+		} finally {
+			evicting.unlock();
+		}
+	}
+
+	/**
+	 * Removes the entries used longest ago until an eighth of the capacity is
+	 * free. Sorting every entry costs about as much as the puts since the last
+	 * eviction, so the cost of each put stays small.
+	 */
+	private void evict() {
+		List<Map.Entry<K, Entry<V>>> entries = new ArrayList<>(cache.entrySet());
+		int excess = entries.size() - (capacity - capacity / 8);
+		if (excess <= 0) {
+			return;
+		}
+		// read each time once, since other threads may still be using the entries
+		List<Map.Entry<Long, Map.Entry<K, Entry<V>>>> stamps = new ArrayList<>(entries.size());
+		for (Map.Entry<K, Entry<V>> entry : entries) {
+			stamps.add(Map.entry(entry.getValue().used, entry));
+		}
+		stamps.sort(Map.Entry.comparingByKey(Comparator.naturalOrder()));
+		for (int i = 0; i < excess; i++) {
+			Map.Entry<K, Entry<V>> oldest = stamps.get(i).getValue();
+			// leaves a value cached again since the entries were copied
+			cache.remove(oldest.getKey(), oldest.getValue());
+		}
+	}
+
+	/**
+	 * Removes the cached value of the key
+	 *
+	 * @param key the key to remove
+	 */
+	public void remove(K key) {
+		cache.remove(key);
+	}
+
+	/**
+	 * Removes every cached value
+	 */
+	public void clear() {
+		cache.clear();
+	}
+
+	/**
+	 * Returns the number of cached values
+	 *
+	 * @return the number of cached values
+	 */
+	public int size() {
+		return cache.size();
+	}
+
+	/**
+	 * Returns the number of lookups that found a cached value
+	 *
+	 * @return the number of hits
+	 */
+	public long hits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of lookups that did not find a cached value
+	 *
+	 * @return the number of misses
+	 */
+	public long misses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the fraction of lookups that found a cached value
+	 *
+	 * @return the hit rate between 0 and 1, or 0 if there were no lookups
+	 */
+	public double hitRate() {
+		long found = hits();
+		long total = found + misses();
+		return total == 0 ? 0 : (double) found / total;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("entries: %d, hits: %d, misses: %d, hit rate: %.2f%%",
+				size(), hits(), misses(), hitRate() * 100);
+	}
+}
@@ -0,0 +1,53 @@
+package edu.usfca.cs272;
+
+/**
+ * A bounded, thread safe cache of prefix expansions. The prefixes used longest
+ * ago are evicted once the cache is full. Since an expansion only changes when
+ * a word with that prefix is added, adding a word invalidates just the prefixes
+ * of that word instead of the whole cache.
+ *
+ * @param <V> the type of expansion stored for each prefix
+ *
+ * @author zoe
+ *
+ */
+public class PrefixCache<V> extends LruCache<String, V> {
+
+	/**
+	 * Constructs a cache with the default capacity
+	 *
+	 * @see #PrefixCache(int)
+	 */
+	public PrefixCache() {
+		this(DEFAULT);
+	}
+
+	/**
+	 * Constructs a cache that holds at most the given number of prefixes
+	 *
+	 * @param capacity the maximum number of prefixes to keep
+	 */
+	public PrefixCache(int capacity) {
+		super(capacity);
+	}
+
+	/**
+	 * Removes every cached prefix of a newly added word
+	 *
+	 * @param word the word that was added
+	 */
+	public void invalidate(String word) {
+		if (size() == 0) {
+			return;
+		}
+		for (int i = 0; i <= word.length(); i++) {
+			remove(word.substring(0, i));
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("prefixes: %d, hits: %d, misses: %d, hit rate: %.2f%%",
+				size(), hits(), misses(), hitRate() * 100);
+	}
+}
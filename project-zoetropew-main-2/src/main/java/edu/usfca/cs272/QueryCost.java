@@ -0,0 +1,78 @@
+package edu.usfca.cs272;
+
+/**
+ * An estimate of how much work a query will take before it is run, measured as
+ * the number of words its stems expand to and the number of postings those
+ * words have. Both numbers come from the per-prefix statistics of the term
+ * dictionary, so estimating a query never reads any postings.
+ *
+ * @author zoe
+ *
+ */
+public class QueryCost {
+
+	/**
+	 * The number of words the stems of the query expand to
+	 */
+	private final long words;
+
+	/**
+	 * The total number of locations across those words
+	 */
+	private final long postings;
+
+	/**
+	 * Constructs an estimate
+	 *
+	 * @param words the number of words the stems of the query expand to
+	 * @param postings the total number of locations across those words
+	 */
+	public QueryCost(long words, long postings) {
+		this.words = words;
+		this.postings = postings;
+	}
+
+	/**
+	 * Returns the number of words the stems of the query expand to
+	 *
+	 * @return the number of words
+	 */
+	public long getWords() {
+		return words;
+	}
+
+	/**
+	 * Returns the total number of locations across the words of the query, which
+	 * is the number of postings a search would read
+	 *
+	 * @return the number of postings
+	 */
+	public long getPostings() {
+		return postings;
+	}
+
+	/**
+	 * Returns the total work of the query, counting each word its stems expand to
+	 * as well as each posting those words have
+	 *
+	 * @return the number of words and postings
+	 */
+	public long getTotal() {
+		return words + postings;
+	}
+
+	/**
+	 * Returns the sum of this estimate and another
+	 *
+	 * @param other the other estimate
+	 * @return the combined estimate
+	 */
+	public QueryCost plus(QueryCost other) {
+		return new QueryCost(words + other.words, postings + other.postings);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("words: %d, postings: %d", words, postings);
+	}
+}
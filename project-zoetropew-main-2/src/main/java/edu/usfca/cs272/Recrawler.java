@@ -0,0 +1,434 @@
+package edu.usfca.cs272;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps crawled pages fresh by visiting them again from time to time. Each page
+ * keeps the validators its server sent, its "ETag" and "Last-Modified" headers,
+ * and sends them back with a conditional request, so a page that did not change
+ * costs a "304 Not Modified" response instead of a download. A page whose
+ * server sends no validators is downloaded, but only indexed again if its HTML
+ * is different from last time.
+ *
+ * <p>
+ * Each page has its own revisit interval, which is halved every time the page is
+ * found to have changed and doubled every time it has not, within fixed bounds.
+ * Pages that change often are soon visited about as often as they change, and
+ * pages that never change are left alone most of the time.
+ *
+ * @author zoe
+ *
+ */
+public class Recrawler {
+
+	/**
+	 * The default shortest time between visits to a page, in milliseconds
+	 */
+	public static final long DEFAULT_MIN_INTERVAL = 60 * 1000L;
+
+	/**
+	 * The default longest time between visits to a page, in milliseconds
+	 */
+	public static final long DEFAULT_MAX_INTERVAL = 24 * 60 * 60 * 1000L;
+
+	/**
+	 * The longest time between checks for pages that are due, in milliseconds
+	 */
+	private static final long TICK = 1000;
+
+	/**
+	 * The timer that checks for pages that are due, shared by every recrawler
+	 */
+	private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(task -> {
+		Thread thread = new Thread(task, "Recrawler");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * What a visit to a page found
+	 */
+	public enum Outcome {
+		/** The server said the page has not changed */
+		NOT_MODIFIED,
+		/** The page was downloaded but has not changed */
+		UNCHANGED,
+		/** The page changed and was indexed again */
+		CHANGED,
+		/** The page could not be fetched */
+		FAILED
+	}
+
+	/**
+	 * The crawler that indexes pages that changed
+	 */
+	private final WebCrawler crawler;
+
+	/**
+	 * The work queue to visit pages on, or null to visit them one at a time
+	 */
+	private final WorkQueue queue;
+
+	/**
+	 * The shortest time between visits to a page, in milliseconds
+	 */
+	private final long minInterval;
+
+	/**
+	 * The longest time between visits to a page, in milliseconds
+	 */
+	private final long maxInterval;
+
+	/**
+	 * Every page tracked, by its normalized location
+	 */
+	private final Map<String, Page> pages;
+
+	/**
+	 * The pages waiting for their next visit, soonest first. A page being visited
+	 * is not in the queue.
+	 */
+	private final PriorityQueue<Page> due;
+
+	/**
+	 * The timer task that checks for pages that are due, or null if not started
+	 */
+	private ScheduledFuture<?> task;
+
+	/**
+	 * The number of visits that ended with each outcome, indexed by ordinal
+	 */
+	private final long[] outcomes;
+
+	/**
+	 * Constructs a recrawler with the default intervals
+	 *
+	 * @param crawler the crawler that indexes pages that changed
+	 * @param queue the work queue to visit pages on, or null to visit them one at
+	 *   a time
+	 *
+	 * @see #Recrawler(WebCrawler, WorkQueue, long, long)
+	 */
+	public Recrawler(WebCrawler crawler, WorkQueue queue) {
+		this(crawler, queue, DEFAULT_MIN_INTERVAL, DEFAULT_MAX_INTERVAL);
+	}
+
+	/**
+	 * Constructs a recrawler. Pages are first visited again after the shortest
+	 * interval.
+	 *
+	 * @param crawler the crawler that indexes pages that changed
+	 * @param queue the work queue to visit pages on, or null to visit them one at
+	 *   a time
+	 * @param minInterval the shortest time between visits to a page, in
+	 *   milliseconds
+	 * @param maxInterval the longest time between visits to a page, in
+	 *   milliseconds
+	 */
+	public Recrawler(WebCrawler crawler, WorkQueue queue, long minInterval, long maxInterval) {
+		this.crawler = crawler;
+		this.queue = queue;
+		this.minInterval = Math.max(minInterval, 1);
+		this.maxInterval = Math.max(maxInterval, this.minInterval);
+		this.pages = new HashMap<>();
+		this.due = new PriorityQueue<>(Comparator.comparingLong(page -> page.next));
+		this.task = null;
+		this.outcomes = new long[Outcome.values().length];
+	}
+
+	/**
+	 * Returns the key a page is tracked by, which is its location normalized the
+	 * same way as links are when crawling
+	 *
+	 * @param location the location of the page
+	 * @return the normalized location, or the location as it is if it is not a
+	 *   valid url
+	 *
+	 * @see SeenSet#key(URL)
+	 */
+	private static String key(String location) {
+		try {
+			return SeenSet.key(new URL(location));
+		} catch (MalformedURLException e) {
+			return location;
+		}
+	}
+
+	/**
+	 * Starts tracking a page that was just crawled, along with the validators its
+	 * server sent, so even the first visit can be a conditional request. Pages
+	 * already tracked are left as they are.
+	 *
+	 * @param location the location the page was indexed under
+	 * @param html the html of the page
+	 * @param validators the "ETag" and "Last-Modified" headers of the page by
+	 *   name, or null if there were none
+	 */
+	public synchronized void add(String location, String html, Map<String, String> validators) {
+		String key = key(location);
+		if (!pages.containsKey(key)) {
+			Page page = new Page(location, SeenSet.fingerprint(html), minInterval);
+			if (validators != null) {
+				page.etag = validators.get("ETag");
+				page.modified = validators.get("Last-Modified");
+			}
+			page.next = System.currentTimeMillis() + minInterval;
+			pages.put(key, page);
+			due.add(page);
+		}
+	}
+
+	/**
+	 * Returns whether a page is tracked
+	 *
+	 * @param location the location of the page, in any form that normalizes to
+	 *   the same link
+	 * @return true if the page is tracked
+	 */
+	public synchronized boolean contains(String location) {
+		return pages.containsKey(key(location));
+	}
+
+	/**
+	 * Returns the current revisit interval of a page
+	 *
+	 * @param location the location of the page, in any form that normalizes to
+	 *   the same link
+	 * @return the interval in milliseconds, or -1 if the page is not tracked
+	 */
+	public synchronized long getInterval(String location) {
+		Page page = pages.get(key(location));
+		return page == null ? -1 : page.interval;
+	}
+
+	/**
+	 * Returns the number of pages tracked
+	 *
+	 * @return the number of pages
+	 */
+	public synchronized int size() {
+		return pages.size();
+	}
+
+	/**
+	 * Visits a page right away, instead of when it is due
+	 *
+	 * @param location the location of the page, in any form that normalizes to
+	 *   the same link
+	 * @return what the visit found, or null if the page is not tracked or is being
+	 *   visited already
+	 */
+	public Outcome refresh(String location) {
+		Page page;
+		synchronized (this) {
+			page = pages.get(key(location));
+			if (page == null || !due.remove(page)) {
+				return null;
+			}
+		}
+		return visit(page);
+	}
+
+	/**
+	 * Visits every page that is due, and waits for the visits to finish
+	 *
+	 * @return the number of pages visited
+	 */
+	public int refreshDue() {
+		List<Page> ready = new ArrayList<>();
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+			while (!due.isEmpty() && due.peek().next <= now) {
+				ready.add(due.poll());
+			}
+		}
+		if (queue == null) {
+			for (Page page : ready) {
+				visit(page);
+			}
+			return ready.size();
+		}
+
+		CountDownLatch visited = new CountDownLatch(ready.size());
+		for (Page page : ready) {
+			queue.execute(() -> {
+				try {
+					visit(page);
+				} finally {
+					visited.countDown();
+				}
+			});
+		}
+		try {
+			visited.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return ready.size();
+	}
+
+	/**
+	 * Starts visiting pages in the background as they become due
+	 */
+	public synchronized void start() {
+		if (task == null) {
+			long tick = Math.min(minInterval, TICK);
+			task = TIMER.scheduleWithFixedDelay(this::refreshDue, tick, tick, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Stops visiting pages in the background. A check that already started is
+	 * allowed to finish.
+	 */
+	public synchronized void stop() {
+		if (task != null) {
+			task.cancel(false);
+			task = null;
+		}
+	}
+
+	/**
+	 * Visits a page that was taken out of the queue, and puts it back with its
+	 * next visit scheduled
+	 *
+	 * @param page the page
+	 * @return what the visit found
+	 */
+	private Outcome visit(Page page) {
+		Outcome outcome;
+		try {
+			outcome = fetch(page);
+		} catch (IOException | RuntimeException e) {
+			outcome = Outcome.FAILED;
+		}
+
+		synchronized (this) {
+			outcomes[outcome.ordinal()]++;
+			if (outcome == Outcome.CHANGED) {
+				page.interval = Math.max(page.interval / 2, minInterval);
+			} else if (outcome != Outcome.FAILED) {
+				page.interval = Math.min(page.interval * 2, maxInterval);
+			}
+			page.next = System.currentTimeMillis() + page.interval;
+			due.add(page);
+		}
+		return outcome;
+	}
+
+	/**
+	 * Fetches a page with a conditional request, following redirects with the
+	 * same validators, and indexes it again if it changed
+	 *
+	 * @param page the page
+	 * @return what the visit found
+	 * @throws IOException if unable to fetch the page
+	 */
+	private Outcome fetch(Page page) throws IOException {
+		Map<String, String> conditions = new HashMap<>();
+		if (page.etag != null) {
+			conditions.put("If-None-Match", page.etag);
+		}
+		if (page.modified != null) {
+			conditions.put("If-Modified-Since", page.modified);
+		}
+
+		URL url = new URL(page.location);
+		String html = null;
+		for (int redirects = 3; html == null && url != null; redirects--) {
+			Map<String, List<String>> headers = HttpsFetcher.fetchUrl(url, conditions,
+					h -> HtmlFetcher.getStatusCode(h) == 200 && HtmlFetcher.isHtml(h), HttpsFetcher.getPool());
+			int status = HtmlFetcher.getStatusCode(headers);
+			if (status == 304) {
+				return Outcome.NOT_MODIFIED;
+			}
+			if (status == 200 && HtmlFetcher.isHtml(headers)) {
+				html = String.join("\n", headers.get("Content"));
+				page.etag = HttpsFetcher.getHeader(headers, "ETag");
+				page.modified = HttpsFetcher.getHeader(headers, "Last-Modified");
+			} else {
+				String redirect = HtmlFetcher.getRedirect(headers);
+				url = redirect != null && redirects > 0 ? new URL(url, redirect) : null;
+			}
+		}
+		if (html == null) {
+			return Outcome.FAILED;
+		}
+
+		long print = SeenSet.fingerprint(html);
+		if (print == page.print) {
+			return Outcome.UNCHANGED;
+		}
+		page.print = print;
+		crawler.reindex(page.location, html);
+		return Outcome.CHANGED;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d pages, %d due, not modified: %d, unchanged: %d, changed: %d, failed: %d",
+				pages.size(), due.size(), outcomes[0], outcomes[1], outcomes[2], outcomes[3]);
+	}
+
+	/**
+	 * A page being kept fresh
+	 */
+	private static class Page {
+
+		/**
+		 * The location the page was indexed under
+		 */
+		private final String location;
+
+		/**
+		 * The "ETag" header of the last download, or null if there was none
+		 */
+		private String etag;
+
+		/**
+		 * The "Last-Modified" header of the last download, or null if there was none
+		 */
+		private String modified;
+
+		/**
+		 * The fingerprint of the html last indexed
+		 */
+		private long print;
+
+		/**
+		 * The time between visits, in milliseconds
+		 */
+		private long interval;
+
+		/**
+		 * When the page is next due, in milliseconds since the epoch
+		 */
+		private long next;
+
+		/**
+		 * Constructs a page
+		 *
+		 * @param location the location the page was indexed under
+		 * @param print the fingerprint of the html indexed
+		 * @param interval the time between visits, in milliseconds
+		 */
+		public Page(String location, long print, long interval) {
+			this.location = location;
+			this.print = print;
+			this.interval = interval;
+		}
+	}
+}
@@ -0,0 +1,242 @@
+package edu.usfca.cs272;
+
+import java.util.Collections;
+import java.util.List;
+
+import edu.usfca.cs272.InvertedIndex.Result;
+
+/**
+ * One page of ranked search results. A page starts at a cursor, which is the
+ * rank of its first result, and the cursor of the next page is only given if
+ * there are more results after this one.
+ *
+ * @author zoe
+ *
+ */
+public class ResultPage {
+
+	/**
+	 * The number of results on a page if no size is given
+	 */
+	public static final int DEFAULT_SIZE = 10;
+
+	/**
+	 * The most results allowed on a single page
+	 */
+	public static final int MAX_SIZE = 100;
+
+	/**
+	 * The results on this page
+	 */
+	private final List<Result> results;
+
+	/**
+	 * The rank of the first result on this page, starting at 0
+	 */
+	private final int cursor;
+
+	/**
+	 * The most results on this page
+	 */
+	private final int size;
+
+	/**
+	 * Whether there are more results after this page
+	 */
+	private final boolean more;
+
+	/**
+	 * Whether the results are from partial search rather than exact search
+	 */
+	private final boolean partial;
+
+	/**
+	 * Whether the search ran out of time, so the results are only the best found
+	 * before the deadline
+	 */
+	private final boolean timedOut;
+
+	/**
+	 * Whether the query was only allowed to rank its first page, so this is the
+	 * first page whichever page was asked for
+	 */
+	private final boolean limited;
+
+	/**
+	 * Constructs a page
+	 *
+	 * @param results the results on this page
+	 * @param cursor the rank of the first result on this page
+	 * @param size the most results on this page
+	 * @param more whether there are more results after this page
+	 * @param partial whether the results are from partial search
+	 * @param timedOut whether the search ran out of time
+	 * @param limited whether the query was only allowed to rank its first page
+	 */
+	private ResultPage(List<Result> results, int cursor, int size, boolean more, boolean partial, boolean timedOut, boolean limited) {
+		this.results = results;
+		this.cursor = cursor;
+		this.size = size;
+		this.more = more;
+		this.partial = partial;
+		this.timedOut = timedOut;
+		this.limited = limited;
+	}
+
+	/**
+	 * Cuts a page out of ranked results. The ranked results only need to include
+	 * one result past the end of the page to know whether there is a next page.
+	 *
+	 * @param ranked the results in ranked order
+	 * @param cursor the rank of the first result on the page
+	 * @param size the most results on the page
+	 * @param partial whether the results are from partial search
+	 * @return the page
+	 */
+	public static ResultPage of(List<Result> ranked, int cursor, int size, boolean partial) {
+		return of(ranked, cursor, size, partial, false);
+	}
+
+	/**
+	 * Cuts a page out of ranked results that may have been cut short by a deadline
+	 *
+	 * @param ranked the results in ranked order
+	 * @param cursor the rank of the first result on the page
+	 * @param size the most results on the page
+	 * @param partial whether the results are from partial search
+	 * @param timedOut whether the search ran out of time
+	 * @return the page
+	 */
+	public static ResultPage of(List<Result> ranked, int cursor, int size, boolean partial, boolean timedOut) {
+		int from = Math.min(cursor, ranked.size());
+		int to = Math.min(from + size, ranked.size());
+		return new ResultPage(ranked.subList(from, to), cursor, size, ranked.size() > to, partial, timedOut, false);
+	}
+
+	/**
+	 * Returns this page as the only page of a query that was only allowed to rank
+	 * its first page. The returned page has no next page and is marked as limited,
+	 * so a client that asked for a later page can tell it got the first instead.
+	 *
+	 * @return the limited first page, which must have been cut out at cursor 0
+	 */
+	public ResultPage firstOnly() {
+		return new ResultPage(results, 0, size, false, partial, timedOut, true);
+	}
+
+	/**
+	 * Returns the number of ranked results needed to cut out a page, which is one
+	 * more than the end of the page. Pages too far down to count are treated as
+	 * needing every result.
+	 *
+	 * @param cursor the rank of the first result on the page, at least 0
+	 * @param size the most results on the page, at least 0
+	 * @return the number of results to rank, at most {@link Integer#MAX_VALUE}
+	 */
+	public static int limit(int cursor, int size) {
+		return (int) Math.min((long) cursor + size + 1, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the page size to use for a requested size
+	 *
+	 * @param size the requested size
+	 * @return the size clamped between 1 and {@link #MAX_SIZE}, or
+	 *   {@link #DEFAULT_SIZE} if the requested size is not positive
+	 */
+	public static int size(int size) {
+		if (size <= 0) {
+			return DEFAULT_SIZE;
+		}
+		return Math.min(size, MAX_SIZE);
+	}
+
+	/**
+	 * Returns an unmodifiable view of the results on this page
+	 *
+	 * @return the results on this page
+	 */
+	public List<Result> viewResults() {
+		return Collections.unmodifiableList(results);
+	}
+
+	/**
+	 * Returns the rank of the first result on this page
+	 *
+	 * @return the cursor of this page
+	 */
+	public int getCursor() {
+		return cursor;
+	}
+
+	/**
+	 * Returns the most results on this page
+	 *
+	 * @return the page size
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns whether there are more results after this page
+	 *
+	 * @return true if there is a next page
+	 */
+	public boolean hasNext() {
+		return more;
+	}
+
+	/**
+	 * Returns whether the results are from partial search, which is not the case
+	 * if exact search was asked for or a partial query was run as exact search
+	 *
+	 * @return true if the results are from partial search
+	 */
+	public boolean isPartial() {
+		return partial;
+	}
+
+	/**
+	 * Returns whether the search ran out of time, in which case the results are
+	 * only the best found before the deadline
+	 *
+	 * @return true if the results may be incomplete
+	 */
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+
+	/**
+	 * Returns whether the query was only allowed to rank its first page, in which
+	 * case this is the first page whichever page was asked for
+	 *
+	 * @return true if no other page can be shown
+	 */
+	public boolean isLimited() {
+		return limited;
+	}
+
+	/**
+	 * Returns the cursor of the next page
+	 *
+	 * @return the cursor of the next page, or -1 if this is the last page
+	 */
+	public int nextCursor() {
+		return more ? cursor + size : -1;
+	}
+
+	/**
+	 * Returns the cursor of the previous page
+	 *
+	 * @return the cursor of the previous page, or -1 if this is the first page
+	 */
+	public int previousCursor() {
+		return cursor > 0 ? Math.max(cursor - size, 0) : -1;
+	}
+
+	@Override
+	public String toString() {
+		return results.toString();
+	}
+}
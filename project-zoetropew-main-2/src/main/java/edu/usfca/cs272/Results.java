@@ -9,7 +9,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
 
 import opennlp.tools.stemmer.Stemmer;
 import opennlp.tools.stemmer.snowball.SnowballStemmer;
@@ -53,8 +52,8 @@ public class Results implements ResultsInterface {
 	}
 
 	@Override
-	public List<InvertedIndex.Result> viewResults(String query) {
-		String queryLine = String.join(" ", FileStemmer.uniqueStems(query, stemmer));
+	public List<InvertedIndex.Result> viewResults(String query, LocationFilter filter) {
+		String queryLine = ResultsInterface.key(SearchQuery.plain(query, stemmer), filter);
 		if(this.results.containsKey(queryLine)) {
 			return Collections.unmodifiableList(this.results.get(queryLine));
 		}
@@ -62,16 +61,24 @@ public class Results implements ResultsInterface {
 	}
 
 	@Override
-	public void readQueries(String line, boolean partial) {
-		TreeSet<String> words = FileStemmer.uniqueStems(line, stemmer);
-		if (!words.isEmpty()) {
-			String queryLine = String.join(" ", words);
+	public void readQueries(String line, boolean partial, LocationFilter filter) {
+		SearchQuery search = SearchQuery.plain(line, stemmer);
+		if (!search.isEmpty()) {
+			String queryLine = ResultsInterface.key(search, filter);
 			if (results.get(queryLine) == null) {
-				this.results.put(queryLine, this.index.search(words, partial));
+				this.results.put(queryLine, this.index.search(search, partial, filter));
 			}
 		}
 	}
 
+	@Override
+	public ResultPage searchPage(String line, boolean partial, LocationFilter filter, int cursor, int size, Deadline deadline) {
+		SearchQuery search = SearchQuery.parse(line, stemmer);
+		List<InvertedIndex.Result> ranked = search.isEmpty() ? Collections.emptyList()
+				: this.index.search(search, partial, filter, ResultPage.limit(cursor, size), deadline);
+		return ResultPage.of(ranked, cursor, size, partial, deadline.wasReached());
+	}
+
 	@Override
 	public void writeResults(Path output) throws IOException {
 		JsonWriter.writeObjectArrayResults(this.results, output);
@@ -29,7 +29,19 @@ public interface ResultsInterface {
 	 * @param query the query
 	 * @return the set of results
 	 */
-	public List<InvertedIndex.Result> viewResults(String query);
+	public default List<InvertedIndex.Result> viewResults(String query) {
+		return viewResults(query, null);
+	}
+
+	/**
+	 * Returns an unmodifiable view of the results for a specific query searched
+	 * with a location filter
+	 * 
+	 * @param query the query
+	 * @param filter the location filter the query was searched with, or null
+	 * @return the set of results
+	 */
+	public List<InvertedIndex.Result> viewResults(String query, LocationFilter filter);
 
 	/**
 	 * Returns whether the given query is in the results
@@ -79,10 +91,23 @@ public interface ResultsInterface {
 	 * @throws IOException if an IO error occurs
 	 */
 	public default void readQueries(Path file, boolean partial) throws IOException {
+		readQueries(file, partial, null);
+	}
+
+	/**
+	 * Read queries from a file line by line, keeping only results from locations
+	 * that pass the filter
+	 * 
+	 * @param file the file to read queries from
+	 * @param partial whether to search for partial or exact
+	 * @param filter the locations to keep, or null to keep every location
+	 * @throws IOException if an IO error occurs
+	 */
+	public default void readQueries(Path file, boolean partial, LocationFilter filter) throws IOException {
 		try(BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)){
 			String line;
 			while ((line = br.readLine()) != null) {
-				readQueries(line, partial);
+				readQueries(line, partial, filter);
 			}
 		}
 	}
@@ -93,7 +118,52 @@ public interface ResultsInterface {
 	 * @param line the line of queries to read
 	 * @param partial whether to search for partial or exact
 	 */
-	public void readQueries(String line, boolean partial);
+	public default void readQueries(String line, boolean partial) {
+		readQueries(line, partial, null);
+	}
+
+	/**
+	 * Finds and stores results based on a single query line, keeping only results
+	 * from locations that pass the filter. The line is stemmed without any
+	 * operators, as in {@link SearchQuery#plain(String)}.
+	 * 
+	 * @param line the line of queries to read
+	 * @param partial whether to search for partial or exact
+	 * @param filter the locations to keep, or null to keep every location
+	 */
+	public void readQueries(String line, boolean partial, LocationFilter filter);
+
+	/**
+	 * Finds one page of results for a query line. Results ranked for the same
+	 * query and mode since the index last changed may be reused, and otherwise
+	 * only the results up to the end of the page are ranked. If the deadline
+	 * passes during the search, the page holds the best results found so far and
+	 * is marked as timed out.
+	 * 
+	 * @param line the query line to search for
+	 * @param partial whether to search for partial or exact
+	 * @param filter the locations to keep, or null to keep every location
+	 * @param cursor the rank of the first result on the page, starting at 0
+	 * @param size the most results on the page
+	 * @param deadline when to stop searching
+	 * @return the page of results
+	 */
+	public ResultPage searchPage(String line, boolean partial, LocationFilter filter, int cursor, int size, Deadline deadline);
+
+	/**
+	 * Returns the key results are stored under for a query and filter. Unfiltered
+	 * queries are stored under their canonical query line alone.
+	 * 
+	 * @param query the parsed query
+	 * @param filter the location filter, or null
+	 * @return the key for the results
+	 */
+	public static String key(SearchQuery query, LocationFilter filter) {
+		if (filter == null) {
+			return query.toString();
+		}
+		return query + " [" + filter + "]";
+	}
 
 	/**
 	 * Writes the results as JSON to the specified path
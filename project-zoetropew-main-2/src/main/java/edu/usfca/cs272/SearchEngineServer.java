@@ -9,19 +9,25 @@ import java.io.PrintWriter;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLEncoder;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.SortedSet;
 
 import org.apache.commons.text.StringEscapeUtils;
 import org.apache.commons.text.StringSubstitutor;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.servlet.ServletHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 
+import edu.usfca.cs272.DocumentStore.Snippet;
 import edu.usfca.cs272.InvertedIndex.Result;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServlet;
@@ -36,6 +42,9 @@ import jakarta.servlet.http.HttpServletResponse;
  */
 public class SearchEngineServer {
 
+	/** Logger used for this class. */
+	private static final Logger log = LogManager.getLogger();
+
 	/**
 	 * The results to store to and read from
 	 */
@@ -52,10 +61,37 @@ public class SearchEngineServer {
 	private final WebCrawler crawler;
 
 	/**
-	 * The index to search
+	 * The index to browse and download
 	 */
 	private final ThreadedIndex index;
 
+	/**
+	 * The index or indexes that queries are run against
+	 */
+	private final Searchable source;
+
+	/**
+	 * The milliseconds a search may take before the best results found so far are
+	 * shown, or 0 for no limit
+	 */
+	private final long timeout;
+
+	/**
+	 * Decides how to run queries that are estimated to be expensive
+	 */
+	private final AdmissionPolicy admission;
+
+	/**
+	 * The stored text of each document for snippets, or null to show results
+	 * without snippets
+	 */
+	private final DocumentStore documents;
+
+	/**
+	 * The default time limit for a search in milliseconds
+	 */
+	public static final long DEFAULT_TIMEOUT = 2000;
+
 	/** 
 	 * Base path with HTML templates
 	 */
@@ -77,14 +113,24 @@ public class SearchEngineServer {
 	 * @param results the results to store to and read from
 	 * @param queue the queue to use
 	 * @param crawler the crawler
-	 * @param index the index to search
+	 * @param index the index to browse and download
+	 * @param source the index or indexes that queries are run against, which is
+	 *   usually the same index
+	 * @param timeout the milliseconds a search may take, or 0 for no limit
+	 * @param admission how to run queries that are estimated to be expensive
+	 * @param documents the stored text of each document for snippets, or null to
+	 *   show results without snippets
 	 * @throws IOException if an IOException occurs
 	 */
-	public SearchEngineServer(ThreadedResults results, WorkQueue queue, WebCrawler crawler, ThreadedIndex index) throws IOException {
+	public SearchEngineServer(ThreadedResults results, WorkQueue queue, WebCrawler crawler, ThreadedIndex index, Searchable source, long timeout, AdmissionPolicy admission, DocumentStore documents) throws IOException {
 		this.results = results;
 		this.queue = queue;
 		this.crawler = crawler;
 		this.index = index;
+		this.source = source;
+		this.timeout = timeout;
+		this.admission = admission;
+		this.documents = documents;
 
 		// load templates
 		headTemplate = Files.readString(base.resolve("head.html"), UTF_8);
@@ -104,6 +150,7 @@ public class SearchEngineServer {
 		System.out.println("Server started with thread: " + Thread.currentThread().getName());
 		ServletHandler handler = new ServletHandler();
 		handler.addServletWithMapping(new ServletHolder(new SearchEngineServlet()), "/");
+		handler.addServletWithMapping(new ServletHolder(new ApiServlet()), "/api/search");
 		handler.addServletWithMapping(new ServletHolder(new CrawlServlet()), "/addSeed");
 		handler.addServletWithMapping(new ServletHolder(new BrowseServlet()), "/browse");
 		handler.addServletWithMapping(new ServletHolder(new LocationsServlet()), "/browseLocations");
@@ -113,6 +160,157 @@ public class SearchEngineServer {
 		server.join();
 	}
 
+	/**
+	 * Returns an integer request parameter
+	 * 
+	 * @param request the request
+	 * @param name the name of the parameter
+	 * @param backup the value to use if the parameter is missing or not a number
+	 * @return the value of the parameter
+	 */
+	private static int getInteger(HttpServletRequest request, String name, int backup) {
+		String value = request.getParameter(name);
+		if (value != null) {
+			try {
+				return Integer.parseInt(value);
+			} catch (NumberFormatException e) {
+				System.out.println("could not parse " + name + ": " + value);
+			}
+		}
+		return backup;
+	}
+
+	/**
+	 * Rewrites the query to allow typos if the request asks for them
+	 * 
+	 * @param request the request
+	 * @param query the query line
+	 * @return the query line to search for
+	 */
+	private static String allowTypos(HttpServletRequest request, String query) {
+		int distance = getInteger(request, "fuzzy", 0);
+		if (distance > 0 && !query.isEmpty()) {
+			query = SearchQuery.fuzzy(query, Math.min(distance, LevenshteinAutomaton.MAX_DISTANCE));
+		}
+		return query;
+	}
+
+	/**
+	 * Returns whether the request asks for partial search, which is the default
+	 * unless the request asks for exact words only
+	 * 
+	 * @param request the request
+	 * @return true to run partial search
+	 */
+	private static boolean isPartial(HttpServletRequest request) {
+		return request.getParameter("exact") == null;
+	}
+
+	/**
+	 * Returns a link to another page of the same search
+	 * 
+	 * @param request the request for the current page
+	 * @param cursor the cursor of the other page
+	 * @return the link, escaped for use in HTML
+	 */
+	private static String pageLink(HttpServletRequest request, int cursor) {
+		StringBuilder link = new StringBuilder(request.getServletPath()).append("?cursor=").append(cursor);
+		for (String name : List.of("query", "fuzzy", "exact", "location", "size")) {
+			String value = request.getParameter(name);
+			if (value != null) {
+				link.append('&').append(name).append('=').append(URLEncoder.encode(value, UTF_8));
+			}
+		}
+		return StringEscapeUtils.escapeHtml4(link.toString());
+	}
+
+	/**
+	 * Searches for one page of results after estimating the cost of the query in
+	 * the requested mode. A query that costs more than the admission policy allows
+	 * is rejected, run as an exact search, limited to its first page, or given a
+	 * shorter deadline. A query limited to its first page gets the first page no
+	 * matter which page was asked for, and the page says so.
+	 * 
+	 * @param query the query line
+	 * @param partial whether partial search was requested
+	 * @param filter the locations to keep, or null to keep every location
+	 * @param cursor the rank of the first result on the page
+	 * @param size the most results on the page
+	 * @return the page of results, or null if the query was rejected
+	 */
+	private ResultPage search(String query, boolean partial, LocationFilter filter, int cursor, int size) {
+		QueryCost cost = source.estimate(SearchQuery.parse(query), partial);
+		AdmissionPolicy.Action action = admission.admit(cost);
+		log.debug("Cost: {}, admission: {}", cost, action);
+
+		long budget = timeout;
+		switch (action) {
+			case REJECT -> {
+				log.debug("Admission: {}", admission);
+				return null;
+			}
+			case EXACT -> partial = false;
+			case TOP_K -> cursor = 0;
+			case DEADLINE -> budget = timeout > 0 ? Math.min(timeout, admission.getDegradedTimeout()) : admission.getDegradedTimeout();
+			default -> { }
+		}
+
+		ResultPage page = results.searchPage(query, partial, filter, cursor, size, Deadline.after(budget));
+		if (action == AdmissionPolicy.Action.TOP_K) {
+			// only the first page is ranked, so there is no next page to link to
+			page = page.firstOnly();
+		}
+		if (page.isTimedOut()) {
+			log.debug("Query timed out after {} ms: {}", budget, query);
+		}
+		log.debug("Prefix cache: {}", source.prefixCacheStats());
+		log.debug("Page cache: {}", results.pageCacheStats());
+		log.debug("Admission: {}", admission);
+		return page;
+	}
+
+	/**
+	 * Returns the snippet of each result as HTML, with the words that matched the
+	 * query highlighted
+	 * 
+	 * @param query the query line
+	 * @param partial whether the results are from partial search, so that only
+	 *   the words that matched are highlighted
+	 * @param list the results to show snippets for
+	 * @return the snippet of each result by location, which is empty if no text
+	 *   is stored
+	 */
+	private Map<String, String> snippets(String query, boolean partial, List<Result> list) {
+		Map<String, String> snippets = new HashMap<>();
+		if (documents == null || list.isEmpty()) {
+			return snippets;
+		}
+
+		long start = System.nanoTime();
+		List<String> locations = new ArrayList<>();
+		for (Result result : list) {
+			locations.add(result.getLocation());
+		}
+		Map<String, SortedSet<Integer>> positions = source.positions(SearchQuery.parse(query), partial, locations);
+		for (String location : locations) {
+			Snippet snippet = documents.snippet(location, positions.get(location), DocumentStore.DEFAULT_RADIUS);
+			if (snippet == null) {
+				continue;
+			}
+			StringBuilder html = new StringBuilder(snippet.hasBefore() ? "&hellip; " : "");
+			List<String> words = snippet.viewWords();
+			for (int i = 0; i < words.size(); i++) {
+				String word = StringEscapeUtils.escapeHtml4(words.get(i));
+				html.append(i > 0 ? " " : "").append(snippet.isMatch(i) ? "<mark>" + word + "</mark>" : word);
+			}
+			snippets.put(location, html.append(snippet.hasAfter() ? " &hellip;" : "").toString());
+		}
+		if (log.isDebugEnabled()) {
+			log.debug(String.format("Snippets: %d in %.3f ms, store %s", snippets.size(), (System.nanoTime() - start) / 1e6, documents));
+		}
+		return snippets;
+	}
+
 	/**
 	 * Servlet for search engine using Bulma
 	 *
@@ -167,12 +365,19 @@ public class SearchEngineServer {
 				values.put("query", "Searching for \"" + query + "\"");
 			}
 
+			// Allow typos if requested
+			query = allowTypos(request, query);
+
+			// Only search some locations if requested
+			LocationFilter filter = LocationFilter.parse(request.getParameter("location"));
+
+			// Only rank up to the requested page
+			int cursor = Math.max(getInteger(request, "cursor", 0), 0);
+			int size = ResultPage.size(getInteger(request, "size", 0));
+
 			// Process queries
 			System.out.println("Query: " + query);
-			synchronized (results) {
-				results.readQueries(query, true);
-			}
-			queue.finish();
+			ResultPage page = query.isEmpty() ? null : search(query, isPartial(request), filter, cursor, size);
 
 			// Replace values in template
 			StringSubstitutor replacer = new StringSubstitutor(values);
@@ -181,17 +386,39 @@ public class SearchEngineServer {
 			out.println(replacer.replace(searchTemplate));
 			if (query.equals("")) {
 				out.printf("    <p class=\"has-text-centered\">Nothing to search.</p>%n");
+			} else if (page == null) {
+				out.printf("    <p class=\"has-text-centered\">Query too broad, try adding more words or letters.</p>%n");
 			} else {
-				List<Result> list;
-				synchronized (results) {
-					list = results.viewResults(query);
+				if (request.getParameter("explain") != null) {
+					String plan = source.explain(SearchQuery.parse(query), page.isPartial(), filter);
+					out.printf("    <pre>%s</pre>%n", StringEscapeUtils.escapeHtml4(plan));
+				}
+				List<Result> list = page.viewResults();
+				if (page.isTimedOut()) {
+					out.printf("    <p class=\"has-text-centered\">Search took too long, showing the best results found so far.</p>%n");
+				}
+				if (isPartial(request) && !page.isPartial()) {
+					out.printf("    <p class=\"has-text-centered\">Query too broad to match partial words, showing whole word matches only.</p>%n");
+				}
+				if (page.isLimited()) {
+					out.printf("    <p class=\"has-text-centered\">Query too broad to page through, showing the first page only.</p>%n");
 				}
 				if (list.size() != 0) {
+					Map<String, String> snippets = snippets(query, page.isPartial(), list);
 					for (Result result : list) {
-						Map<String, Object> map = Map.of("location", result.getLocation(), "count", result.getCount(), "score", result.getScore());
+						String snippet = snippets.getOrDefault(result.getLocation(), "");
+						Map<String, Object> map = Map.of("location", result.getLocation(), "count", result.getCount(), "score", result.getScore(), "snippet", snippet);
 						String html = StringSubstitutor.replace(textTemplate, map);
 						out.println(html);
 					}
+					out.printf("    <nav class=\"pagination is-centered\">%n");
+					if (page.previousCursor() >= 0) {
+						out.printf("      <a class=\"pagination-previous\" href=\"%s\">Previous</a>%n", pageLink(request, page.previousCursor()));
+					}
+					if (page.hasNext()) {
+						out.printf("      <a class=\"pagination-next\" href=\"%s\">Next</a>%n", pageLink(request, page.nextCursor()));
+					}
+					out.printf("    </nav>%n");
 				} else {
 					out.printf("    <p class=\"has-text-centered\">No results found.</p>%n");
 				}
@@ -204,6 +431,46 @@ public class SearchEngineServer {
 		}
 	}
 
+	/**
+	 * Servlet for fetching one page of search results as JSON
+	 *
+	 * @author zoe
+	 */
+	private class ApiServlet extends HttpServlet {
+
+		/** 
+		 * For serialization
+		 */
+		private static final long serialVersionUID = 302;
+
+		@Override
+		protected void doGet(HttpServletRequest request, HttpServletResponse response)
+				throws ServletException, IOException {
+			String query = request.getParameter("query");
+			if (query == null) {
+				query = "";
+			}
+			query = allowTypos(request, query);
+			LocationFilter filter = LocationFilter.parse(request.getParameter("location"));
+			int cursor = Math.max(getInteger(request, "cursor", 0), 0);
+			int size = ResultPage.size(getInteger(request, "size", 0));
+
+			ResultPage page = search(query, isPartial(request), filter, cursor, size);
+
+			response.setContentType("application/json");
+			response.setCharacterEncoding("UTF-8");
+			PrintWriter out = response.getWriter();
+			if (page == null) {
+				response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+				out.printf("{%n  \"query\": \"%s\",%n  \"error\": \"query too broad\"%n}", StringEscapeUtils.escapeJson(query));
+			} else {
+				response.setStatus(HttpServletResponse.SC_OK);
+				JsonWriter.writePage(StringEscapeUtils.escapeJson(query), page, out, 0);
+			}
+			out.flush();
+		}
+	}
+
 	/**
 	 * Servlet for adding new seed to index
 	 * 
@@ -259,11 +526,21 @@ public class SearchEngineServer {
 				url = "";
 				values.put("added", "Please input a URL to add to the index.");
 			} else if (crawler.getCrawled().contains(new URL(url))) {
-				values.put("added", "\"" + url + "\" already added to the index.");
+				Recrawler.Outcome outcome = crawler.getRecrawler() == null ? null : crawler.getRecrawler().refresh(SeenSet.key(new URL(url)));
+				if (outcome == Recrawler.Outcome.CHANGED) {
+					values.put("added", "\"" + url + "\" changed and was updated in the index.");
+				} else if (outcome == Recrawler.Outcome.NOT_MODIFIED || outcome == Recrawler.Outcome.UNCHANGED) {
+					values.put("added", "\"" + url + "\" has not changed since it was added to the index.");
+				} else {
+					values.put("added", "\"" + url + "\" already added to the index.");
+				}
 			} else {
 				try {
 					crawler.build(url, intCrawl);
 					values.put("added", "Added \"" + url + "\" to the index.");
+					if (crawler.getFrontier() != null) {
+						System.out.println("Frontier: " + crawler.getFrontier());
+					}
 				} catch (MalformedURLException | URISyntaxException e) {
 					values.put("added", "Error adding \"" + url + "\" to the index.");
 				}
@@ -0,0 +1,352 @@
+package edu.usfca.cs272;
+
+import static opennlp.tools.stemmer.snowball.SnowballStemmer.ALGORITHM.ENGLISH;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import opennlp.tools.stemmer.Stemmer;
+import opennlp.tools.stemmer.snowball.SnowballStemmer;
+
+/**
+ * A parsed query line with required, optional, and excluded word stems.
+ *
+ * <p>
+ * Query lines read from a file are built with {@link #plain(String, Stemmer)},
+ * which stems the line exactly like before and makes every stem optional, so
+ * the line matches any location containing any of its stems. Query lines from
+ * the search engine server are built with {@link #parse(String, Stemmer)},
+ * which also understands operators. Words are optional by default. A word can be
+ * made required by prefixing it with {@code +} or joining it to its neighbor
+ * with {@code AND}, and excluded by prefixing it with {@code -} or
+ * {@code NOT}. The keyword {@code OR} is accepted for readability but is the
+ * default behavior. Operator keywords must be uppercase so that the lowercase
+ * words "and", "or" and "not" can still be searched for.
+ *
+ * <p>
+ * A word ending in {@code ~} also matches words within one edit of its stem,
+ * and a word ending in {@code ~2} matches words within two edits. A word
+ * containing {@code *} is a {@link WildcardPattern} and is kept unstemmed.
+ *
+ * @author zoe
+ *
+ */
+public class SearchQuery {
+
+	/**
+	 * Stems that every result must contain
+	 */
+	private final TreeSet<String> required;
+
+	/**
+	 * Stems that add to the score of a result but are not required
+	 */
+	private final TreeSet<String> optional;
+
+	/**
+	 * Stems that no result may contain
+	 */
+	private final TreeSet<String> excluded;
+
+	/**
+	 * The edit distance allowed for each fuzzy stem
+	 */
+	private final TreeMap<String, Integer> distances;
+
+	/**
+	 * Matches the fuzzy operator at the end of a word
+	 */
+	private static final Pattern FUZZY_REGEX = Pattern.compile("~(\\d)?$");
+
+	/**
+	 * How a word in the query line is treated
+	 */
+	private enum Occur {
+		/** The word must appear */
+		REQUIRED,
+		/** The word may appear */
+		OPTIONAL,
+		/** The word must not appear */
+		EXCLUDED
+	}
+
+	/**
+	 * Constructor for an empty SearchQuery
+	 */
+	private SearchQuery() {
+		this.required = new TreeSet<>();
+		this.optional = new TreeSet<>();
+		this.excluded = new TreeSet<>();
+		this.distances = new TreeMap<>();
+	}
+
+	/**
+	 * Parses a query line into a SearchQuery
+	 *
+	 * @param line the query line to parse
+	 * @param stemmer the stemmer to use
+	 * @return the parsed query
+	 */
+	public static SearchQuery parse(String line, Stemmer stemmer) {
+		SearchQuery query = new SearchQuery();
+		Occur next = null;
+		Occur lastOccur = null;
+		List<String> last = new ArrayList<>();
+
+		for (String token : FileStemmer.split(line)) {
+			switch (token) {
+				case "AND" -> {
+					if (lastOccur == Occur.OPTIONAL) {
+						query.optional.removeAll(last);
+						query.required.addAll(last);
+						lastOccur = Occur.REQUIRED;
+					}
+					next = Occur.REQUIRED;
+				}
+				case "OR" -> next = Occur.OPTIONAL;
+				case "NOT" -> next = Occur.EXCLUDED;
+				default -> {
+					Occur occur = next == null ? Occur.OPTIONAL : next;
+					if (token.startsWith("+")) {
+						occur = Occur.REQUIRED;
+						token = token.substring(1);
+					} else if (token.startsWith("-")) {
+						occur = Occur.EXCLUDED;
+						token = token.substring(1);
+					}
+					int distance = 0;
+					Matcher fuzzy = FUZZY_REGEX.matcher(token);
+					if (fuzzy.find()) {
+						distance = fuzzy.group(1) == null ? 1 : Integer.parseInt(fuzzy.group(1));
+						distance = Math.min(distance, LevenshteinAutomaton.MAX_DISTANCE);
+						token = token.substring(0, fuzzy.start());
+					}
+					if (WildcardPattern.isPattern(token)) {
+						WildcardPattern pattern = new WildcardPattern(token);
+						last = pattern.isEmpty() ? List.of() : List.of(pattern.toString());
+						distance = 0;
+					} else {
+						last = FileStemmer.listStems(token, stemmer);
+					}
+					lastOccur = occur;
+					query.add(occur, last);
+					if (distance > 0) {
+						for (String stem : last) {
+							query.distances.merge(stem, distance, Math::max);
+						}
+					}
+					next = null;
+				}
+			}
+		}
+
+		// an excluded stem overrides any other use of the same stem
+		query.required.removeAll(query.excluded);
+		query.optional.removeAll(query.excluded);
+		query.optional.removeAll(query.required);
+		return query;
+	}
+
+	/**
+	 * Builds a query from a line without any operators, where every cleaned and
+	 * stemmed word of the line is optional
+	 *
+	 * @param line the query line to stem
+	 * @param stemmer the stemmer to use
+	 * @return the query
+	 *
+	 * @see FileStemmer#uniqueStems(String, Stemmer)
+	 */
+	public static SearchQuery plain(String line, Stemmer stemmer) {
+		SearchQuery query = new SearchQuery();
+		query.optional.addAll(FileStemmer.uniqueStems(line, stemmer));
+		return query;
+	}
+
+	/**
+	 * Builds a query from a line without any operators using the default stemmer
+	 * for English
+	 *
+	 * @param line the query line to stem
+	 * @return the query
+	 *
+	 * @see #plain(String, Stemmer)
+	 */
+	public static SearchQuery plain(String line) {
+		return plain(line, new SnowballStemmer(ENGLISH));
+	}
+
+	/**
+	 * Rewrites a query line so that every word allows the given number of edits.
+	 * Operator keywords and excluded words are left as they are.
+	 *
+	 * @param line the query line to rewrite
+	 * @param distance the number of edits to allow
+	 * @return the rewritten query line
+	 */
+	public static String fuzzy(String line, int distance) {
+		if (distance <= 0) {
+			return line;
+		}
+		List<String> tokens = new ArrayList<>();
+		for (String token : FileStemmer.split(line)) {
+			if (token.equals("AND") || token.equals("OR") || token.equals("NOT")
+					|| token.startsWith("-") || FUZZY_REGEX.matcher(token).find()
+					|| WildcardPattern.isPattern(token)) {
+				tokens.add(token);
+			} else {
+				tokens.add(token + "~" + distance);
+			}
+		}
+		return String.join(" ", tokens);
+	}
+
+	/**
+	 * Parses a query line into a SearchQuery using the default stemmer for English
+	 *
+	 * @param line the query line to parse
+	 * @return the parsed query
+	 */
+	public static SearchQuery parse(String line) {
+		return parse(line, new SnowballStemmer(ENGLISH));
+	}
+
+	/**
+	 * Adds the stems to the set for the given occurrence
+	 *
+	 * @param occur how the stems are treated
+	 * @param stems the stems to add
+	 */
+	private void add(Occur occur, List<String> stems) {
+		switch (occur) {
+			case REQUIRED -> required.addAll(stems);
+			case EXCLUDED -> excluded.addAll(stems);
+			default -> optional.addAll(stems);
+		}
+	}
+
+	/**
+	 * Returns an unmodifiable view of the required stems
+	 *
+	 * @return the required stems
+	 */
+	public Set<String> viewRequired() {
+		return Collections.unmodifiableSet(required);
+	}
+
+	/**
+	 * Returns an unmodifiable view of the optional stems
+	 *
+	 * @return the optional stems
+	 */
+	public Set<String> viewOptional() {
+		return Collections.unmodifiableSet(optional);
+	}
+
+	/**
+	 * Returns an unmodifiable view of the excluded stems
+	 *
+	 * @return the excluded stems
+	 */
+	public Set<String> viewExcluded() {
+		return Collections.unmodifiableSet(excluded);
+	}
+
+	/**
+	 * Returns the number of edits allowed when matching the stem
+	 *
+	 * @param stem the stem in this query
+	 * @return the edit distance, or 0 if the stem must match exactly
+	 */
+	public int distance(String stem) {
+		return distances.getOrDefault(stem, 0);
+	}
+
+	/**
+	 * Returns whether any stem in this query allows edits
+	 *
+	 * @return true if the query has fuzzy stems
+	 */
+	public boolean isFuzzy() {
+		return !distances.isEmpty();
+	}
+
+	/**
+	 * Returns whether any stem in this query is a wildcard pattern
+	 *
+	 * @return true if the query has wildcard patterns
+	 */
+	public boolean hasWildcards() {
+		for (Set<String> stems : List.of(required, optional, excluded)) {
+			for (String stem : stems) {
+				if (WildcardPattern.isPattern(stem)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns whether this query is a plain union of exact or partial stems
+	 *
+	 * @return true if the query has no operators, fuzzy stems, or wildcards
+	 */
+	public boolean isPlain() {
+		return !isBoolean() && !isFuzzy() && !hasWildcards();
+	}
+
+	/**
+	 * Returns whether this query uses any required or excluded stems
+	 *
+	 * @return true if the query is more than a plain union of stems
+	 */
+	public boolean isBoolean() {
+		return !required.isEmpty() || !excluded.isEmpty();
+	}
+
+	/**
+	 * Returns whether this query has nothing that could match
+	 *
+	 * @return true if there are no required or optional stems
+	 */
+	public boolean isEmpty() {
+		return required.isEmpty() && optional.isEmpty();
+	}
+
+	/**
+	 * Returns the stem with its fuzzy operator if it allows edits
+	 *
+	 * @param stem the stem to format
+	 * @return the stem as it appears in the canonical query
+	 */
+	public String format(String stem) {
+		int distance = distance(stem);
+		return distance > 0 ? stem + "~" + distance : stem;
+	}
+
+	/**
+	 * Returns the canonical form of this query. A plain query is its stems joined
+	 * by spaces, the same as before boolean operators were supported.
+	 */
+	@Override
+	public String toString() {
+		List<String> parts = new ArrayList<>();
+		for (String stem : required) {
+			parts.add("+" + format(stem));
+		}
+		for (String stem : optional) {
+			parts.add(format(stem));
+		}
+		for (String stem : excluded) {
+			parts.add("-" + format(stem));
+		}
+		return String.join(" ", parts);
+	}
+}
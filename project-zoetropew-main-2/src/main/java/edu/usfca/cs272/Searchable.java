@@ -0,0 +1,90 @@
+package edu.usfca.cs272;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+
+import edu.usfca.cs272.InvertedIndex.Result;
+
+/**
+ * Something that can answer parsed queries, such as a single inverted index or
+ * several indexes searched together.
+ *
+ * @author zoe
+ *
+ */
+public interface Searchable {
+
+	/**
+	 * Finds search results for a parsed query in only the locations that pass the
+	 * filter
+	 *
+	 * @param query the parsed query
+	 * @param partial whether to run partial or exact search
+	 * @param filter the locations to keep, or null to keep every location
+	 * @return the sorted search results
+	 */
+	public default List<Result> search(SearchQuery query, boolean partial, LocationFilter filter) {
+		return search(query, partial, filter, 0, Deadline.NONE);
+	}
+
+	/**
+	 * Finds only the best search results for a parsed query found before the
+	 * deadline
+	 *
+	 * @param query the parsed query
+	 * @param partial whether to run partial or exact search
+	 * @param filter the locations to keep, or null to keep every location
+	 * @param limit the most results to return, or 0 for every result
+	 * @param deadline when to stop and return the results found so far
+	 * @return the sorted search results
+	 */
+	public List<Result> search(SearchQuery query, boolean partial, LocationFilter filter, int limit, Deadline deadline);
+
+	/**
+	 * Estimates how much work a query will take without reading any postings
+	 *
+	 * @param query the parsed query
+	 * @param partial whether the query would be run as a partial search
+	 * @return the estimated cost of the query
+	 */
+	public QueryCost estimate(SearchQuery query, boolean partial);
+
+	/**
+	 * Returns the positions of every word a query matches at each of the given
+	 * locations
+	 *
+	 * @param query the parsed query
+	 * @param partial whether to include every word starting with a stem
+	 * @param locations the locations to find positions for
+	 * @return the sorted matching positions by location
+	 */
+	public Map<String, SortedSet<Integer>> positions(SearchQuery query, boolean partial, Collection<String> locations);
+
+	/**
+	 * Describes how a filtered query would be evaluated
+	 *
+	 * @param query the parsed query
+	 * @param partial whether to run partial or exact search
+	 * @param filter the locations to keep, or null to keep every location
+	 * @return a human readable description of the query plan
+	 */
+	public String explain(SearchQuery query, boolean partial, LocationFilter filter);
+
+	/**
+	 * Returns the generation of the searchable words and locations. It changes
+	 * every time they change, and never goes back to an earlier value, so results
+	 * cached under one generation are stale under any other.
+	 *
+	 * @return the current generation
+	 */
+	public long generation();
+
+	/**
+	 * Returns the hit rate and size of the partial search prefix cache
+	 *
+	 * @return a description of the prefix cache metrics
+	 */
+	public String prefixCacheStats();
+}
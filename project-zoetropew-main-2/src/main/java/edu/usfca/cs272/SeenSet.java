@@ -0,0 +1,361 @@
+package edu.usfca.cs272;
+
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The links a crawler has already seen. Links are compared by their normalized
+ * text rather than with {@link URL#equals(Object)}, which looks up the address
+ * of the host and can block on the network. Only a 64 bit fingerprint of each
+ * link is kept, in arrays of primitive longs split into segments that are
+ * locked separately, so many threads can check links at once and tens of
+ * millions of links fit in a few hundred megabytes. Two different links have
+ * the same fingerprint so rarely that it can be ignored.
+ *
+ * <p>
+ * A set can also have a Bloom filter in front of it, which is read without
+ * locking and answers most checks for links that were never seen without
+ * touching a segment.
+ *
+ * @author zoe
+ *
+ */
+public class SeenSet {
+
+	/**
+	 * The number of segments, which must be a power of two
+	 */
+	private static final int SEGMENTS = 64;
+
+	/**
+	 * The number of bits in the Bloom filter for each expected link, which gives
+	 * about one false positive in a hundred
+	 */
+	private static final int BITS_PER_LINK = 10;
+
+	/**
+	 * The number of bits set in the Bloom filter for each link
+	 */
+	private static final int HASHES = 7;
+
+	/**
+	 * The segments, picked by the high bits of the fingerprint
+	 */
+	private final Segment[] segments;
+
+	/**
+	 * The Bloom filter, or null if there is none
+	 */
+	private final AtomicLongArray bloom;
+
+	/**
+	 * The number of bits in the Bloom filter
+	 */
+	private final long bloomBits;
+
+	/**
+	 * The number of fingerprints in the set
+	 */
+	private final LongAdder size;
+
+	/**
+	 * Constructs an empty set without a Bloom filter
+	 */
+	public SeenSet() {
+		this(0);
+	}
+
+	/**
+	 * Constructs an empty set with a Bloom filter sized for the expected number of
+	 * links. The filter still works with more links, but lets more checks through
+	 * to the segments.
+	 *
+	 * @param expected the number of links expected, or 0 for no Bloom filter
+	 */
+	public SeenSet(long expected) {
+		this.segments = new Segment[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment();
+		}
+		this.size = new LongAdder();
+		if (expected > 0) {
+			int words = (int) Math.min(Math.max(expected * BITS_PER_LINK / 64, 1), Integer.MAX_VALUE - 8);
+			this.bloomBits = words * 64L;
+			this.bloom = new AtomicLongArray(words);
+		} else {
+			this.bloomBits = 0;
+			this.bloom = null;
+		}
+	}
+
+	/**
+	 * Constructs a copy of a set with a Bloom filter sized for the expected number
+	 * of links
+	 *
+	 * @param links the links to copy
+	 * @param expected the number of links expected, or 0 for no Bloom filter
+	 */
+	public SeenSet(SeenSet links, long expected) {
+		this(expected);
+		for (Segment segment : links.segments) {
+			for (long print : segment.prints()) {
+				add(print);
+			}
+		}
+	}
+
+	/**
+	 * Returns the text a link is compared by
+	 *
+	 * @param url the link as it was found
+	 * @return the normalized link, or the link as it is if it cannot be
+	 *   normalized
+	 *
+	 * @see LinkFinder#normalize(URL)
+	 */
+	public static String key(URL url) {
+		try {
+			return LinkFinder.normalize(url).toString();
+		} catch (MalformedURLException | URISyntaxException e) {
+			return url.toString();
+		}
+	}
+
+	/**
+	 * Returns a 64 bit fingerprint of a link, using FNV-1a followed by the final
+	 * mix of MurmurHash3 to spread the bits
+	 *
+	 * @param link the normalized link
+	 * @return the fingerprint, which is never 0
+	 */
+	public static long fingerprint(String link) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < link.length(); i++) {
+			hash ^= link.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash == 0 ? 1 : hash;
+	}
+
+	/**
+	 * Adds a link
+	 *
+	 * @param link the normalized link
+	 * @return true if the link was not seen before
+	 */
+	public boolean add(String link) {
+		return add(fingerprint(link));
+	}
+
+	/**
+	 * Adds the fingerprint of a link
+	 *
+	 * @param print the fingerprint, which must not be 0
+	 * @return true if the fingerprint was not in the set
+	 *
+	 * @see #fingerprint(String)
+	 */
+	public boolean add(long print) {
+		if (segment(print).add(print)) {
+			size.increment();
+			if (bloom != null) {
+				mark(print);
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns whether a link was seen
+	 *
+	 * @param link the normalized link
+	 * @return true if the link was seen
+	 */
+	public boolean contains(String link) {
+		return contains(fingerprint(link));
+	}
+
+	/**
+	 * Returns whether a link was seen, comparing its normalized text
+	 *
+	 * @param url the link as it was found
+	 * @return true if the link was seen
+	 *
+	 * @see #key(URL)
+	 */
+	public boolean contains(URL url) {
+		return contains(key(url));
+	}
+
+	/**
+	 * Returns whether the fingerprint of a link is in the set
+	 *
+	 * @param print the fingerprint
+	 * @return true if the fingerprint is in the set
+	 */
+	public boolean contains(long print) {
+		if (bloom != null && !marked(print)) {
+			return false;
+		}
+		return segment(print).contains(print);
+	}
+
+	/**
+	 * Returns the number of links seen
+	 *
+	 * @return the number of links
+	 */
+	public int size() {
+		return size.intValue();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d links, %s Bloom filter", size(), bloom == null ? "no" : bloomBits / 8 / 1024 + " KB");
+	}
+
+	/**
+	 * Returns the segment a fingerprint belongs to
+	 *
+	 * @param print the fingerprint
+	 * @return the segment
+	 */
+	private Segment segment(long print) {
+		return segments[(int) (print >>> 58) & (SEGMENTS - 1)];
+	}
+
+	/**
+	 * Sets the bits of a fingerprint in the Bloom filter
+	 *
+	 * @param print the fingerprint
+	 */
+	private void mark(long print) {
+		long step = (print >>> 32) | 1;
+		for (int i = 0; i < HASHES; i++) {
+			long bit = Long.remainderUnsigned(print + i * step, bloomBits);
+			int word = (int) (bit >>> 6);
+			long mask = 1L << bit;
+			long old;
+			while (((old = bloom.get(word)) & mask) == 0 && !bloom.compareAndSet(word, old, old | mask)) {
+				// another thread changed the word first, so try again
+			}
+		}
+	}
+
+	/**
+	 * Returns whether every bit of a fingerprint is set in the Bloom filter
+	 *
+	 * @param print the fingerprint
+	 * @return false if the fingerprint is definitely not in the set
+	 */
+	private boolean marked(long print) {
+		long step = (print >>> 32) | 1;
+		for (int i = 0; i < HASHES; i++) {
+			long bit = Long.remainderUnsigned(print + i * step, bloomBits);
+			if ((bloom.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Part of the fingerprints, stored in a single open addressed array
+	 */
+	private static class Segment {
+
+		/**
+		 * The fingerprints, with 0 marking an empty slot
+		 */
+		private long[] table;
+
+		/**
+		 * The number of fingerprints
+		 */
+		private int size;
+
+		/**
+		 * Constructs an empty segment
+		 */
+		public Segment() {
+			this.table = new long[64];
+			this.size = 0;
+		}
+
+		/**
+		 * Adds a fingerprint, growing the table once it is three quarters full
+		 *
+		 * @param print the fingerprint, which must not be 0
+		 * @return true if the fingerprint was not already in the segment
+		 */
+		public synchronized boolean add(long print) {
+			if (size * 4L >= table.length * 3L) {
+				long[] old = table;
+				table = new long[old.length * 2];
+				for (long existing : old) {
+					if (existing != 0) {
+						table[find(existing)] = existing;
+					}
+				}
+			}
+			int slot = find(print);
+			if (table[slot] == print) {
+				return false;
+			}
+			table[slot] = print;
+			size++;
+			return true;
+		}
+
+		/**
+		 * Returns the fingerprints in the segment
+		 *
+		 * @return a copy of the fingerprints
+		 */
+		public synchronized long[] prints() {
+			long[] prints = new long[size];
+			int i = 0;
+			for (long print : table) {
+				if (print != 0) {
+					prints[i++] = print;
+				}
+			}
+			return prints;
+		}
+
+		/**
+		 * Returns whether a fingerprint is in the segment
+		 *
+		 * @param print the fingerprint
+		 * @return true if the fingerprint is in the segment
+		 */
+		public synchronized boolean contains(long print) {
+			return table[find(print)] == print;
+		}
+
+		/**
+		 * Returns the slot that holds a fingerprint, or the empty slot it would go
+		 * in
+		 *
+		 * @param print the fingerprint
+		 * @return the index of the slot
+		 */
+		private int find(long print) {
+			int mask = table.length - 1;
+			int slot = (int) print & mask;
+			while (table[slot] != 0 && table[slot] != print) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+	}
+}
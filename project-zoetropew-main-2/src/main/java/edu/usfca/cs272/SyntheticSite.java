@@ -0,0 +1,541 @@
+package edu.usfca.cs272;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stand-in for a website, used to benchmark the crawler without
+ * depending on the network. Serves a fixed number of generated pages that link
+ * to each other, each after a configurable delay that plays the part of the
+ * round trip to a remote server. Every page has a title, a heading, and a few
+ * paragraphs of words picked from a small vocabulary, and some links go through
+ * a redirect first.
+ *
+ * <p>
+ * Pages can also change over time, to benchmark keeping them fresh. Every tenth
+ * page changes at a set rate and the rest change far less often. Each page is
+ * sent with an "ETag" and a "Last-Modified" header for its current version, and
+ * a conditional request for a version that is still current gets a "304 Not
+ * Modified" response.
+ *
+ * @author zoe
+ *
+ */
+public class SyntheticSite {
+
+	/**
+	 * The default number of pages
+	 */
+	public static final int DEFAULT_PAGES = 2000;
+
+	/**
+	 * The default milliseconds to wait before answering each request
+	 */
+	public static final int DEFAULT_LATENCY = 50;
+
+	/**
+	 * The default milliseconds between changes to the pages that change often
+	 */
+	public static final int DEFAULT_CHANGE = 1000;
+
+	/**
+	 * How many times less often most pages change than every tenth page
+	 */
+	private static final int SLOW = 50;
+
+	/**
+	 * The format of the "Last-Modified" header
+	 */
+	private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+	/**
+	 * The number of links on each page
+	 */
+	private static final int LINKS = 12;
+
+	/**
+	 * The words pages are made of
+	 */
+	private static final String[] WORDS = {
+			"search", "engine", "index", "query", "crawler", "thread", "lock", "page",
+			"result", "score", "word", "stem", "partial", "exact", "server", "socket",
+			"cache", "prefix", "posting", "location", "count", "rank", "field", "title",
+			"heading", "snippet", "document", "store", "block", "deadline", "cost", "merge" };
+
+	/**
+	 * The number of pages
+	 */
+	private final int pages;
+
+	/**
+	 * The milliseconds to wait before answering each request
+	 */
+	private final int latency;
+
+	/**
+	 * The milliseconds between changes to the pages that change often, or 0 if
+	 * pages never change
+	 */
+	private final long change;
+
+	/**
+	 * When the site started serving, in milliseconds since the epoch
+	 */
+	private long started;
+
+	/**
+	 * The number of requests answered
+	 */
+	private final AtomicLong requests;
+
+	/**
+	 * The number of requests answered with "304 Not Modified"
+	 */
+	private final AtomicLong notModified;
+
+	/**
+	 * The number of bytes of pages sent
+	 */
+	private final AtomicLong bytes;
+
+	/**
+	 * The server, or null if not started
+	 */
+	private HttpServer server;
+
+	/**
+	 * The threads that answer requests
+	 */
+	private ExecutorService executor;
+
+	/**
+	 * Constructs a site
+	 *
+	 * @param pages the number of pages
+	 * @param latency the milliseconds to wait before answering each request
+	 */
+	public SyntheticSite(int pages, int latency) {
+		this(pages, latency, 0);
+	}
+
+	/**
+	 * Constructs a site whose pages change over time
+	 *
+	 * @param pages the number of pages
+	 * @param latency the milliseconds to wait before answering each request
+	 * @param change the milliseconds between changes to every tenth page, or 0 if
+	 *   pages never change
+	 */
+	public SyntheticSite(int pages, int latency, long change) {
+		this.pages = Math.max(pages, 1);
+		this.latency = Math.max(latency, 0);
+		this.change = Math.max(change, 0);
+		this.started = System.currentTimeMillis();
+		this.requests = new AtomicLong();
+		this.notModified = new AtomicLong();
+		this.bytes = new AtomicLong();
+	}
+
+	/**
+	 * Starts serving the site on the loopback address
+	 *
+	 * @param port the port to listen on, or 0 for any free port
+	 * @return the url of the first page
+	 * @throws IOException if unable to start the server
+	 */
+	public String start(int port) throws IOException {
+		// send small responses right away instead of waiting on delayed acks
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+		// every request sleeps, so give each its own thread to sleep on
+		executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.createContext("/", this::handle);
+		started = System.currentTimeMillis();
+		server.start();
+		return getBase() + "/page/0.html";
+	}
+
+	/**
+	 * Stops serving the site
+	 */
+	public void stop() {
+		if (server != null) {
+			server.stop(0);
+			executor.shutdownNow();
+			server = null;
+		}
+	}
+
+	/**
+	 * Returns the address the site is served at
+	 *
+	 * @return the protocol, host, and port of the site
+	 */
+	public String getBase() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * Answers a request for a page or a redirect after the configured delay
+	 *
+	 * @param exchange the request and response
+	 * @throws IOException if unable to write the response
+	 */
+	private void handle(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			if (latency > 0) {
+				Thread.sleep(latency);
+			}
+			requests.incrementAndGet();
+			String path = exchange.getRequestURI().getPath();
+			int page = number(path);
+			if (page < 0) {
+				exchange.sendResponseHeaders(404, -1);
+			} else if (path.startsWith("/go/")) {
+				exchange.getResponseHeaders().add("Location", "/page/" + page + ".html");
+				exchange.sendResponseHeaders(302, -1);
+			} else {
+				long version = version(page);
+				String etag = "\"" + page + "-" + version + "\"";
+				Instant modified = Instant.ofEpochMilli(started + version * period(page));
+				exchange.getResponseHeaders().add("ETag", etag);
+				exchange.getResponseHeaders().add("Last-Modified", HTTP_DATE.format(modified));
+				if (current(exchange, etag, modified)) {
+					notModified.incrementAndGet();
+					exchange.sendResponseHeaders(304, -1);
+					return;
+				}
+				byte[] body = page(page, version).getBytes(UTF_8);
+				exchange.getResponseHeaders().add("Content-Type", "text/html; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				try (OutputStream output = exchange.getResponseBody()) {
+					output.write(body);
+				}
+				bytes.addAndGet(body.length);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns whether a conditional request asks for the current version of a
+	 * page. The "If-None-Match" header is used if there is one, and otherwise the
+	 * "If-Modified-Since" header.
+	 *
+	 * @param exchange the request
+	 * @param etag the tag of the current version
+	 * @param modified when the current version was made
+	 * @return true if the requester already has the current version
+	 */
+	private static boolean current(HttpExchange exchange, String etag, Instant modified) {
+		String match = exchange.getRequestHeaders().getFirst("If-None-Match");
+		if (match != null) {
+			return match.equals(etag);
+		}
+		String since = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+		if (since != null) {
+			try {
+				return !modified.isAfter(Instant.from(HTTP_DATE.parse(since)).plusMillis(999));
+			} catch (DateTimeParseException e) {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the milliseconds between changes to a page
+	 *
+	 * @param page the page number
+	 * @return the period, or 0 if pages never change
+	 */
+	private long period(int page) {
+		return page % 10 == 0 ? change : change * SLOW;
+	}
+
+	/**
+	 * Returns the current version of a page, which counts the times it changed
+	 *
+	 * @param page the page number
+	 * @return the version
+	 */
+	public long version(int page) {
+		long period = period(page);
+		return period == 0 ? 0 : (System.currentTimeMillis() - started) / period;
+	}
+
+	/**
+	 * Returns the number of requests answered
+	 *
+	 * @return the number of requests
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * Returns the number of requests answered with "304 Not Modified"
+	 *
+	 * @return the number of requests
+	 */
+	public long getNotModified() {
+		return notModified.get();
+	}
+
+	/**
+	 * Returns the number of bytes of pages sent
+	 *
+	 * @return the number of bytes
+	 */
+	public long getBytesSent() {
+		return bytes.get();
+	}
+
+	/**
+	 * Returns the page number in a path
+	 *
+	 * @param path the path of a page or redirect
+	 * @return the page number, or -1 if there is no such page
+	 */
+	private int number(String path) {
+		int slash = path.lastIndexOf('/');
+		int dot = path.indexOf('.', slash);
+		try {
+			int page = Integer.parseInt(path.substring(slash + 1, dot < 0 ? path.length() : dot));
+			return page < pages && (path.startsWith("/page/") || path.startsWith("/go/")) ? page : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Generates the HTML of the first version of a page. The same page number
+	 * always gives the same page.
+	 *
+	 * @param page the page number
+	 * @return the HTML of the page
+	 */
+	public String page(int page) {
+		return page(page, 0);
+	}
+
+	/**
+	 * Generates the HTML of a version of a page. The same page number and version
+	 * always give the same page.
+	 *
+	 * @param page the page number
+	 * @param version the version of the page
+	 * @return the HTML of the page
+	 */
+	public String page(int page, long version) {
+		long seed = page * 2654435761L + 1 + version * 0x9E3779B97F4A7C15L;
+		StringBuilder html = new StringBuilder(4096);
+		html.append("<!DOCTYPE html>\n<html>\n<head>\n<title>Page ").append(page).append(' ');
+		html.append(WORDS[Math.floorMod(seed, WORDS.length)]).append("</title>\n</head>\n<body>\n");
+		html.append("<h1>").append(WORDS[Math.floorMod(seed / 7, WORDS.length)]).append(" section</h1>\n");
+		for (int paragraph = 0; paragraph < 4; paragraph++) {
+			html.append("<p>");
+			for (int word = 0; word < 60; word++) {
+				seed = seed * 6364136223846793005L + 1442695040888963407L;
+				html.append(WORDS[(int) ((seed >>> 33) % WORDS.length)]).append(' ');
+			}
+			html.append("</p>\n");
+		}
+		html.append("<ul>\n");
+		for (int link = 0; link < LINKS; link++) {
+			int target = (int) ((page * 31L + link * 97L + 1) % pages);
+			String prefix = link % 4 == 3 ? "/go/" : "/page/";
+			html.append("<li><a href=\"").append(prefix).append(target).append(prefix.equals("/go/") ? "" : ".html");
+			html.append("\">page ").append(target).append("</a></li>\n");
+		}
+		html.append("</ul>\n</body>\n</html>\n");
+		return html.toString();
+	}
+
+	/**
+	 * Serves a synthetic site and times crawling it with a blocking crawler that
+	 * fetches on the work queue, an asynchronous crawler that only uses the work
+	 * queue to index pages, and a crawler that gives each page its own thread.
+	 *
+	 * <p>
+	 * Flags: {@code -pages} the size of the site, {@code -latency} the delay of
+	 * each response in milliseconds, {@code -crawl} the pages to crawl,
+	 * {@code -threads} the worker threads, {@code -async} the most requests in
+	 * flight for the asynchronous crawler, and {@code -fetchers} the most pages
+	 * fetched at once by the thread per page crawler.
+	 *
+	 * <p>
+	 * With {@code -change}, pages change every so many milliseconds instead, and
+	 * the benchmark times keeping the crawled pages fresh for {@code -seconds}
+	 * with conditional requests and adaptive intervals, against downloading every
+	 * page again as often as the pages that change most often.
+	 *
+	 * @param args flag/value pairs used to configure the benchmark
+	 * @throws IOException if unable to start the server
+	 * @throws URISyntaxException if the seed is not a valid url
+	 */
+	public static void main(String[] args) throws IOException, URISyntaxException {
+		ArgumentParser map = new ArgumentParser(args);
+		int pages = map.getInteger("-pages", DEFAULT_PAGES);
+		int latency = map.getInteger("-latency", DEFAULT_LATENCY);
+		int crawl = map.getInteger("-crawl", Math.min(pages, 1000));
+		int threads = map.getInteger("-threads", WorkQueue.DEFAULT);
+		int inFlight = map.getInteger("-async", AsyncFetcher.DEFAULT_IN_FLIGHT);
+		int fetchers = map.getInteger("-fetchers", WebCrawler.DEFAULT_FETCHERS);
+
+		if (map.hasFlag("-change")) {
+			benchmarkRecrawl(pages, latency, map.getInteger("-change", DEFAULT_CHANGE), map.getInteger("-seconds", 20), threads);
+			return;
+		}
+
+		SyntheticSite site = new SyntheticSite(pages, latency);
+		String seed = site.start(0);
+		System.out.printf("Serving %d pages with %d ms latency at %s%n", pages, latency, site.getBase());
+		try {
+			WorkQueue queue = new WorkQueue(threads);
+			benchmark("blocking", seed, crawl, new WebCrawler(queue, new ThreadedIndex(), null, null), queue);
+			queue = new WorkQueue(threads);
+			AsyncFetcher fetcher = new AsyncFetcher(inFlight, AsyncFetcher.DEFAULT_THREADS);
+			benchmark("async", seed, crawl, new WebCrawler(queue, new ThreadedIndex(), null, fetcher), queue);
+			System.out.println("          " + fetcher);
+			benchmark("per page", seed, crawl, new WebCrawler(new ThreadedIndex(), null, fetchers), null);
+			System.out.println("Connection pool: " + HttpsFetcher.getPool());
+		} finally {
+			site.stop();
+		}
+	}
+
+	/**
+	 * Crawls the site once and prints how long it took
+	 *
+	 * @param name the name of the crawler
+	 * @param seed the url of the first page
+	 * @param crawl the pages to crawl
+	 * @param crawler the crawler to use, which is shut down afterwards
+	 * @param queue the work queue of the crawler to shut down afterwards, or null
+	 * @throws MalformedURLException if the seed is not a valid url
+	 * @throws URISyntaxException if the seed is not a valid url
+	 */
+	private static void benchmark(String name, String seed, int crawl, WebCrawler crawler, WorkQueue queue)
+			throws MalformedURLException, URISyntaxException {
+		long start = System.nanoTime();
+		crawler.build(seed, crawl);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		crawler.shutdown();
+		if (queue != null) {
+			queue.join();
+		}
+		int crawled = crawler.getCrawled().size();
+		System.out.printf("%-9s %5d pages in %6.2f s, %7.1f pages/s%n", name, crawled, seconds, crawled / seconds);
+	}
+
+	/**
+	 * Crawls a site whose pages change, then keeps it fresh for a while, first by
+	 * downloading every page again each time the fastest changing pages change,
+	 * and then with a {@link Recrawler}
+	 *
+	 * @param pages the number of pages
+	 * @param latency the delay of each response in milliseconds
+	 * @param change the milliseconds between changes to the pages that change
+	 *   most often
+	 * @param seconds how long to keep the pages fresh each way
+	 * @param threads the worker threads
+	 * @throws IOException if unable to start the server
+	 * @throws URISyntaxException if the seed is not a valid url
+	 */
+	private static void benchmarkRecrawl(int pages, int latency, int change, int seconds, int threads)
+			throws IOException, URISyntaxException {
+		SyntheticSite site = new SyntheticSite(pages, latency, change);
+		String seed = site.start(0);
+		System.out.printf("Serving %d pages changing every %d ms (most every %d ms) at %s%n", pages, change, change * SLOW, site.getBase());
+		WorkQueue queue = new WorkQueue(threads);
+		try {
+			WebCrawler crawler = new WebCrawler(queue, new ThreadedIndex(), null, null);
+			Recrawler recrawler = new Recrawler(crawler, queue, change, (long) change * SLOW * 4);
+			crawler.refresh(recrawler);
+			crawler.build(seed, pages);
+			System.out.printf("Crawled %d pages%n", recrawler.size());
+
+			// download everything again as often as the fastest pages change
+			long requests = site.getRequests();
+			long bytes = site.getBytesSent();
+			long end = System.currentTimeMillis() + seconds * 1000L;
+			while (System.currentTimeMillis() < end) {
+				long next = System.currentTimeMillis() + change;
+				for (int page = 0; page < pages; page++) {
+					HtmlFetcher.fetch(site.getBase() + "/page/" + page + ".html");
+				}
+				sleepUntil(next);
+			}
+			System.out.printf("full refetch  %6d requests, %8d KB sent%n", site.getRequests() - requests, (site.getBytesSent() - bytes) / 1024);
+
+			// keep the pages fresh with conditional requests instead
+			requests = site.getRequests();
+			bytes = site.getBytesSent();
+			long notModified = site.getNotModified();
+			end = System.currentTimeMillis() + seconds * 1000L;
+			while (System.currentTimeMillis() < end) {
+				recrawler.refreshDue();
+				sleepUntil(System.currentTimeMillis() + Math.min(change / 4, 250));
+			}
+			System.out.printf("recrawler     %6d requests, %8d KB sent, %d not modified%n", site.getRequests() - requests,
+					(site.getBytesSent() - bytes) / 1024, site.getNotModified() - notModified);
+			System.out.println("              " + recrawler);
+
+			// pages only linked through a redirect are tracked under the redirect
+			long[] total = new long[2];
+			int[] count = new int[2];
+			for (int page = 0; page < pages; page++) {
+				long interval = recrawler.getInterval(site.getBase() + "/page/" + page + ".html");
+				if (interval < 0) {
+					interval = recrawler.getInterval(site.getBase() + "/go/" + page);
+				}
+				if (interval >= 0) {
+					int kind = page % 10 == 0 ? 0 : 1;
+					total[kind] += interval;
+					count[kind]++;
+				}
+			}
+			System.out.printf("mean interval %6d ms for pages changing every %d ms, %d ms for pages changing every %d ms%n",
+					total[0] / Math.max(count[0], 1), change, total[1] / Math.max(count[1], 1), change * SLOW);
+		} finally {
+			queue.join();
+			site.stop();
+		}
+	}
+
+	/**
+	 * Sleeps until a time
+	 *
+	 * @param time the time to wake up, in milliseconds since the epoch
+	 */
+	private static void sleepUntil(long time) {
+		long wait = time - System.currentTimeMillis();
+		if (wait > 0) {
+			try {
+				Thread.sleep(wait);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
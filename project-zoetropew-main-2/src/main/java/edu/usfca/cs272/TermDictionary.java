@@ -0,0 +1,358 @@
+package edu.usfca.cs272;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * A read-only, front-coded dictionary of sorted terms. Terms are stored in
+ * blocks where the first term of each block is kept whole and every other term
+ * only stores the characters it does not share with the term before it. All of
+ * the blocks share a single character array, so walking a range of terms reads
+ * memory sequentially instead of chasing tree nodes.
+ *
+ * <p>
+ * Each term has an ordinal (its position in sorted order) and a value, and the
+ * dictionary keeps a running total of a weight per term so that the number of
+ * terms and the total weight under any prefix can be found with two binary
+ * searches and no decoding beyond a single block.
+ *
+ * @param <V> the type of value stored for each term
+ *
+ * @author zoe
+ *
+ */
+public class TermDictionary<V> {
+
+	/**
+	 * The number of terms in each front-coded block
+	 */
+	public static final int BLOCK_SIZE = 16;
+
+	/**
+	 * The encoded terms. Each term is a shared prefix length (always 0 for the first
+	 * term of a block), a suffix length split across two characters, and then the
+	 * suffix characters.
+	 */
+	private final char[] data;
+
+	/**
+	 * The offset into data where each block starts
+	 */
+	private final int[] blockOffsets;
+
+	/**
+	 * The first term of each block, used to binary search for a block
+	 */
+	private final String[] blockFirsts;
+
+	/**
+	 * The value stored for each term, by ordinal
+	 */
+	private final Object[] values;
+
+	/**
+	 * Running totals of the term weights, where cumulative[i] is the sum of the
+	 * weights of all terms before ordinal i
+	 */
+	private final long[] cumulative;
+
+	/**
+	 * Builds a dictionary from a sorted map of terms
+	 *
+	 * @param terms the sorted terms and their values
+	 * @param weight the weight of each value used for prefix statistics
+	 */
+	public TermDictionary(SortedMap<String, ? extends V> terms, ToLongFunction<? super V> weight) {
+		int size = terms.size();
+		int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		this.values = new Object[size];
+		this.cumulative = new long[size + 1];
+		this.blockOffsets = new int[blocks];
+		this.blockFirsts = new String[blocks];
+
+		StringBuilder encoded = new StringBuilder();
+		String previous = "";
+		int ordinal = 0;
+		for (Entry<String, ? extends V> entry : terms.entrySet()) {
+			String term = entry.getKey();
+			int shared = 0;
+			if (ordinal % BLOCK_SIZE == 0) {
+				blockOffsets[ordinal / BLOCK_SIZE] = encoded.length();
+				blockFirsts[ordinal / BLOCK_SIZE] = term;
+			} else {
+				shared = sharedLength(previous, term);
+			}
+			int length = term.length() - shared;
+			encoded.append((char) shared);
+			encoded.append((char) (length >>> 16));
+			encoded.append((char) length);
+			encoded.append(term, shared, term.length());
+
+			values[ordinal] = entry.getValue();
+			cumulative[ordinal + 1] = cumulative[ordinal] + weight.applyAsLong(entry.getValue());
+			previous = term;
+			ordinal++;
+		}
+
+		this.data = new char[encoded.length()];
+		encoded.getChars(0, encoded.length(), data, 0);
+	}
+
+	/**
+	 * Returns the length of the prefix shared by both strings
+	 *
+	 * @param first the first string
+	 * @param second the second string
+	 * @return the number of leading characters they have in common
+	 */
+	private static int sharedLength(String first, String second) {
+		int max = Math.min(Math.min(first.length(), second.length()), Character.MAX_VALUE);
+		int i = 0;
+		while (i < max && first.charAt(i) == second.charAt(i)) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Returns the number of terms in the dictionary
+	 *
+	 * @return the number of terms
+	 */
+	public int size() {
+		return values.length;
+	}
+
+	/**
+	 * Returns the value stored for the term at the ordinal
+	 *
+	 * @param ordinal the ordinal of the term
+	 * @return the value for that term
+	 */
+	@SuppressWarnings("unchecked")
+	public V value(int ordinal) {
+		return (V) values[ordinal];
+	}
+
+	/**
+	 * Returns the term at the ordinal
+	 *
+	 * @param ordinal the ordinal of the term
+	 * @return the term
+	 */
+	public String term(int ordinal) {
+		return cursor(ordinal).next();
+	}
+
+	/**
+	 * Returns the ordinal of the term, or -1 if the term is not in the dictionary
+	 *
+	 * @param term the term to find
+	 * @return the ordinal of the term or -1 if not found
+	 */
+	public int find(String term) {
+		int ordinal = lowerBound(term);
+		if (ordinal < size() && term(ordinal).equals(term)) {
+			return ordinal;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the ordinal of the first term that is greater than or equal to the
+	 * target, or {@link #size()} if there is none
+	 *
+	 * @param target the term to search for
+	 * @return the first ordinal at or after the target
+	 */
+	public int lowerBound(CharSequence target) {
+		if (blockFirsts.length == 0) {
+			return 0;
+		}
+
+		// find the last block whose first term is not after the target
+		int low = 0;
+		int high = blockFirsts.length - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (compare(blockFirsts[mid], target) <= 0) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+
+		Cursor cursor = new Cursor(low * BLOCK_SIZE);
+		int end = Math.min(size(), (low + 1) * BLOCK_SIZE);
+		while (cursor.ordinal < end) {
+			int ordinal = cursor.ordinal;
+			if (compare(cursor.next(), target) >= 0) {
+				return ordinal;
+			}
+		}
+		return end;
+	}
+
+	/**
+	 * Returns the first ordinal of the terms that start with the prefix
+	 *
+	 * @param prefix the prefix to search for
+	 * @return the first ordinal with the prefix, or where it would be
+	 */
+	public int prefixStart(String prefix) {
+		return lowerBound(prefix);
+	}
+
+	/**
+	 * Returns the ordinal just past the terms that start with the prefix
+	 *
+	 * @param prefix the prefix to search for
+	 * @return the first ordinal after the terms with the prefix
+	 */
+	public int prefixEnd(String prefix) {
+		return lowerBound(prefix + Character.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the number of terms that start with the prefix
+	 *
+	 * @param prefix the prefix to search for
+	 * @return the number of terms with that prefix
+	 */
+	public int prefixCount(String prefix) {
+		return prefixEnd(prefix) - prefixStart(prefix);
+	}
+
+	/**
+	 * Returns the total weight of the terms that start with the prefix
+	 *
+	 * @param prefix the prefix to search for
+	 * @return the sum of the weights of the terms with that prefix
+	 */
+	public long prefixWeight(String prefix) {
+		return cumulative[prefixEnd(prefix)] - cumulative[prefixStart(prefix)];
+	}
+
+	/**
+	 * Returns the total weight of the terms between two ordinals
+	 *
+	 * @param start the first ordinal (inclusive)
+	 * @param end the last ordinal (exclusive)
+	 * @return the sum of the weights in that range
+	 */
+	public long weight(int start, int end) {
+		return cumulative[end] - cumulative[start];
+	}
+
+	/**
+	 * Returns the terms that start with the prefix in sorted order
+	 *
+	 * @param prefix the prefix to search for
+	 * @return the terms with that prefix
+	 */
+	public List<String> expand(String prefix) {
+		int start = prefixStart(prefix);
+		int end = prefixEnd(prefix);
+		List<String> terms = new ArrayList<>(end - start);
+		Cursor cursor = cursor(start);
+		while (cursor.ordinal() < end) {
+			terms.add(cursor.next());
+		}
+		return terms;
+	}
+
+	/**
+	 * Returns a cursor that decodes terms in order starting at the ordinal
+	 *
+	 * @param ordinal the first ordinal to decode
+	 * @return a cursor positioned at that ordinal
+	 */
+	public Cursor cursor(int ordinal) {
+		Cursor cursor = new Cursor(ordinal - ordinal % BLOCK_SIZE);
+		while (cursor.ordinal < ordinal) {
+			cursor.next();
+		}
+		return cursor;
+	}
+
+	/**
+	 * Compares a term to a target in the same order as {@link String#compareTo}
+	 *
+	 * @param term the term
+	 * @param target the target
+	 * @return negative, zero, or positive if the term is before, equal to, or after
+	 *   the target
+	 */
+	private static int compare(CharSequence term, CharSequence target) {
+		return CharSequence.compare(term, target);
+	}
+
+	/**
+	 * Decodes terms sequentially, reusing the shared prefix of the previous term
+	 */
+	public class Cursor {
+
+		/**
+		 * The ordinal of the next term to decode
+		 */
+		private int ordinal;
+
+		/**
+		 * The offset into data of the next term to decode
+		 */
+		private int offset;
+
+		/**
+		 * The most recently decoded term
+		 */
+		private final StringBuilder current;
+
+		/**
+		 * Constructs a cursor at the start of a block
+		 *
+		 * @param ordinal the first ordinal of a block
+		 */
+		private Cursor(int ordinal) {
+			this.ordinal = ordinal;
+			this.offset = ordinal < size() ? blockOffsets[ordinal / BLOCK_SIZE] : data.length;
+			this.current = new StringBuilder();
+		}
+
+		/**
+		 * Returns the ordinal of the next term this cursor will decode
+		 *
+		 * @return the next ordinal
+		 */
+		public int ordinal() {
+			return ordinal;
+		}
+
+		/**
+		 * Returns whether there are more terms to decode
+		 *
+		 * @return true if there are more terms
+		 */
+		public boolean hasNext() {
+			return ordinal < size();
+		}
+
+		/**
+		 * Decodes the next term
+		 *
+		 * @return the next term
+		 */
+		public String next() {
+			int shared = data[offset++];
+			int length = (data[offset] << 16) | data[offset + 1];
+			offset += 2;
+			current.setLength(shared);
+			current.append(data, offset, length);
+			offset += length;
+			ordinal++;
+			return current.toString();
+		}
+	}
+}
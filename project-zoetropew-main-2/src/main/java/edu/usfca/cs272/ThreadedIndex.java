@@ -2,9 +2,11 @@ package edu.usfca.cs272;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
 
 /**
  * A thread safe version of the InvertedIndex
@@ -95,6 +97,16 @@ public class ThreadedIndex extends InvertedIndex {
 		}
 	}
 
+	@Override
+	public void addIndexEntry(String word, String location, int position, Field field) {
+		lock.writeLock().lock();
+		try {
+			super.addIndexEntry(word, location, position, field);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
 	@Override
 	public void addAll(List<String> words, String location) {
 		lock.writeLock().lock();
@@ -175,6 +187,36 @@ public class ThreadedIndex extends InvertedIndex {
 		}
 	}
 
+	@Override
+	public long generation() {
+		lock.readLock().lock();
+		try {
+			return super.generation();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean removeLocation(String location) {
+		lock.writeLock().lock();
+		try {
+			return super.removeLocation(location);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void replaceLocation(String location, InvertedIndex page) {
+		lock.writeLock().lock();
+		try {
+			super.replaceLocation(location, page);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
 	@Override
 	public int size() {
 		lock.readLock().lock();
@@ -185,6 +227,46 @@ public class ThreadedIndex extends InvertedIndex {
 		}
 	}
 
+	@Override
+	public QueryCost estimate(SearchQuery query, boolean partial) {
+		lock.readLock().lock();
+		try {
+			return super.estimate(query, partial);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<String> expandStem(String stem, boolean partial, int distance) {
+		lock.readLock().lock();
+		try {
+			return super.expandStem(stem, partial, distance);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public int numPrefixWords(String prefix) {
+		lock.readLock().lock();
+		try {
+			return super.numPrefixWords(prefix);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public long numPrefixLocations(String prefix) {
+		lock.readLock().lock();
+		try {
+			return super.numPrefixLocations(prefix);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
 	@Override
 	public String toString() {
 		lock.readLock().lock();
@@ -196,20 +278,60 @@ public class ThreadedIndex extends InvertedIndex {
 	}
 
 	@Override
-	public List<Result> exactSearch(Set<String> queries) {
+	public List<Result> exactSearch(Set<String> queries, int limit, Deadline deadline) {
+		lock.readLock().lock();
+		try {
+			return super.exactSearch(queries, limit, deadline);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<Result> partialSearch(Set<String> queries, int limit, Deadline deadline) {
+		lock.readLock().lock();
+		try {
+			return super.partialSearch(queries, limit, deadline);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<Result> booleanSearch(SearchQuery query, boolean partial, LocationFilter filter, int limit, Deadline deadline) {
+		lock.readLock().lock();
+		try {
+			return super.booleanSearch(query, partial, filter, limit, deadline);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public String explain(SearchQuery query, boolean partial, LocationFilter filter) {
+		lock.readLock().lock();
+		try {
+			return super.explain(query, partial, filter);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public Map<String, SortedSet<Integer>> positions(SearchQuery query, boolean partial, Collection<String> locations) {
 		lock.readLock().lock();
 		try {
-			return super.exactSearch(queries);
+			return super.positions(query, partial, locations);
 		} finally {
 			lock.readLock().unlock();
 		}
 	}
 
 	@Override
-	public List<Result> partialSearch(Set<String> queries) {
+	public int fieldLength(String location, Field field) {
 		lock.readLock().lock();
 		try {
-			return super.partialSearch(queries);
+			return super.fieldLength(location, field);
 		} finally {
 			lock.readLock().unlock();
 		}
@@ -24,11 +24,25 @@ public class ThreadedIndexBuilder {
 	 * @throws IOException if an IO error occurs
 	 */
 	public static void build(Path path, ThreadedIndex storage, WorkQueue queue) throws IOException {
+		build(path, storage, queue, null);
+	}
+
+	/**
+	 * Builds the inverted index and stores the text of every file for snippets
+	 * 
+	 * @param path the path to traverse
+	 * @param storage the data structure where file info will be stored
+	 * @param queue the work queue
+	 * @param documents where to store the words of each file, or null to not
+	 *   store them
+	 * @throws IOException if an IO error occurs
+	 */
+	public static void build(Path path, ThreadedIndex storage, WorkQueue queue, DocumentStore documents) throws IOException {
 		if(Files.isDirectory(path)) {
-			traverseDirectory(path, storage, queue);
+			traverseDirectory(path, storage, queue, documents);
 		}
 		else {
-			queue.execute(new ProcessFile(path, storage));
+			queue.execute(new ProcessFile(path, storage, documents));
 		}
 		queue.finish();
 	}
@@ -43,13 +57,28 @@ public class ThreadedIndexBuilder {
 	 * @throws IOException if an IO error occurs
 	 */
 	public static void traverseDirectory(Path path, ThreadedIndex storage, WorkQueue queue) throws IOException {
+		traverseDirectory(path, storage, queue, null);
+	}
+
+	/**
+	 * Recursively traverses the given directory to find all text files and stores
+	 * the words of each file for snippets
+	 * 
+	 * @param path the path to traverse
+	 * @param storage the data structure where file info will be stored
+	 * @param queue the work queue
+	 * @param documents where to store the words of each file, or null to not
+	 *   store them
+	 * @throws IOException if an IO error occurs
+	 */
+	public static void traverseDirectory(Path path, ThreadedIndex storage, WorkQueue queue, DocumentStore documents) throws IOException {
 		try (DirectoryStream<Path> walk = Files.newDirectoryStream(path)){
 			for(Path thisPath:walk) {
 				if(Files.isDirectory(thisPath)) {
-					traverseDirectory(thisPath, storage, queue);
+					traverseDirectory(thisPath, storage, queue, documents);
 				}
 				else if(InvertedIndexBuilder.isTextFile(thisPath)){
-					queue.execute(new ProcessFile(thisPath, storage));
+					queue.execute(new ProcessFile(thisPath, storage, documents));
 				}
 			}
 		}
@@ -70,23 +99,30 @@ public class ThreadedIndexBuilder {
 		 * The ThreadedIndex to store the information in
 		 */
 		private final ThreadedIndex storage;
+		/**
+		 * Where to store the words of the file, or null to not store them
+		 */
+		private final DocumentStore documents;
 
 		/**
 		 * Constructor for this task
 		 * 
 		 * @param file the file to read
 		 * @param storage the ThreadedIndex to store the information in
+		 * @param documents where to store the words of the file, or null to not
+		 *   store them
 		 */
-		public ProcessFile(Path file, ThreadedIndex storage) {
+		public ProcessFile(Path file, ThreadedIndex storage, DocumentStore documents) {
 			this.file = file;
 			this.storage = storage;
+			this.documents = documents;
 		}
 
 		@Override
 		public void run() {
 			try {
 				InvertedIndex local = new InvertedIndex();
-				InvertedIndexBuilder.processFile(file, local);
+				InvertedIndexBuilder.processFile(file, local, documents);
 				storage.addAll(local);
 			} catch (IOException e) {
 				throw new UncheckedIOException(e);
@@ -7,7 +7,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
 
 import edu.usfca.cs272.InvertedIndex.Result;
 
@@ -25,25 +24,79 @@ public class ThreadedResults implements ResultsInterface {
 	private final Map<String, List<InvertedIndex.Result>> results;
 
 	/**
-	 * The inverted index to be searched for these results
+	 * The thread safe index or indexes to be searched for these results
 	 */
-	private final ThreadedIndex index;
+	private final Searchable index;
 
 	/**
 	 * The work queue to use for tasks
 	 */
 	private final WorkQueue queue;
 
+	/**
+	 * Recently paged or read queries and the best results ranked for them so far,
+	 * keyed by the generation of the index and the search mode as well as the
+	 * query, so that results ranked before the index changed or ranked for the
+	 * other mode are never used
+	 */
+	private final LruCache<String, Ranked> ranked;
+
+	/**
+	 * The best results ranked for a query
+	 */
+	private static class Ranked {
+
+		/**
+		 * The results in ranked order
+		 */
+		private final List<Result> results;
+
+		/**
+		 * The most results that were asked for
+		 */
+		private final int limit;
+
+		/**
+		 * Whether the results were found by partial search
+		 */
+		private final boolean partial;
+
+		/**
+		 * Constructs the ranked results
+		 *
+		 * @param results the results in ranked order
+		 * @param limit the most results that were asked for
+		 * @param partial whether the results were found by partial search
+		 */
+		public Ranked(List<Result> results, int limit, boolean partial) {
+			this.results = results;
+			this.limit = limit;
+			this.partial = partial;
+		}
+
+		/**
+		 * Returns whether these results include every result up to the limit, either
+		 * because enough were ranked or because there were no more to rank
+		 *
+		 * @param needed the number of results needed
+		 * @return true if the results can be used without searching again
+		 */
+		public boolean covers(int needed) {
+			return results.size() >= needed || results.size() < limit;
+		}
+	}
+
 	/**
 	 * Constructor that includes lock
 	 * 
-	 * @param toSearch the inverted index to be searched
+	 * @param toSearch the thread safe index or indexes to be searched
 	 * @param queue the work queue
 	 */
-	public ThreadedResults(ThreadedIndex toSearch, WorkQueue queue) {
+	public ThreadedResults(Searchable toSearch, WorkQueue queue) {
 		this.results = new TreeMap<>();
 		this.index = toSearch;
 		this.queue = queue;
+		this.ranked = new LruCache<>();
 	}
 
 	@Override
@@ -54,8 +107,8 @@ public class ThreadedResults implements ResultsInterface {
 	}
 
 	@Override
-	public List<InvertedIndex.Result> viewResults(String query) {
-		String queryLine = String.join(" ", FileStemmer.uniqueStems(query));
+	public List<InvertedIndex.Result> viewResults(String query, LocationFilter filter) {
+		String queryLine = ResultsInterface.key(SearchQuery.plain(query), filter);
 		synchronized (results) {
 			if(this.results.containsKey(queryLine)) {
 				return Collections.unmodifiableList(this.results.get(queryLine));
@@ -93,14 +146,14 @@ public class ThreadedResults implements ResultsInterface {
 	}
 
 	@Override
-	public void readQueries(Path file, boolean partial) throws IOException{
-		ResultsInterface.super.readQueries(file, partial);
+	public void readQueries(Path file, boolean partial, LocationFilter filter) throws IOException{
+		ResultsInterface.super.readQueries(file, partial, filter);
 		queue.finish();
 	}
 
 	@Override
-	public void readQueries(String line, boolean partial) {
-		queue.execute(new ReadQueries(line, partial));
+	public void readQueries(String line, boolean partial, LocationFilter filter) {
+		queue.execute(new ReadQueries(line, partial, filter));
 	}
 
 	/**
@@ -121,37 +174,96 @@ public class ThreadedResults implements ResultsInterface {
 		 */
 		private final String line;
 
+		/**
+		 * the locations to keep, or null to keep every location
+		 */
+		private final LocationFilter filter;
+
 		/**
 		 * Constructor
 		 * 
 		 * @param line the query line to process
 		 * @param partial whether to search partial or exact
+		 * @param filter the locations to keep, or null to keep every location
 		 */
-		public ReadQueries(String line, boolean partial) {
+		public ReadQueries(String line, boolean partial, LocationFilter filter) {
 			this.line = line;
 			this.partial = partial;
+			this.filter = filter;
 		}
 
 		@Override
 		public void run() {
-			TreeSet<String> words = FileStemmer.uniqueStems(line);
-			if (!words.isEmpty()) {
-				String queryLine = String.join(" ", words);
+			SearchQuery search = SearchQuery.plain(line);
+			if (!search.isEmpty()) {
+				String queryLine = ResultsInterface.key(search, filter);
 				synchronized (results) {
 					if (results.containsKey(queryLine)) {
 						return;
 					}
 					results.put(queryLine, null);
 				}
-				List<Result> local = index.search(words, partial);
+				// read before searching, so a change during the search makes the results stale
+				String key = key(index.generation(), partial, queryLine);
+				List<Result> local = index.search(search, partial, filter);
 				synchronized (results) {
 					results.put(queryLine, local);
 				}
+				ranked.put(key, new Ranked(local, Integer.MAX_VALUE, partial));
 			}
 		}
 
 	}
 
+	@Override
+	public ResultPage searchPage(String line, boolean partial, LocationFilter filter, int cursor, int size, Deadline deadline) {
+		SearchQuery search = SearchQuery.parse(line);
+		if (search.isEmpty()) {
+			return ResultPage.of(Collections.emptyList(), cursor, size, partial);
+		}
+
+		// read before searching, so a change during the search makes the results stale
+		String key = key(index.generation(), partial, ResultsInterface.key(search, filter));
+		int limit = ResultPage.limit(cursor, size);
+		Ranked cached = ranked.get(key);
+		if (cached == null || !cached.covers(limit)) {
+			// rank deeper than needed when paging past the cached results
+			if (cached != null) {
+				limit = Math.max(limit, (int) Math.min(cached.limit * 2L, Integer.MAX_VALUE));
+			}
+			List<Result> found = index.search(search, partial, filter, limit, deadline);
+			if (deadline.wasReached()) {
+				return ResultPage.of(found, cursor, size, partial, true);
+			}
+			cached = new Ranked(found, limit, partial);
+			ranked.put(key, cached);
+		}
+		// the page is marked by how its results were found, which snippets highlight by
+		return ResultPage.of(cached.results, cursor, size, cached.partial);
+	}
+
+	/**
+	 * Returns the key results are ranked under for a query searched in one mode
+	 * against one generation of the index
+	 *
+	 * @param generation the generation of the index when the search started
+	 * @param partial whether the search is partial or exact
+	 * @param queryLine the key of the query and filter
+	 * @return the key for the ranked results
+	 */
+	private static String key(long generation, boolean partial, String queryLine) {
+		return generation + (partial ? " partial " : " exact ") + queryLine;
+	}
+
+	/**
+	 * Returns the hit rate and size of the cache of paged queries
+	 *
+	 * @return a description of the paged query cache metrics
+	 */
+	public String pageCacheStats() {
+		return ranked.toString();
+	}
+
 	@Override
 	public void writeResults(Path output) throws IOException {
 		synchronized (results) {
@@ -2,14 +2,17 @@ package edu.usfca.cs272;
 
 import static opennlp.tools.stemmer.snowball.SnowballStemmer.ALGORITHM.ENGLISH;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.LinkedHashSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 import opennlp.tools.stemmer.Stemmer;
 import opennlp.tools.stemmer.snowball.SnowballStemmer;
@@ -23,9 +26,25 @@ import opennlp.tools.stemmer.snowball.SnowballStemmer;
 public class WebCrawler {
 
 	/**
-	 * Already crawled web pages
+	 * The default most pages fetched at once when each page has its own thread
 	 */
-	private final Collection<URL> crawled;
+	public static final int DEFAULT_FETCHERS = 512;
+
+	/**
+	 * The stack size of platform threads used when each page has its own thread,
+	 * which is far more than fetching and parsing a page needs
+	 */
+	private static final long STACK_SIZE = 256 * 1024;
+
+	/**
+	 * The links already claimed for crawling
+	 */
+	private SeenSet crawled;
+
+	/**
+	 * Guards the number of pages left to crawl
+	 */
+	private final Object claims;
 
 	/**
 	 * How many web pages to crawl
@@ -42,6 +61,67 @@ public class WebCrawler {
 	 */
 	private final ThreadedIndex storage;
 
+	/**
+	 * Where to store the words of each page, or null to not store them
+	 */
+	private final DocumentStore documents;
+
+	/**
+	 * The fetcher that downloads pages without blocking the work queue, or null to
+	 * fetch each page on a worker thread
+	 */
+	private final AsyncFetcher fetcher;
+
+	/**
+	 * The threads that each fetch and process one page, or null to use the work
+	 * queue
+	 */
+	private final ExecutorService crawlers;
+
+	/**
+	 * Limits how many pages are fetched at once when each page has its own thread,
+	 * or null if not used
+	 */
+	private final Semaphore fetching;
+
+	/**
+	 * Limits how many pages are cleaned and indexed at once when each page has its
+	 * own thread, or null if not used
+	 */
+	private final Semaphore processing;
+
+	/**
+	 * The pool of connections to fetch pages with
+	 */
+	private final ConnectionPool pool;
+
+	/**
+	 * The links waiting their turn to be fetched from each host, or null to start
+	 * every link as soon as it is found
+	 */
+	private Frontier frontier;
+
+	/**
+	 * The log that keeps the frontier and the links already seen on disk, or null
+	 * to keep them in memory
+	 */
+	private CrawlLog log;
+
+	/**
+	 * Keeps the pages crawled fresh, or null to crawl each page only once
+	 */
+	private Recrawler recrawler;
+
+	/**
+	 * Whether the words of page titles are indexed along with the rest of the page
+	 */
+	private boolean titles;
+
+	/**
+	 * The number of pages waiting, being fetched, or being processed
+	 */
+	private int pending;
+
 	/**
 	 * Constructor
 	 * 
@@ -49,19 +129,211 @@ public class WebCrawler {
 	 * @param storage the ThreadedIndex to store the information in
 	 */
 	public WebCrawler(WorkQueue queue, ThreadedIndex storage) {
-		this.crawled = new HashSet<>();
+		this(queue, storage, null);
+	}
+
+	/**
+	 * Constructor for a crawler that also stores the text of each page for
+	 * snippets
+	 * 
+	 * @param queue the work queue
+	 * @param storage the ThreadedIndex to store the information in
+	 * @param documents where to store the words of each page, or null to not
+	 *   store them
+	 */
+	public WebCrawler(WorkQueue queue, ThreadedIndex storage, DocumentStore documents) {
+		this(queue, storage, documents, null);
+	}
+
+	/**
+	 * Constructor for a crawler that fetches pages asynchronously, so that the work
+	 * queue is only used to clean and index the pages once they arrive
+	 * 
+	 * @param queue the work queue
+	 * @param storage the ThreadedIndex to store the information in
+	 * @param documents where to store the words of each page, or null to not
+	 *   store them
+	 * @param fetcher the fetcher to download pages with, or null to fetch each page
+	 *   on a worker thread
+	 */
+	public WebCrawler(WorkQueue queue, ThreadedIndex storage, DocumentStore documents, AsyncFetcher fetcher) {
+		this.crawled = new SeenSet();
+		this.claims = new Object();
 		this.crawl = 0;
 		this.queue = queue;
 		this.storage = storage;
+		this.documents = documents;
+		this.fetcher = fetcher;
+		this.crawlers = null;
+		this.fetching = null;
+		this.processing = null;
+		this.pool = HttpsFetcher.getPool();
+		this.titles = false;
+		this.pending = 0;
+	}
+
+	/**
+	 * Constructor for a crawler that gives each page its own thread, which fetches
+	 * the page with the usual blocking calls and then cleans and indexes it. Only
+	 * as many pages as there are processors are cleaned and indexed at once, so
+	 * the number of threads only limits how many fetches wait on the network.
+	 * Uses virtual threads if the runtime has them, and otherwise platform threads
+	 * with small stacks.
+	 * 
+	 * @param storage the ThreadedIndex to store the information in
+	 * @param documents where to store the words of each page, or null to not
+	 *   store them
+	 * @param fetchers the most pages fetched at once
+	 */
+	public WebCrawler(ThreadedIndex storage, DocumentStore documents, int fetchers) {
+		fetchers = fetchers < 1 ? DEFAULT_FETCHERS : fetchers;
+		this.crawled = new SeenSet();
+		this.claims = new Object();
+		this.crawl = 0;
+		this.queue = null;
+		this.storage = storage;
+		this.documents = documents;
+		this.fetcher = null;
+		this.crawlers = newCrawlers(fetchers);
+		this.fetching = new Semaphore(fetchers);
+		this.processing = new Semaphore(Runtime.getRuntime().availableProcessors());
+		// enough connections that fetches never wait on the pool
+		this.pool = new ConnectionPool(fetchers, ConnectionPool.DEFAULT_IDLE_MILLIS);
+		this.titles = false;
+		this.pending = 0;
+	}
+
+	/**
+	 * Creates the threads that each crawl one page
+	 * 
+	 * @param fetchers the most pages fetched at once
+	 * @return a new virtual thread for each page if the runtime supports them, or
+	 *   otherwise a pool of platform threads with small stacks
+	 */
+	private static ExecutorService newCrawlers(int fetchers) {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newFixedThreadPool(fetchers, task -> {
+				Thread thread = new Thread(null, task, "Crawler", STACK_SIZE);
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	/**
+	 * Limits how often pages are fetched from each host. Links are then kept in a
+	 * queue for their host and started round robin across hosts, instead of being
+	 * started as soon as they are found.
+	 * 
+	 * @param perHost the most fetches running at once for a single host
+	 * @param delay the minimum milliseconds between the starts of fetches to a
+	 *   host
+	 */
+	public void throttle(int perHost, long delay) {
+		this.frontier = new Frontier(perHost, delay, this::start);
+	}
+
+	/**
+	 * Indexes the words of page titles, boosted as {@link Field#TITLE}. Titles are
+	 * skipped by default, since indexing them shifts the positions of every other
+	 * word on the page and adds to the word count of the page.
+	 * 
+	 * @param titles whether to index the words of page titles
+	 */
+	public void indexTitles(boolean titles) {
+		this.titles = titles;
+	}
+
+	/**
+	 * Stops the threads that give each page its own thread, and closes the idle
+	 * connections of this crawler's own pool. Pages that are still being crawled
+	 * are allowed to finish, but no more pages can be crawled with this crawler
+	 * afterwards. Does nothing for a crawler that runs on a work queue.
+	 */
+	public void shutdown() {
+		if (crawlers != null) {
+			crawlers.shutdown();
+			pool.clear();
+		}
+	}
+
+	/**
+	 * Returns the frontier that limits how often each host is fetched from
+	 * 
+	 * @return the frontier, or null if fetches are not limited
+	 */
+	public Frontier getFrontier() {
+		return frontier;
+	}
+
+	/**
+	 * Keeps the state of the crawl in a log on disk, so a crawl that was stopped
+	 * picks up where it left off the next time it is built. Links are then crawled
+	 * in the order they were found, and only a window of them is kept in memory.
+	 * 
+	 * @param log the log to keep the crawl in
+	 */
+	public void persist(CrawlLog log) {
+		this.log = log;
+		this.crawled = log.getSeen();
+	}
+
+	/**
+	 * Puts a Bloom filter in front of the links claimed for crawling, sized for
+	 * those already claimed and the number of links expected to be claimed, so
+	 * that most checks for links that were never claimed take no lock. Only call
+	 * this before crawling, and after {@link #persist(CrawlLog)} if the crawl is
+	 * kept in a log.
+	 * 
+	 * @param expected the number of links expected to be claimed
+	 */
+	public void expectLinks(long expected) {
+		if (log != null) {
+			log.expectLinks(expected);
+			this.crawled = log.getSeen();
+		} else {
+			this.crawled = new SeenSet(crawled, crawled.size() + expected);
+		}
+	}
+
+	/**
+	 * Returns the log that keeps the state of the crawl on disk
+	 * 
+	 * @return the log, or null if the crawl is only kept in memory
+	 */
+	public CrawlLog getLog() {
+		return log;
+	}
+
+	/**
+	 * Keeps every page crawled from now on fresh, by visiting it again from time
+	 * to time and indexing it again if it changed
+	 * 
+	 * @param recrawler the recrawler to track pages with
+	 */
+	public void refresh(Recrawler recrawler) {
+		this.recrawler = recrawler;
+	}
+
+	/**
+	 * Returns the recrawler that keeps the pages crawled fresh
+	 * 
+	 * @return the recrawler, or null if pages are only crawled once
+	 */
+	public Recrawler getRecrawler() {
+		return recrawler;
 	}
 
 	/**
-	 * Returns an unmodifiable view of the crawled URLs
+	 * Returns the links claimed for crawling, which can be checked without
+	 * looking up any hosts
 	 * 
-	 * @return an unmodifiable view of the crawled URLs
+	 * @return the links claimed for crawling
 	 */
-	public Collection<URL> getCrawled() {
-		return Collections.unmodifiableCollection(crawled);
+	public SeenSet getCrawled() {
+		return crawled;
 	}
 
 	/**
@@ -82,18 +354,62 @@ public class WebCrawler {
 	}
 
 	/**
-	 * Add words from the seed page to the index.
+	 * Replaces the words of a page that changed since it was indexed. Links on
+	 * the page are not followed again. The page is indexed on its own first and
+	 * then swapped in all at once, so searches never see it half replaced.
+	 * 
+	 * @param location the location the page was indexed under
+	 * @param html the new html of the page
+	 */
+	public void reindex(String location, String html) {
+		InvertedIndex page = new InvertedIndex();
+		addToIndex(location, HtmlFields.parse(html), page);
+		storage.replaceLocation(location, page);
+	}
+
+	/**
+	 * Add words from the seed page to the index. Positions run through the fields
+	 * in page order, and each word is tagged with the field it was found in. The
+	 * title is skipped unless titles are indexed.
 	 * 
 	 * @param seed the url for the web page
-	 * @param html the cleaned html from the seed
+	 * @param page the text of the seed page by field
 	 */
-	private void addToIndex(String seed, String html) {
-		ArrayList<String> words = new ArrayList<>();
+	private void addToIndex(String seed, HtmlFields page) {
+		addToIndex(seed, page, storage);
+	}
+
+	/**
+	 * Add words from the seed page to an index
+	 * 
+	 * @param seed the url for the web page
+	 * @param page the text of the seed page by field
+	 * @param index the index to add the words to
+	 */
+	private void addToIndex(String seed, HtmlFields page, InvertedIndex index) {
 		Stemmer stemmer = new SnowballStemmer(ENGLISH);
+		ArrayList<String> text = documents == null ? null : new ArrayList<>();
 		int position = 0;
-		FileStemmer.addStems(html, stemmer, words);
-		for (String word : words) {
-			storage.addIndexEntry(word, seed, ++position);
+		for (int run = 0; run < page.size(); run++) {
+			Field field = page.field(run);
+			if (field == Field.TITLE && !titles) {
+				continue;
+			}
+			if (text == null) {
+				for (String word : FileStemmer.parse(page.text(run))) {
+					index.addIndexEntry(stemmer.stem(word).toString(), seed, ++position, field);
+				}
+				continue;
+			}
+			for (String token : FileStemmer.split(page.text(run))) {
+				for (String word : FileStemmer.parse(token)) {
+					index.addIndexEntry(stemmer.stem(word).toString(), seed, ++position, field);
+					text.add(token);
+				}
+			}
+		}
+		if (text != null) {
+			documents.add(seed, text);
 		}
 	}
 
@@ -105,9 +421,15 @@ public class WebCrawler {
 	 * @throws URISyntaxException if a URISyntaxException occurs
 	 */
 	private void singlePage(String seed) throws MalformedURLException, URISyntaxException {
-		String html = HtmlFetcher.fetch(seed, 3);
+		URL url = new URL(seed);
+		crawled.add(SeenSet.key(url));
+		Map<String, String> validators = new HashMap<>();
+		String html = HtmlFetcher.fetch(url, 3, pool, validators);
 		if (html != null) {		
-			addToIndex(seed, HtmlCleaner.stripHtml(html));
+			addToIndex(seed, HtmlFields.parse(html));
+			if (recrawler != null) {
+				recrawler.add(seed, html, validators);
+			}
 		}
 	}
 
@@ -119,11 +441,190 @@ public class WebCrawler {
 	 * @throws URISyntaxException if a URISyntaxException occurs
 	 */
 	private void crawlPages(String seed) throws MalformedURLException, URISyntaxException {
-		URL url = new URL(seed);
-		crawled.add(url);
-		crawl--;
-		queue.execute(new Crawl(url));
-		queue.finish();
+		URL url = LinkFinder.normalize(new URL(seed));
+		if (log != null) {
+			resume();
+			reserve(url);
+			fill();
+			finish();
+			log.compact();
+			return;
+		}
+		synchronized (claims) {
+			crawled.add(url.toString());
+			crawl--;
+		}
+		submit(url);
+		finish();
+	}
+
+	/**
+	 * Indexes the pages crawled before the log was opened, and counts the links
+	 * claimed back then against the pages left to crawl. The pages are indexed by
+	 * the workers that would have crawled them.
+	 */
+	private void resume() {
+		long claimed;
+		try {
+			claimed = log.resume((location, html) -> {
+				incrementPending();
+				Runnable replay = () -> {
+					try {
+						addToIndex(location, HtmlFields.parse(html));
+					} finally {
+						decrementPending();
+					}
+				};
+				if (crawlers != null) {
+					crawlers.execute(replay);
+				} else if (queue != null) {
+					queue.execute(replay);
+				} else {
+					replay.run();
+				}
+			});
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		synchronized (claims) {
+			crawl -= (int) Math.min(claimed, crawl);
+		}
+	}
+
+	/**
+	 * Claims a link for crawling if it has not been crawled and there is room for
+	 * more pages. With a log, the link is added to the frontier on disk.
+	 * 
+	 * @param url the normalized link
+	 * @return true if the link should be crawled
+	 */
+	private boolean reserve(URL url) {
+		String link = url.toString();
+		// most links were claimed already, which needs neither the lock nor the log
+		if (crawled.contains(link)) {
+			return false;
+		}
+		synchronized (claims) {
+			if (crawl <= 0 || !(log == null ? crawled.add(link) : log.add(url))) {
+				return false;
+			}
+			crawl--;
+			return true;
+		}
+	}
+
+	/**
+	 * Starts the links at the front of the log, until the log has as many links
+	 * being crawled as it allows
+	 */
+	private void fill() {
+		URL seed;
+		while ((seed = log.next()) != null) {
+			submit(seed);
+		}
+	}
+
+	/**
+	 * Hands a page to the frontier if there is one, and otherwise starts it
+	 * 
+	 * @param seed the normalized url of the page
+	 */
+	private void submit(URL seed) {
+		incrementPending();
+		if (frontier != null) {
+			frontier.add(seed);
+		} else {
+			start(seed);
+		}
+	}
+
+	/**
+	 * Starts crawling a page. Without a fetcher, the page is fetched and processed
+	 * by one task on the work queue, or on its own thread if each page has one.
+	 * With a fetcher, the page is fetched without using a worker, and only handed
+	 * to the work queue once it arrives.
+	 * 
+	 * @param seed the normalized url of the page
+	 */
+	private void start(URL seed) {
+		if (crawlers != null) {
+			crawlers.execute(new Crawl(seed, null, new HashMap<>()));
+		} else if (fetcher == null) {
+			queue.execute(new Crawl(seed, null, new HashMap<>()));
+		} else {
+			Map<String, String> validators = new HashMap<>();
+			fetcher.fetch(seed, 3, validators).whenComplete((html, error) -> {
+				doneFetching(seed);
+				if (html != null) {
+					queue.execute(new Crawl(seed, html, validators));
+				} else {
+					finished(seed, null, null);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Marks that a page has been fetched, so the frontier can start the next page
+	 * from the same host
+	 * 
+	 * @param seed the normalized url of the page
+	 */
+	private void doneFetching(URL seed) {
+		if (frontier != null) {
+			frontier.finished(seed);
+		}
+	}
+
+	/**
+	 * Marks that a page is done. With a log, the page is saved and the next links
+	 * in the log are started before the page stops counting as pending, so the
+	 * crawl cannot look finished while the log still has links.
+	 * 
+	 * @param seed the normalized url of the page
+	 * @param html the html of the page if it was indexed, or null if not
+	 * @param validators the "ETag" and "Last-Modified" headers of the page by
+	 *   name, or null if there were none
+	 */
+	private void finished(URL seed, String html, Map<String, String> validators) {
+		if (recrawler != null && html != null) {
+			recrawler.add(seed.toString(), html, validators);
+		}
+		if (log != null) {
+			log.finished(seed, html);
+			fill();
+		}
+		decrementPending();
+	}
+
+	/**
+	 * Increments the number of pages being fetched or processed
+	 */
+	private synchronized void incrementPending() {
+		pending++;
+	}
+
+	/**
+	 * Decrements the number of pages being fetched or processed
+	 */
+	private synchronized void decrementPending() {
+		pending--;
+		if (pending <= 0) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Waits until every page that was queued has been processed
+	 */
+	private synchronized void finish() {
+		try {
+			while (pending > 0) {
+				wait();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 	}
 
 	/**
@@ -139,45 +640,93 @@ public class WebCrawler {
 		 */
 		private final URL seed;
 
+		/**
+		 * the html already fetched for the seed, or null to fetch it
+		 */
+		private final String fetched;
+
+		/**
+		 * the validator headers of the page, filled in when it is fetched
+		 */
+		private final Map<String, String> validators;
+
 		/**
 		 * Constructor for this task
 		 * 
-		 * @param seed the url
-		 * @throws MalformedURLException if a MalformedURLException occurs
-		 * @throws URISyntaxException if a URISyntaxException occurs
+		 * @param seed the normalized url
+		 * @param fetched the html of the page if it was already fetched, or null to
+		 *   fetch it
+		 * @param validators the validator headers of the page if it was already
+		 *   fetched, or where to put them when it is
 		 */
-		public Crawl(URL seed) throws MalformedURLException, URISyntaxException {
-			this.seed = LinkFinder.normalize(seed);
+		public Crawl(URL seed, String fetched, Map<String, String> validators) {
+			this.seed = seed;
+			this.fetched = fetched;
+			this.validators = validators;
+		}
+
+		/**
+		 * Returns the html of the page, fetching it if needed
+		 * 
+		 * @return the html, or null if the page could not be fetched or is not html
+		 */
+		private String fetch() {
+			if (fetched != null) {
+				return fetched;
+			}
+			if (fetching != null) {
+				fetching.acquireUninterruptibly();
+			}
+			try {
+				return HtmlFetcher.fetch(seed, 3, pool, validators);
+			} finally {
+				if (fetching != null) {
+					fetching.release();
+				}
+				doneFetching(seed);
+			}
 		}
 
 		@Override
 		public void run() {
+			String html = null;
 			try {
-				String html = HtmlFetcher.fetch(seed, 3);
-				if (html != null) {
-					html = HtmlCleaner.stripBlockElements(html);
-					Collection<URL> urls = new LinkedHashSet<>();
-					LinkFinder.findUrls(seed, html, urls);
-					html = HtmlCleaner.stripEntities(HtmlCleaner.stripTags(html));
-					for (URL url : urls) {
-						if (crawl > 0) {
-							synchronized (crawled) {
-								if (crawled.contains(url)) {
-									continue;
-								}
-								crawled.add(url);
-							}
-							crawl--;
-							queue.execute(new Crawl(url));
-						} else {
-							break;
-						}
+				html = fetch();
+				if (html != null && processing != null) {
+					processing.acquireUninterruptibly();
+					try {
+						process(html);
+					} finally {
+						processing.release();
 					}
-					addToIndex(seed.toString(), html);
+				} else if (html != null) {
+					process(html);
 				}
 			} catch (MalformedURLException | URISyntaxException e) {
 				System.out.println("Failed to read link: " + seed);
+			} finally {
+				finished(seed, html, validators);
+			}
+		}
+
+		/**
+		 * Finds the links in a page to crawl next and adds its words to the index
+		 * 
+		 * @param html the html of the page
+		 * @throws MalformedURLException if a MalformedURLException occurs
+		 * @throws URISyntaxException if a URISyntaxException occurs
+		 */
+		private void process(String html) throws MalformedURLException, URISyntaxException {
+			// one pass over the page finds both its text and its links
+			HtmlFields page = HtmlFields.parse(html, seed);
+			for (URL url : page.links()) {
+				URL link = LinkFinder.normalize(url);
+				// with a log, new links wait in the log until there is room to start them
+				if (reserve(link) && log == null) {
+					submit(link);
+				}
 			}
+			addToIndex(seed.toString(), page);
 		}
 	}
 
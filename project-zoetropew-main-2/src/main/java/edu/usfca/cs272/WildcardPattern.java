@@ -0,0 +1,134 @@
+package edu.usfca.cs272;
+
+/**
+ * A word pattern where {@code *} matches any number of letters, such as
+ * {@code *ing}, {@code *net*} or {@code re*ing}. Each literal part of the
+ * pattern is cleaned the same way as the words in the index, but is not
+ * stemmed.
+ *
+ * @author zoe
+ *
+ */
+public class WildcardPattern {
+
+	/**
+	 * The wildcard character
+	 */
+	public static final char WILDCARD = '*';
+
+	/**
+	 * The literal parts of the pattern between wildcards. The first part is the
+	 * required prefix and the last part is the required suffix, either of which may
+	 * be empty.
+	 */
+	private final String[] parts;
+
+	/**
+	 * Constructs a pattern from a query word containing wildcards
+	 *
+	 * @param pattern the query word
+	 */
+	public WildcardPattern(String pattern) {
+		String[] split = pattern.split("\\*", -1);
+		for (int i = 0; i < split.length; i++) {
+			split[i] = FileStemmer.clean(split[i]);
+		}
+		this.parts = split;
+	}
+
+	/**
+	 * Returns whether the word contains a wildcard
+	 *
+	 * @param word the query word
+	 * @return true if the word is a wildcard pattern
+	 */
+	public static boolean isPattern(String word) {
+		return word.indexOf(WILDCARD) >= 0;
+	}
+
+	/**
+	 * Returns the letters every match starts with
+	 *
+	 * @return the prefix, which may be empty
+	 */
+	public String prefix() {
+		return parts[0];
+	}
+
+	/**
+	 * Returns the letters every match ends with
+	 *
+	 * @return the suffix, which may be empty
+	 */
+	public String suffix() {
+		return parts.length > 1 ? parts[parts.length - 1] : "";
+	}
+
+	/**
+	 * Returns the longest literal part between the first and last wildcards
+	 *
+	 * @return the longest inner part, which may be empty
+	 */
+	public String longestInfix() {
+		String longest = "";
+		for (int i = 1; i < parts.length - 1; i++) {
+			if (parts[i].length() > longest.length()) {
+				longest = parts[i];
+			}
+		}
+		return longest;
+	}
+
+	/**
+	 * Returns whether the pattern has no letters at all and would match every word
+	 *
+	 * @return true if the pattern is only wildcards
+	 */
+	public boolean isEmpty() {
+		for (String part : parts) {
+			if (!part.isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns whether the word matches this pattern
+	 *
+	 * @param word the word to test
+	 * @return true if the word matches
+	 */
+	public boolean matches(String word) {
+		if (parts.length == 1) {
+			return word.equals(parts[0]);
+		}
+
+		String prefix = prefix();
+		String suffix = suffix();
+		if (word.length() < prefix.length() + suffix.length()
+				|| !word.startsWith(prefix) || !word.endsWith(suffix)) {
+			return false;
+		}
+
+		// match the inner parts greedily, leftmost first
+		int from = prefix.length();
+		int to = word.length() - suffix.length();
+		for (int i = 1; i < parts.length - 1; i++) {
+			int found = word.indexOf(parts[i], from);
+			if (found < 0 || found + parts[i].length() > to) {
+				return false;
+			}
+			from = found + parts[i].length();
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the canonical form of this pattern
+	 */
+	@Override
+	public String toString() {
+		return String.join(String.valueOf(WILDCARD), parts);
+	}
+}